@@ -0,0 +1,173 @@
+/* CoordList.java */
+
+package list;
+
+/**
+ *  A CoordList is a mutable list of (direction, x, y) entries, each packed
+ *  into one int of an int[] that grows as needed and is never shrunk.  It
+ *  does the job of an SList of SListNodes for code that runs often enough
+ *  for node allocation to matter: clear() empties the list for reuse without
+ *  allocating, and entries are read by index, so walking the list needs no
+ *  node objects and throws no InvalidNodeException.
+ *
+ *  Directions and coordinates must each fit in 8 bits.  Index 0 is the front
+ *  of the list.
+ **/
+
+public class CoordList {
+
+  private int[] entries;
+  private int size;
+
+  /**
+   *  CoordList() constructs an empty CoordList with room for eight entries.
+   **/
+  public CoordList() {
+    entries = new int[8];
+    size = 0;
+  }
+
+  /**
+   *  pack() packs a direction and a pair of coordinates into one entry.
+   *
+   *  @param direction is the direction, 0 to 255.
+   *  @param x is the x coordinate, 0 to 255.
+   *  @param y is the y coordinate, 0 to 255.
+   *  @return the packed entry.
+   **/
+  public static int pack(int direction, int x, int y) {
+    return direction << 16 | x << 8 | y;
+  }
+
+  /**
+   *  direction(), x() and y() unpack an entry made by pack().
+   **/
+  public static int direction(int entry) {
+    return entry >>> 16;
+  }
+
+  public static int x(int entry) {
+    return (entry >>> 8) & 0xFF;
+  }
+
+  public static int y(int entry) {
+    return entry & 0xFF;
+  }
+
+  /**
+   *  length() returns the number of entries in this CoordList.
+   *
+   *  Performance:  runs in O(1) time.
+   **/
+  public int length() {
+    return size;
+  }
+
+  /**
+   *  isEmpty() returns true if this CoordList is empty.
+   *
+   *  Performance:  runs in O(1) time.
+   **/
+  public boolean isEmpty() {
+    return size == 0;
+  }
+
+  /**
+   *  clear() removes every entry, keeping the array for reuse.
+   *
+   *  Performance:  runs in O(1) time.
+   **/
+  public void clear() {
+    size = 0;
+  }
+
+  /**
+   *  insertFront() inserts an entry at the front of this CoordList.
+   *
+   *  @param direction is the direction of the entry.
+   *  @param x is the x coordinate of the entry.
+   *  @param y is the y coordinate of the entry.
+   *
+   *  Performance:  runs in O(n) time, where n is the length of the list;
+   *  lists on the board hold at most a few dozen entries.
+   **/
+  public void insertFront(int direction, int x, int y) {
+    grow();
+    System.arraycopy(entries, 0, entries, 1, size);
+    entries[0] = pack(direction, x, y);
+    size++;
+  }
+
+  /**
+   *  insertBack() inserts an entry at the back of this CoordList.
+   *
+   *  Performance:  runs in O(1) amortized time.
+   **/
+  public void insertBack(int direction, int x, int y) {
+    grow();
+    entries[size] = pack(direction, x, y);
+    size++;
+  }
+
+  /**
+   *  get() returns the packed entry at an index.
+   *
+   *  @param i is the index, 0 to length() - 1.  Other indices return
+   *  whatever the array holds there; callers stay within length().
+   *  @return the packed entry.
+   *
+   *  Performance:  runs in O(1) time.
+   **/
+  public int get(int i) {
+    return entries[i];
+  }
+
+  /**
+   *  remove() removes the entry at an index, keeping the order of the rest.
+   *
+   *  Performance:  runs in O(n) time, where n is the length of the list.
+   **/
+  public void remove(int i) {
+    size--;
+    System.arraycopy(entries, i + 1, entries, i, size - i);
+  }
+
+  private void grow() {
+    if (size == entries.length) {
+      int[] bigger = new int[entries.length * 2];
+      System.arraycopy(entries, 0, bigger, 0, size);
+      entries = bigger;
+    }
+  }
+
+  /**
+   *  toString() returns a String representation of this CoordList in the
+   *  same form as SList's.
+   *
+   *  @return a String representation of this CoordList.
+   **/
+  public String toString() {
+    StringBuilder result = new StringBuilder("[  \n");
+    for (int i = 0; i < size; i++) {
+      result.append("(").append(x(entries[i]) - 1).append(", ").append(y(entries[i]) - 1).append(")\n");
+    }
+    return result.append("]").toString();
+  }
+
+  /*  Test Code -- Reader Can Ignore  */
+
+  public static void main(String[] args) {
+    CoordList l = new CoordList();
+    for (int i = 0; i < 20; i++) {
+      l.insertFront(i % 8, i, 19 - i);
+    }
+    l.remove(0);
+    l.remove(l.length() - 1);
+    boolean ok = l.length() == 18 && x(l.get(0)) == 18 && y(l.get(0)) == 1
+        && direction(l.get(17)) == 1;
+    l.clear();
+    l.insertBack(7, 255, 3);
+    ok = ok && l.length() == 1 && direction(l.get(0)) == 7 && x(l.get(0)) == 255 && y(l.get(0)) == 3;
+    System.out.println(ok ? "PASSED" : "FAILED");
+  }
+}
@@ -0,0 +1,65 @@
+/* Analysis.java */
+
+package player;
+
+/** The engine's verdict on one position, as produced by BatchAnalyzer: the
+*  best move found, its score from the point of view of the side to move,
+*  the depth of the deepest completed search and the nodes it took.
+**/
+public class Analysis {
+	private final Position position;
+	private final Move move;
+	private final double score;
+	private final int depth;
+	private final long nodes;
+
+	Analysis(Position position, Move move, double score, int depth, long nodes) {
+		this.position = position;
+		this.move = move;
+		this.score = score;
+		this.depth = depth;
+		this.nodes = nodes;
+	}
+
+	/** Returns the analyzed position.
+	*  @return the position
+	**/
+	public Position position() {
+		return position;
+	}
+
+	/** Returns the best move found.
+	*  @return the move, or null if the game is already over or no move
+	*          scored better than the worst case
+	**/
+	public Move move() {
+		return move;
+	}
+
+	/** Returns the best move's score for the side to move. A network found
+	*  n plies into the search scores 50 / n, and the evaluator's scores are
+	*  divided by the depth they were computed at, as in MachinePlayer.
+	*  @return the score
+	**/
+	public double score() {
+		return score;
+	}
+
+	/** Returns the depth of the deepest search that completed.
+	*  @return the depth in plies
+	**/
+	public int depth() {
+		return depth;
+	}
+
+	/** Returns the number of nodes searched, counting every iteration.
+	*  @return the node count
+	**/
+	public long nodes() {
+		return nodes;
+	}
+
+	public String toString() {
+		return position + " -> " + move + " " + score + " d" + depth + " " + nodes + "n";
+	}
+}
@@ -0,0 +1,267 @@
+/* BatchAnalyzer.java */
+
+package player;
+import java.util.Iterator;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+/** Analyzes large numbers of positions offline, for labelling training data
+*  or auditing games. Each position is searched from its side to move, to a
+*  fixed depth or until a node budget runs out, and yields an Analysis.
+*
+*  Positions are read from the input in chunks of chunkSize and each chunk
+*  is searched on a work-stealing ForkJoinPool before the next is read, so
+*  memory use does not grow with the input. Results are passed on in input
+*  order. Every worker thread keeps one Searcher, with its own transposition
+*  table unless the analyzer was given one to share, for as long as the
+*  analyzer lives.
+**/
+public class BatchAnalyzer {
+	static final int TABLE_BITS = 16;
+	static final int MAX_DEPTH = 32;
+
+	private ForkJoinPool pool;
+	private int chunkSize;
+
+	private TranspositionTable table;
+
+	private ThreadLocal<Searcher> searchers = new ThreadLocal<Searcher>() {
+		protected Searcher initialValue() {
+			return new Searcher(GameSession.WHITE, table != null ? table : new HeapTranspositionTable(TABLE_BITS));
+		}
+	};
+
+	/** Creates an analyzer.
+	*  @param threads is the number of worker threads
+	*  @param chunkSize is how many positions are read and searched at once
+	**/
+	public BatchAnalyzer(int threads, int chunkSize) {
+		this(threads, chunkSize, null);
+	}
+
+	/** Creates an analyzer whose workers all search with one table, such
+	*  as a MappedTranspositionTable shared with other processes.
+	*  @param threads is the number of worker threads
+	*  @param chunkSize is how many positions are read and searched at once
+	*  @param table is the shared table, or null for one table per worker
+	**/
+	BatchAnalyzer(int threads, int chunkSize, TranspositionTable table) {
+		if (chunkSize < 1) {
+			throw new IllegalArgumentException("chunkSize must be positive: " + chunkSize);
+		}
+		this.pool = new ForkJoinPool(threads);
+		this.chunkSize = chunkSize;
+		this.table = table;
+	}
+
+	/** Searches every position to a fixed depth.
+	*  @param positions are the positions to analyze
+	*  @param depth is the search depth in plies, at least 1
+	*  @param out receives one Analysis per position, in input order
+	*  @return the number of positions analyzed
+	**/
+	public long analyzeToDepth(Stream<Position> positions, int depth, Consumer<Analysis> out) {
+		if (depth < 1) {
+			throw new IllegalArgumentException("depth must be positive: " + depth);
+		}
+		return analyze(positions.iterator(), depth, 0L, out);
+	}
+
+	/** Searches every position one ply deeper at a time until its node
+	*  budget runs out, and reports the deepest search that completed. The
+	*  first ply is always searched in full.
+	*  @param positions are the positions to analyze
+	*  @param nodeBudget is the most nodes to spend on one position
+	*  @param out receives one Analysis per position, in input order
+	*  @return the number of positions analyzed
+	**/
+	public long analyzeWithNodes(Stream<Position> positions, long nodeBudget, Consumer<Analysis> out) {
+		if (nodeBudget < 1) {
+			throw new IllegalArgumentException("nodeBudget must be positive: " + nodeBudget);
+		}
+		return analyze(positions.iterator(), 0, nodeBudget, out);
+	}
+
+	/** Shuts the worker threads down once they are idle.
+	**/
+	public void shutdown() {
+		pool.shutdown();
+	}
+
+	private long analyze(Iterator<Position> in, int depth, long nodeBudget, Consumer<Analysis> out) {
+		Position[] chunk = new Position[chunkSize];
+		Analysis[] results = new Analysis[chunkSize];
+		long count = 0;
+		while (in.hasNext()) {
+			int n = 0;
+			while (n < chunkSize && in.hasNext()) {
+				chunk[n++] = in.next();
+			}
+			pool.invoke(new Slice(chunk, results, 0, n, depth, nodeBudget));
+			for (int i = 0; i < n; i++) {
+				out.accept(results[i]);
+				chunk[i] = null;
+				results[i] = null;
+			}
+			count += n;
+		}
+		return count;
+	}
+
+	/** Searches one position on the calling worker's Searcher.
+	*  @param p is the position
+	*  @param depth is the fixed depth, or 0 to use the node budget
+	*  @param nodeBudget is the node budget when depth is 0
+	*  @return the analysis
+	**/
+	private Analysis analyzeOne(Position p, int depth, long nodeBudget) {
+		Searcher s = searchers.get();
+		if (depth > 0) {
+			s.load(p);
+			Best best = s.search(p.toMove(), depth);
+			return new Analysis(p, best.move, best.score, depth, s.nodes());
+		}
+		Best best = null;
+		int completed = 0;
+		long total = 0;
+		for (int d = 1; d <= MAX_DEPTH && total < nodeBudget; d++) {
+			s.load(p);
+			if (d > 1) {
+				s.setNodeLimit(nodeBudget - total);
+			}
+			Best result = s.search(p.toMove(), d);
+			total += s.nodes();
+			if (result == null) {
+				break;
+			}
+			best = result;
+			completed = d;
+		}
+		return new Analysis(p, best.move, best.score, completed, total);
+	}
+
+	/** Analyzes a range of a chunk, splitting it in half until single
+	*  positions remain so that idle workers can steal the halves.
+	**/
+	private class Slice extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		private Position[] chunk;
+		private Analysis[] results;
+		private int from;
+		private int to;
+		private int depth;
+		private long nodeBudget;
+
+		Slice(Position[] chunk, Analysis[] results, int from, int to, int depth, long nodeBudget) {
+			this.chunk = chunk;
+			this.results = results;
+			this.from = from;
+			this.to = to;
+			this.depth = depth;
+			this.nodeBudget = nodeBudget;
+		}
+
+		protected void compute() {
+			if (to - from == 1) {
+				results[from] = analyzeOne(chunk[from], depth, nodeBudget);
+				return;
+			}
+			int mid = (from + to) >>> 1;
+			invokeAll(new Slice(chunk, results, from, mid, depth, nodeBudget),
+					new Slice(chunk, results, mid, to, depth, nodeBudget));
+		}
+	}
+
+	/*  Test Code -- Reader Can Ignore  */
+
+	/** Returns a stream of positions from random games, made lazily so that
+	*  a long stream never lives in memory.
+	**/
+	private static Stream<Position> randomPositions(final long seed, long count) {
+		return Stream.generate(new java.util.function.Supplier<Position>() {
+			long game = seed;
+
+			public Position get() {
+				java.util.Random r = new java.util.Random(game++);
+				GameSession s = new GameSession(new RandomPlayer(GameSession.WHITE, r.nextLong()),
+						new RandomPlayer(GameSession.BLACK, r.nextLong()));
+				int plies = r.nextInt(30);
+				while (s.movesPlayed() < plies && s.step()) {
+				}
+				if (s.isOver()) {
+					return get();
+				}
+				return s.position();
+			}
+		}).limit(count);
+	}
+
+	public static void main(String[] args) {
+		int threads = Runtime.getRuntime().availableProcessors();
+		final BatchAnalyzer analyzer = new BatchAnalyzer(Math.max(2, threads), 64);
+
+		// results must match single-threaded searches
+		final Searcher check = new Searcher(GameSession.WHITE, new HeapTranspositionTable(TABLE_BITS));
+		final int[] mismatches = new int[1];
+		final long[] nodes = new long[1];
+		long start = System.nanoTime();
+		long n = analyzer.analyzeToDepth(randomPositions(1, 500), 2, new Consumer<Analysis>() {
+			public void accept(Analysis a) {
+				check.load(a.position());
+				Best b = check.search(a.position().toMove(), 2);
+				if (Double.compare(b.score, a.score()) != 0) {
+					mismatches[0]++;
+				}
+				nodes[0] += a.nodes();
+			}
+		});
+		System.out.println(n + " positions to depth 2: " + nodes[0] + " nodes, "
+				+ (System.nanoTime() - start) / 1000000 + " ms, score mismatches " + mismatches[0]);
+
+		// workers sharing one table: a second pass over the same positions
+		// finds the first pass's best moves and searches fewer nodes
+		BatchAnalyzer shared = new BatchAnalyzer(Math.max(2, threads), 64, new OffHeapTranspositionTable(TABLE_BITS));
+		final long[] passNodes = new long[2];
+		for (int pass = 0; pass < 2; pass++) {
+			final int p = pass;
+			shared.analyzeToDepth(randomPositions(4, 200), 3, new Consumer<Analysis>() {
+				public void accept(Analysis a) {
+					passNodes[p] += a.nodes();
+				}
+			});
+		}
+		shared.shutdown();
+		System.out.println("200 positions to depth 3 on a shared table: " + passNodes[0] + " nodes cold, "
+				+ passNodes[1] + " warm");
+
+		final int[] overBudget = new int[1];
+		final int[] deepest = new int[1];
+		n = analyzer.analyzeWithNodes(randomPositions(2, 200), 2000, new Consumer<Analysis>() {
+			public void accept(Analysis a) {
+				deepest[0] = Math.max(deepest[0], a.depth());
+				// only the first ply may run over the budget
+				if (a.depth() > 1 && a.nodes() > 2000 + 1) {
+					overBudget[0]++;
+				}
+			}
+		});
+		System.out.println(n + " positions with 2000 nodes each: deepest " + deepest[0]
+				+ ", over budget " + overBudget[0]);
+
+		// a long stream in small chunks keeps the heap flat
+		Runtime rt = Runtime.getRuntime();
+		final long[] peak = new long[1];
+		n = analyzer.analyzeToDepth(randomPositions(3, 20000), 1, new Consumer<Analysis>() {
+			public void accept(Analysis a) {
+				peak[0] = Math.max(peak[0], rt.totalMemory() - rt.freeMemory());
+			}
+		});
+		System.out.println(n + " positions to depth 1, peak heap " + peak[0] / (1024 * 1024) + " MB");
+		analyzer.shutdown();
+		System.out.println(mismatches[0] == 0 && overBudget[0] == 0 && passNodes[1] < passNodes[0]
+				? "PASSED" : "FAILED");
+	}
+}
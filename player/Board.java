@@ -5,7 +5,7 @@ import list.*;
 
 /** A class that represents the game board and all of its pieces. This board is
 *   a 10 x 10 array of SpaceNode objects that hold an item for what the cell 
-*   contains and an SList that holds coordinates of all the other chips of the 
+*   contains and a CoordList that holds coordinates of all the other chips of the 
 *   same color. The board is bigger than the 9 x 9 board to make the isValid 
 *   function easier.
 */
@@ -17,6 +17,9 @@ public class Board {
 	static final int SIZE = 10;
 	static final int CHIPS = 10;
 
+	// the most valid moves a player can have, as sized by validMoves()
+	static final int MAX_MOVES = 38 * CHIPS;
+
 	static final int CONTINUE_SEARCH = 0;
 
 	static final int NORTH = 1;
@@ -28,12 +31,22 @@ public class Board {
 	static final int WEST = 7;
 	static final int NORTHWEST = 8;
 
-	static boolean GAMEOVER = false;
+	// one in every SCAN_SAMPLE_RATE isNetwork/validMoves calls is timed
+	static final int SCAN_SAMPLE_RATE = 64;
 
 	int blackChips;
 	int whiteChips;
 	SpaceNode[][] myBoard;
 
+	// set once this board has seen a QUIT move
+	private boolean gameOver;
+
+	// counts isNetwork/validMoves calls for BoardScanEvent sampling
+	private int scanCount;
+
+	// the moves validMoves() fills before copying out the valid ones
+	private Move[] scratch;
+
 	Board() {
 		myBoard = new SpaceNode[SIZE][SIZE];
 		for(int j = 0; j < SIZE; j++){
@@ -45,10 +58,30 @@ public class Board {
 		whiteChips = CHIPS;
 	}
 
+	/** Makes a board equal to another that shares nothing with it.
+	*  @param b is the board copied
+	**/
 	Board(Board b) {
-		myBoard = b.myBoard;
+		this();
+		copyFrom(b);
+	}
+
+	/** Makes this board a copy of another, without sharing anything with it
+	*  and without allocating. Search state is cleared.
+	*  @param b is the board copied
+	**/
+	void copyFrom(Board b) {
+		for (int i = 0; i < SIZE; i++) {
+			for (int j = 0; j < SIZE; j++) {
+				SpaceNode cell = myBoard[i][j];
+				cell.item = b.myBoard[i][j].item;
+				cell.coordList.clear();
+				cell.visited = false;
+			}
+		}
 		blackChips = b.blackChips;
 		whiteChips = b.whiteChips;
+		gameOver = b.gameOver;
 	}
 
 	/** This function returns all the valid moves possible for a certain player
@@ -58,6 +91,32 @@ public class Board {
 	*  @return an array of all possible valid moves of size that varies
 	*/
 	Move[] validMoves(int player) {
+		if (++scanCount % SCAN_SAMPLE_RATE != 0) {
+			return findValidMoves(player);
+		}
+		BoardScanEvent event = new BoardScanEvent();
+		event.begin();
+		Move[] moveArr = findValidMoves(player);
+		event.end();
+		if (event.shouldCommit()) {
+			int size = 0;
+			while (size < moveArr.length && moveArr[size] != null) {
+				size++;
+			}
+			event.operation = BoardScanEvent.VALID_MOVES;
+			event.color = player;
+			event.resultSize = size;
+			event.commit();
+		}
+		return moveArr;
+	}
+
+	/** Builds the array returned by validMoves(). Valid moves are packed at
+	*  the front of the array and the unused tail is null.
+	*  @param player is who we want to know which moves are valid
+	*  @return an array of all possible valid moves of size that varies
+	**/
+	private Move[] findValidMoves(int player) {
 		// how many chips are left in the players chips
 		int playerChips;
 		if (player == BLACK) {
@@ -65,18 +124,84 @@ public class Board {
 		} else {
 			playerChips = whiteChips;
 		}
-		// now if playerChips < 0 then move is STEP MOVE
 
 		// create appropriate size array for either add moves or step moves
 		Move[] moveArr;
 		if (playerChips > 0) {
 			moveArr = new Move[48 - (CHIPS - playerChips)];
 		} else {
-			moveArr = new Move[38 * CHIPS];
+			moveArr = new Move[MAX_MOVES];
 		}
 
-		// fill moveArr
-		int counter = 0; 
+		// fill moveArr with copies, since the scratch moves get reused
+		if (scratch == null) {
+			scratch = newMoveBuffer();
+		}
+		int count = fillMoves(player, scratch);
+		for (int i = 0; i < count; i++) {
+			Move m = scratch[i];
+			if (m.moveKind == Move.STEP) {
+				moveArr[i] = new Move(m.x1, m.y1, m.x2, m.y2);
+			} else {
+				moveArr[i] = new Move(m.x1, m.y1);
+			}
+		}
+		return moveArr;
+	}
+
+	/** Returns a buffer that generateMoves() can fill.
+	*  @return MAX_MOVES + 1 preallocated moves
+	**/
+	static Move[] newMoveBuffer() {
+		Move[] buffer = new Move[MAX_MOVES + 1];
+		for (int i = 0; i < buffer.length; i++) {
+			buffer[i] = new Move();
+		}
+		return buffer;
+	}
+
+	/** Writes the valid moves for a player into the front of a buffer of
+	*  reusable Move objects, in the same order as validMoves(), without
+	*  allocating. The entry just past the last valid move is overwritten
+	*  with scratch data.
+	*  @param player is who we want to know which moves are valid
+	*  @param buffer is a buffer from newMoveBuffer(); moves in it may be
+	*         reordered between calls
+	*  @return the number of valid moves
+	**/
+	int generateMoves(int player, Move[] buffer) {
+		if (++scanCount % SCAN_SAMPLE_RATE != 0) {
+			return fillMoves(player, buffer);
+		}
+		BoardScanEvent event = new BoardScanEvent();
+		event.begin();
+		int count = fillMoves(player, buffer);
+		event.end();
+		if (event.shouldCommit()) {
+			event.operation = BoardScanEvent.VALID_MOVES;
+			event.color = player;
+			event.resultSize = count;
+			event.commit();
+		}
+		return count;
+	}
+
+	/** Does the work of generateMoves().
+	*  @param player is who we want to know which moves are valid
+	*  @param buffer receives the moves
+	*  @return the number of valid moves
+	**/
+	private int fillMoves(int player, Move[] buffer) {
+		// how many chips are left in the players chips
+		int playerChips;
+		if (player == BLACK) {
+			playerChips = blackChips;
+		} else {
+			playerChips = whiteChips;
+		}
+		// now if playerChips < 0 then move is STEP MOVE
+
+		int counter = 0;
 		Move m;
 		for (int i = 0; i < 8; i++) {
 			for (int j = 0; j < 8; j++) {
@@ -84,24 +209,30 @@ public class Board {
 					for (int k = 0; k < 8; k++) {
 						for (int l = 0; l < 8; l++) {
 							if (myBoard[k + 1][l + 1].item == EMPTY) {
-								m = new Move(k, l, i, j);
+								m = buffer[counter];
+								m.moveKind = Move.STEP;
+								m.x1 = k;
+								m.y1 = l;
+								m.x2 = i;
+								m.y2 = j;
 								if (isValid(m, player)) {
-									moveArr[counter] = m;
 									counter++;
 								}
 							}
 						}
 					}
 				} else if (myBoard[i + 1][j + 1].item == EMPTY) {
-					m = new Move(i, j);
+					m = buffer[counter];
+					m.moveKind = Move.ADD;
+					m.x1 = i;
+					m.y1 = j;
 					if (isValid(m, player)) {
-						moveArr[counter] = m;
 						counter++;
 					}
 				}
 			}
 		}
-		return moveArr;
+		return counter;
 	}
 
 	/** This updates this board to add a black chip in the desired spot
@@ -131,7 +262,7 @@ public class Board {
 	**/
 	void removeChip(int x, int y, int player) {
 		myBoard[x + 1][y + 1].item = EMPTY;
-		myBoard[x + 1][y + 1].coordList = new SList();
+		myBoard[x + 1][y + 1].coordList.clear();
 		if (player == WHITE) {
 			whiteChips++;
 		} else {
@@ -139,6 +270,56 @@ public class Board {
 		}
 	}
 
+	/** Updates this board with a move by the player. The move is assumed to
+	*  be valid.
+	*  @param m is the move being made
+	*  @param player is who is making the move
+	**/
+	void makeMove(Move m, int player) {
+		if (player == WHITE) {
+			addWhite(m.x1, m.y1);
+		} else {
+			addBlack(m.x1, m.y1);
+		}
+		if (m.moveKind == Move.STEP) {
+			removeChip(m.x2, m.y2, player);
+		}
+	}
+
+	/** Reverses a move made with makeMove(). Nothing happens if the square
+	*  the move added a chip to is empty.
+	*  @param m is the move we are reversing
+	*  @param player is who originally made the move
+	**/
+	void unmakeMove(Move m, int player) {
+		if (myBoard[m.x1 + 1][m.y1 + 1].item == EMPTY) {
+			return;
+		}
+		removeChip(m.x1, m.y1, player);
+		if (m.moveKind == Move.STEP) {
+			if (player == WHITE) {
+				addWhite(m.x2, m.y2);
+			} else {
+				addBlack(m.x2, m.y2);
+			}
+		}
+	}
+
+	/** Clears the coordinate lists and visited flags that the network and
+	*  evaluation functions leave on occupied cells, so the next isNetwork()
+	*  call starts clean.
+	**/
+	void clearSearchState() {
+		for (int i = 0; i < SIZE - 1; i++) {
+			for (int j = 0; j < SIZE - 1; j++) {
+				if (myBoard[i][j].item != EMPTY) {
+					myBoard[i][j].coordList.clear();
+					myBoard[i][j].visited = false;
+				}
+			}
+		}
+	}
+
 	/** Finds out whether a given move is valid for the player. This method
 	* takes into account the number of chips left, whether the game is over,
 	* whether the move is trying to add a chip in a spot that is not empty,
@@ -148,15 +329,15 @@ public class Board {
 	* @return whether the move is valid.
 	**/
 	boolean isValid(Move m, int player) { 
-		// no longer have valid moves if GAMEOVER
+		// no longer have valid moves if the game is over
 		boolean debug = false;
-		if (GAMEOVER) {
+		if (gameOver) {
 			return false;
 		}
 
 		// if movekind is quit then return false evermore. 
 		if(m.moveKind == Move.QUIT){
-			GAMEOVER = true;
+			gameOver = true;
 			return false;
 		}
 
@@ -275,6 +456,28 @@ public class Board {
 	*  @return whether the player has a network for this board
 	**/
 	boolean isNetwork(int player) {
+		if (++scanCount % SCAN_SAMPLE_RATE != 0) {
+			return findAnyNetwork(player);
+		}
+		BoardScanEvent event = new BoardScanEvent();
+		event.begin();
+		boolean network = findAnyNetwork(player);
+		event.end();
+		if (event.shouldCommit()) {
+			event.operation = BoardScanEvent.IS_NETWORK;
+			event.color = player;
+			event.resultSize = network ? 1 : 0;
+			event.commit();
+		}
+		return network;
+	}
+
+	/** Does the work of isNetwork() by searching from each chip in the
+	*  player's far goal.
+	*  @param player is the player in question
+	*  @return whether the player has a network for this board
+	**/
+	private boolean findAnyNetwork(int player) {
 		// check if enough chips have been played
 		if ((player == BLACK && blackChips > 4)
 		|| (player == WHITE && whiteChips > 4)) {
@@ -374,7 +577,6 @@ public class Board {
 		}
 
 		// What chips can this chip see?
-		myBoard[x][y].coordList = new SList(); // here
 		basicSeerFcn(this, x, y, player, true);
 
 		// return false if coordList is empty
@@ -385,22 +587,18 @@ public class Board {
 		// set space to visited (need to unset at bottom)
 		myBoard[x][y].visited = true;
 
-		// make list of possible moves (shrink SList)
-		SList tempList = myBoard[x][y].coordList;
-		SListNode tempNode = (SListNode)tempList.front();
-		SListNode nextNode;
-		try {
-			while (tempNode.isValidNode()) {
-				nextNode = (SListNode)tempNode.next();
-				if (myBoard[tempNode.valX()][tempNode.valY()].visited == true) {
-					tempNode.remove();
-				} else if (tempNode.item() == lastDirection){
-					tempNode.remove();
-				}
-				tempNode = nextNode;
+		// make list of possible moves (shrink the list)
+		CoordList tempList = myBoard[x][y].coordList;
+		int i = 0;
+		while (i < tempList.length()) {
+			int entry = tempList.get(i);
+			if (myBoard[CoordList.x(entry)][CoordList.y(entry)].visited == true) {
+				tempList.remove(i);
+			} else if (CoordList.direction(entry) == lastDirection) {
+				tempList.remove(i);
+			} else {
+				i++;
 			}
-		} catch (InvalidNodeException ine) {
-			System.err.println("InvalidNodeException 1");
 		}
 
 		// base case, if tempList empty return false
@@ -408,16 +606,11 @@ public class Board {
 			return false;
 		}
 
-		tempNode = (SListNode)tempList.front();
-		try {
-			while (tempNode.isValidNode()) {
-				if (findNetwork(tempNode.valX(), tempNode.valY(), player, counter + 1, tempNode.item())) {
-					return true;
-				}
-				tempNode = (SListNode)tempNode.next();
+		for (i = 0; i < tempList.length(); i++) {
+			int entry = tempList.get(i);
+			if (findNetwork(CoordList.x(entry), CoordList.y(entry), player, counter + 1, CoordList.direction(entry))) {
+				return true;
 			}
-		} catch (InvalidNodeException ine) {
-			System.err.println("InvalidNodeException 2");
 		}
 
 		// unset space to visited
@@ -426,10 +619,10 @@ public class Board {
 		return false;
 	}
 
-	/** This function fills up the SList for each SpaceNode that holds the 
+	/** This function fills up the coordinate list for each SpaceNode that holds the 
 	* coordinates of the other chips of the same color it can see. If it 
 	* sees a chip of another color or a chip it has already seen before,
-	* then this chip is not added to the SList.
+	* then this chip is not added to the list.
 	* @param b is the board we are using
 	* @param x is the x coordinate of the board
 	* @param y is the y coordinate of the board
@@ -441,7 +634,7 @@ public class Board {
 		boolean foundOpp = false;
 		int j;
 
-		b.myBoard[x][y].coordList = new SList();
+		b.myBoard[x][y].coordList.clear();
 
 		// going W
 		for (int i = (x - 1); i > 0; i--) {
@@ -559,10 +752,10 @@ public class Board {
 		}
 	}
 
-	/** This function fills up the SList for each SpaceNode that holds the 
+	/** This function fills up the coordinate list for each SpaceNode that holds the 
 	* coordinates of the other chips of the same color it can see. If it 
 	* sees a chip of another color or a chip it has already seen before,
-	* then this chip is not added to the SList.
+	* then this chip is not added to the list.
 	* @param b is the board we are using
 	* @param x is the x coordinate of the board
 	* @param y is the y coordinate of the board
@@ -574,7 +767,7 @@ public class Board {
 		boolean foundOpp = false;
 		int j;
 
-		b.myBoard[x][y].coordList = new SList();
+		b.myBoard[x][y].coordList.clear();
 
 		// going W
 		for (int i = (x - 1); i > 0; i--) {
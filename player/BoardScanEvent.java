@@ -0,0 +1,28 @@
+/* BoardScanEvent.java */
+
+package player;
+import jdk.jfr.*;
+
+/** A sampled Flight Recorder event covering one Board.isNetwork() or
+*  Board.validMoves() call. Only one call in every Board.SCAN_SAMPLE_RATE is
+*  timed, so the board's hot paths pay an int increment when recording is off.
+**/
+@Name("network.BoardScan")
+@Label("Board Scan")
+@Category({"Network", "Board"})
+@Description("A sampled isNetwork() or validMoves() call")
+@Enabled(false)
+@StackTrace(false)
+class BoardScanEvent extends Event {
+	static final String IS_NETWORK = "isNetwork";
+	static final String VALID_MOVES = "validMoves";
+
+	@Label("Operation")
+	String operation;
+
+	@Label("Color")
+	int color;
+
+	@Label("Result Size")
+	int resultSize;
+}
@@ -0,0 +1,32 @@
+/* ChooseMoveEvent.java */
+
+package player;
+import jdk.jfr.*;
+
+/** A Flight Recorder event committed once per MachinePlayer.chooseMove() call.
+*  The event's duration is the wall-clock time of the whole call. It is
+*  disabled by default and is turned on through a JFR configuration such as
+*  the network.jfc file at the top of the project.
+**/
+@Name("network.ChooseMove")
+@Label("Choose Move")
+@Category({"Network", "Search"})
+@Description("One MachinePlayer.chooseMove() call")
+@Enabled(false)
+@StackTrace(false)
+class ChooseMoveEvent extends Event {
+	@Label("Color")
+	int color;
+
+	@Label("Depth Reached")
+	int depth;
+
+	@Label("Score")
+	double score;
+
+	@Label("Nodes")
+	long nodes;
+
+	@Label("Move")
+	String move;
+}
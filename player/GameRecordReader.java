@@ -0,0 +1,307 @@
+/* GameRecordReader.java */
+
+package player;
+import java.io.*;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/** Reads files written by GameRecordWriter. The file is memory mapped one
+*  window at a time and games and moves are read through a cursor, so
+*  iterating over a corpus allocates nothing per game or per move:
+*
+*    while (reader.nextGame()) {
+*      while (reader.nextMove()) {
+*        ... reader.moveKind(), reader.x1(), reader.y1() ...
+*      }
+*    }
+*
+*  Games that straddle the end of a window cause the next window to be mapped
+*  at the start of that game.
+**/
+public class GameRecordReader implements Closeable {
+	static final long WINDOW_SIZE = 64L << 20;
+	static final int FILE_HEADER_BYTES = 6;
+
+	private RandomAccessFile file;
+	private FileChannel channel;
+	private long fileSize;
+	private boolean withStats;
+
+	// the currently mapped window of the file
+	private MappedByteBuffer window;
+	private long windowStart;
+
+	// the current game
+	private long nextGamePos;
+	private int result;
+	private int moveCount;
+	private int movesRead;
+	private int bodyEnd;
+
+	// the current move
+	private int moveKind;
+	private int x1;
+	private int y1;
+	private int x2;
+	private int y2;
+	private int depth;
+	private int score;
+	private long nodes;
+
+	/** Opens a game-record file and checks its header.
+	*  @param path is the file to read
+	*  @throws IOException if the file cannot be read or is not a game-record
+	*          file
+	**/
+	public GameRecordReader(File path) throws IOException {
+		file = new RandomAccessFile(path, "r");
+		channel = file.getChannel();
+		fileSize = channel.size();
+		nextGamePos = FILE_HEADER_BYTES;
+		map(0, FILE_HEADER_BYTES);
+		if (window.getInt(0) != GameRecordWriter.MAGIC) {
+			close();
+			throw new IOException(path + " is not a game-record file");
+		}
+		if (window.get(4) != GameRecordWriter.VERSION) {
+			close();
+			throw new IOException(path + " has unsupported version " + window.get(4));
+		}
+		withStats = (window.get(5) & GameRecordWriter.FLAG_STATS) != 0;
+	}
+
+	/** Returns whether every move in this file carries search statistics.
+	*  @return true if depth(), score() and nodes() are meaningful
+	**/
+	public boolean hasStats() {
+		return withStats;
+	}
+
+	/** Advances to the next game, skipping any unread moves of the current
+	*  one.
+	*  @return false if there are no more games
+	*  @throws IOException if the file is truncated or corrupt
+	**/
+	public boolean nextGame() throws IOException {
+		if (nextGamePos >= fileSize) {
+			return false;
+		}
+		map(nextGamePos, GameRecordWriter.GAME_HEADER_BYTES);
+		int at = (int)(nextGamePos - windowStart);
+		if ((window.get(at) & 0xFF) != GameRecordWriter.GAME_TAG) {
+			throw new IOException("bad game tag at offset " + nextGamePos);
+		}
+		result = window.get(at + 1);
+		moveCount = window.getShort(at + 2) & 0xFFFF;
+		int bodyLength = window.getInt(at + 4);
+		if (bodyLength < 0) {
+			throw new IOException("bad game length at offset " + nextGamePos);
+		}
+		long gameLength = GameRecordWriter.GAME_HEADER_BYTES + (long)bodyLength;
+		map(nextGamePos, gameLength);
+		window.position((int)(nextGamePos - windowStart) + GameRecordWriter.GAME_HEADER_BYTES);
+		bodyEnd = window.position() + bodyLength;
+		nextGamePos += gameLength;
+		movesRead = 0;
+		return true;
+	}
+
+	/** Returns the result of the current game.
+	*  @return the winner's color, or GameRecordWriter.NO_RESULT
+	**/
+	public int result() {
+		return result;
+	}
+
+	/** Returns the number of moves in the current game.
+	*  @return the move count
+	**/
+	public int moveCount() {
+		return moveCount;
+	}
+
+	/** Advances to the next move of the current game.
+	*  @return false once every move of the game has been read
+	*  @throws IOException if the move would run past the end of the game's
+	*          body, as it does when the move count is corrupt
+	**/
+	public boolean nextMove() throws IOException {
+		if (movesRead == moveCount) {
+			return false;
+		}
+		int at = window.position();
+		int b = at < bodyEnd ? window.get(at) & 0xFF : 0;
+		int length = ((b & GameRecordWriter.STEP_FLAG) != 0 ? 2 : 1)
+				+ (withStats ? GameRecordWriter.STATS_BYTES : 0);
+		if (at + length > bodyEnd) {
+			throw new IOException("move " + movesRead + " runs past the end of the game at offset "
+					+ (windowStart + at));
+		}
+		window.position(at + 1);
+		if (b == GameRecordWriter.QUIT_BYTE) {
+			moveKind = Move.QUIT;
+		} else if ((b & GameRecordWriter.STEP_FLAG) != 0) {
+			moveKind = Move.STEP;
+			int from = window.get() & 0xFF;
+			x2 = from >> 3;
+			y2 = from & 7;
+		} else {
+			moveKind = Move.ADD;
+		}
+		x1 = (b >> 3) & 7;
+		y1 = b & 7;
+		if (withStats) {
+			depth = window.get() & 0xFF;
+			score = window.getShort();
+			nodes = window.getInt() & 0xFFFFFFFFL;
+		}
+		movesRead++;
+		return true;
+	}
+
+	/** Returns the kind of the current move.
+	*  @return Move.ADD, Move.STEP or Move.QUIT
+	**/
+	public int moveKind() {
+		return moveKind;
+	}
+
+	/** Returns the x coordinate the current move puts a chip on.
+	*  @return the new x coordinate
+	**/
+	public int x1() {
+		return x1;
+	}
+
+	/** Returns the y coordinate the current move puts a chip on.
+	*  @return the new y coordinate
+	**/
+	public int y1() {
+		return y1;
+	}
+
+	/** Returns the x coordinate a STEP move takes its chip from.
+	*  @return the old x coordinate
+	**/
+	public int x2() {
+		return x2;
+	}
+
+	/** Returns the y coordinate a STEP move takes its chip from.
+	*  @return the old y coordinate
+	**/
+	public int y2() {
+		return y2;
+	}
+
+	/** Returns the search depth recorded with the current move.
+	*  @return the depth, 0 if the file has no statistics
+	**/
+	public int depth() {
+		return depth;
+	}
+
+	/** Returns the search score recorded with the current move.
+	*  @return the score, 0 if the file has no statistics
+	**/
+	public double score() {
+		return (double)score / GameRecordWriter.SCORE_SCALE;
+	}
+
+	/** Returns the node count recorded with the current move.
+	*  @return the nodes searched, 0 if the file has no statistics
+	**/
+	public long nodes() {
+		return nodes;
+	}
+
+	/** Builds a Move for the current move. This allocates, so bulk readers
+	*  should use the accessors instead.
+	*  @return a new Move equal to the current move
+	**/
+	public Move move() {
+		switch (moveKind) {
+		case Move.ADD:
+			return new Move(x1, y1);
+		case Move.STEP:
+			return new Move(x1, y1, x2, y2);
+		default:
+			return new Move();
+		}
+	}
+
+	/** Closes the file. The mapping is released when it is garbage collected.
+	*  @throws IOException if the file cannot be closed
+	**/
+	public void close() throws IOException {
+		window = null;
+		file.close();
+	}
+
+	/** Makes sure the bytes [pos, pos + length) are inside the mapped window,
+	*  mapping a new window that starts at pos if they are not.
+	*  @param pos is the file offset of the first byte needed
+	*  @param length is the number of bytes needed
+	*  @throws IOException if the file ends before pos + length
+	**/
+	private void map(long pos, long length) throws IOException {
+		if (pos + length > fileSize) {
+			throw new IOException("truncated game record at offset " + pos);
+		}
+		if (window != null && pos >= windowStart && pos + length <= windowStart + window.capacity()) {
+			return;
+		}
+		if (length > Integer.MAX_VALUE) {
+			throw new IOException("game record too large at offset " + pos);
+		}
+		long size = Math.min(Math.max(WINDOW_SIZE, length), fileSize - pos);
+		window = channel.map(FileChannel.MapMode.READ_ONLY, pos, size);
+		windowStart = pos;
+	}
+
+	// Test Code -- Reader Can Ignore
+	public static void main(String[] args) throws IOException {
+		File f = File.createTempFile("games", ".ngr");
+		f.deleteOnExit();
+		GameRecordWriter w = new GameRecordWriter(f, true);
+		w.startGame();
+		w.move(new Move(3, 4), 3, 1.5, 1234);
+		w.move(new Move(5, 6), 3, -2.25, 99999);
+		w.move(new Move(5, 6, 3, 4), 2, 50.0, 7);
+		w.endGame(MachinePlayer.WHITE);
+		w.startGame();
+		w.move(new Move(1, 0));
+		w.move(new Move());
+		w.endGame(GameRecordWriter.NO_RESULT);
+		w.close();
+
+		GameRecordReader r = new GameRecordReader(f);
+		while (r.nextGame()) {
+			System.out.println("game: result " + r.result() + ", " + r.moveCount() + " moves");
+			while (r.nextMove()) {
+				System.out.println("  " + r.move() + " depth " + r.depth() + " score " + r.score() + " nodes " + r.nodes());
+			}
+		}
+		r.close();
+		System.out.println("file size: " + f.length() + " bytes");
+
+		// a move count too large for the body is caught at the first move
+		// past its end, not read from the next game
+		RandomAccessFile raw = new RandomAccessFile(f, "rw");
+		raw.seek(FILE_HEADER_BYTES + 2);
+		raw.writeShort(4);
+		raw.close();
+		r = new GameRecordReader(f);
+		r.nextGame();
+		int read = 0;
+		try {
+			while (r.nextMove()) {
+				read++;
+			}
+			System.out.println("corrupt move count not caught");
+		} catch (IOException e) {
+			System.out.println("corrupt move count caught after " + read + " moves: " + e.getMessage());
+		}
+		r.close();
+	}
+}
@@ -0,0 +1,179 @@
+/* GameRecordWriter.java */
+
+package player;
+import java.io.*;
+
+/** Writes games in the compact binary game-record format read by
+*  GameRecordReader. A file starts with a header (the bytes "NETG", a version
+*  byte and a flags byte) followed by any number of games. Each game is
+*
+*    u8  GAME_TAG
+*    u8  result (BLACK, WHITE or NO_RESULT)
+*    u16 number of moves
+*    u32 number of body bytes that follow
+*    body
+*
+*  and the body holds one entry per move. An ADD move is one byte holding the
+*  cell x * 8 + y. A STEP move is two bytes, STEP_FLAG | new cell followed by
+*  the old cell. A QUIT move is the single byte QUIT_BYTE. If the file was
+*  created with search statistics, every move is followed by the depth (u8),
+*  the score times SCORE_SCALE (s16) and the node count (u32) of the search
+*  that chose it; moves played without a search record zeros.
+*
+*  The writer is buffered and is meant to be called from the loop that plays
+*  a game: startGame(), one move() per ply, then endGame().
+**/
+public class GameRecordWriter implements Closeable {
+	static final int MAGIC = 0x4E455447; // "NETG"
+	static final int VERSION = 1;
+	static final int FLAG_STATS = 1;
+
+	static final int GAME_TAG = 0xA5;
+	static final int STEP_FLAG = 0x80;
+	static final int QUIT_BYTE = 0x40;
+	static final int NO_RESULT = 2;
+	static final int SCORE_SCALE = 100;
+	static final int GAME_HEADER_BYTES = 8;
+	static final int STATS_BYTES = 7;
+
+	private DataOutputStream out;
+	private boolean withStats;
+	private boolean inGame;
+
+	// body of the game being written
+	private byte[] body = new byte[256];
+	private int bodyLength;
+	private int moveCount;
+
+	/** Creates a writer that appends games to the given stream, after writing
+	*  the file header.
+	*  @param stream is where the records go; it is closed by close()
+	*  @param withStats is whether every move carries search statistics
+	*  @throws IOException if the header cannot be written
+	**/
+	public GameRecordWriter(OutputStream stream, boolean withStats) throws IOException {
+		this.out = new DataOutputStream(new BufferedOutputStream(stream, 1 << 16));
+		this.withStats = withStats;
+		out.writeInt(MAGIC);
+		out.writeByte(VERSION);
+		out.writeByte(withStats ? FLAG_STATS : 0);
+	}
+
+	/** Creates a writer that writes a new game-record file.
+	*  @param file is the file to create or overwrite
+	*  @param withStats is whether every move carries search statistics
+	*  @throws IOException if the file cannot be created
+	**/
+	public GameRecordWriter(File file, boolean withStats) throws IOException {
+		this(new FileOutputStream(file), withStats);
+	}
+
+	/** Begins a new game. Any game that was not ended is discarded.
+	**/
+	public void startGame() {
+		bodyLength = 0;
+		moveCount = 0;
+		inGame = true;
+	}
+
+	/** Records a move that was played without search statistics.
+	*  @param m is the move played
+	**/
+	public void move(Move m) {
+		move(m, 0, 0.0, 0);
+	}
+
+	/** Records a move together with the statistics of the search that chose
+	*  it. The statistics are dropped if this file has none.
+	*  @param m is the move played
+	*  @param depth is the depth the search reached
+	*  @param score is the score the search gave the move
+	*  @param nodes is the number of nodes the search visited
+	**/
+	public void move(Move m, int depth, double score, long nodes) {
+		if (!inGame) {
+			throw new IllegalStateException("move() called outside a game");
+		}
+		ensureBody(2 + STATS_BYTES);
+		switch (m.moveKind) {
+		case Move.ADD:
+			body[bodyLength++] = (byte)cell(m.x1, m.y1);
+			break;
+		case Move.STEP:
+			body[bodyLength++] = (byte)(STEP_FLAG | cell(m.x1, m.y1));
+			body[bodyLength++] = (byte)cell(m.x2, m.y2);
+			break;
+		default:
+			body[bodyLength++] = (byte)QUIT_BYTE;
+			break;
+		}
+		if (withStats) {
+			int s = (int)Math.round(score * SCORE_SCALE);
+			s = Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, s));
+			long n = Math.min(nodes, 0xFFFFFFFFL);
+			body[bodyLength++] = (byte)Math.min(depth, 255);
+			body[bodyLength++] = (byte)(s >> 8);
+			body[bodyLength++] = (byte)s;
+			body[bodyLength++] = (byte)(n >> 24);
+			body[bodyLength++] = (byte)(n >> 16);
+			body[bodyLength++] = (byte)(n >> 8);
+			body[bodyLength++] = (byte)n;
+		}
+		moveCount++;
+	}
+
+	/** Ends the current game and writes it to the buffered stream.
+	*  @param result is the winner's color, or NO_RESULT for an unfinished or
+	*         drawn game
+	*  @throws IOException if the stream cannot be written
+	**/
+	public void endGame(int result) throws IOException {
+		if (!inGame) {
+			throw new IllegalStateException("endGame() called outside a game");
+		}
+		if (moveCount > 0xFFFF) {
+			throw new IOException("game too long to record: " + moveCount + " moves");
+		}
+		out.writeByte(GAME_TAG);
+		out.writeByte(result);
+		out.writeShort(moveCount);
+		out.writeInt(bodyLength);
+		out.write(body, 0, bodyLength);
+		inGame = false;
+	}
+
+	/** Flushes buffered games to the underlying stream.
+	*  @throws IOException if the stream cannot be written
+	**/
+	public void flush() throws IOException {
+		out.flush();
+	}
+
+	/** Flushes and closes the underlying stream. A game that was started but
+	*  not ended is not written.
+	*  @throws IOException if the stream cannot be written or closed
+	**/
+	public void close() throws IOException {
+		out.close();
+	}
+
+	/** Returns the one-byte cell index used by the record format.
+	*  @param x is the x coordinate, 0 to 7
+	*  @param y is the y coordinate, 0 to 7
+	*  @return x * 8 + y
+	**/
+	static int cell(int x, int y) {
+		return (x << 3) | y;
+	}
+
+	/** Grows the body buffer so at least the given number of bytes fit.
+	*  @param extra is the number of bytes about to be written
+	**/
+	private void ensureBody(int extra) {
+		if (bodyLength + extra > body.length) {
+			byte[] bigger = new byte[body.length * 2];
+			System.arraycopy(body, 0, bigger, 0, bodyLength);
+			body = bigger;
+		}
+	}
+}
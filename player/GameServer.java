@@ -0,0 +1,240 @@
+/* GameServer.java */
+
+package player;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/** An embeddable server that hosts many GameSessions at once. Every session
+*  runs on its own thread, virtual when the JVM has them, so a session that
+*  is waiting on a human player costs almost nothing. CPU-bound players have
+*  their chooseMove() calls run on a fixed pool of platform threads instead,
+*  so searches can never starve the session threads or each other.
+*
+*  Admission control: at most computeThreads + maxQueuedSearches searches are
+*  admitted at once. A search that cannot be admitted within the admission
+*  timeout is rejected, which completes its ServedGame's result future
+*  exceptionally with a RejectedExecutionException.
+**/
+public class GameServer {
+	private ExecutorService sessions;
+	private ExecutorService compute;
+	private Semaphore admission;
+	private long admissionTimeout;
+	private boolean virtualThreads;
+
+	private AtomicLong running = new AtomicLong();
+	private AtomicLong rejected = new AtomicLong();
+	private LatencyRecorder allLatency = new LatencyRecorder();
+
+	/** Creates a server.
+	*  @param computeThreads is the number of platform threads that run
+	*         searches
+	*  @param maxQueuedSearches is how many searches may wait for a compute
+	*         thread
+	*  @param admissionTimeoutMillis is how long a search may wait to be
+	*         admitted before it is rejected
+	**/
+	public GameServer(int computeThreads, int maxQueuedSearches, long admissionTimeoutMillis) {
+		compute = Executors.newFixedThreadPool(computeThreads, daemonThreads("network-search-"));
+		admission = new Semaphore(computeThreads + maxQueuedSearches);
+		admissionTimeout = admissionTimeoutMillis;
+		sessions = newVirtualThreadExecutor();
+		virtualThreads = sessions != null;
+		if (sessions == null) {
+			sessions = Executors.newCachedThreadPool(daemonThreads("network-session-"));
+		}
+	}
+
+	/** Starts a game between two players on a session thread of its own.
+	*  @param white is the player who moves first
+	*  @param black is the other player
+	*  @param whiteSearches is whether white's chooseMove() is CPU-bound and
+	*         should run on the compute pool
+	*  @param blackSearches is the same for black
+	*  @param maxMoves is the most moves the game may last
+	*  @return a handle on the running game
+	**/
+	public ServedGame start(Player white, Player black, boolean whiteSearches,
+		boolean blackSearches, final int maxMoves) {
+		final LatencyRecorder latency = new LatencyRecorder();
+		if (whiteSearches) {
+			white = new PooledPlayer(white, this, latency);
+		}
+		if (blackSearches) {
+			black = new PooledPlayer(black, this, latency);
+		}
+		final GameSession session = new GameSession(white, black);
+		final CompletableFuture<Integer> result = new CompletableFuture<Integer>();
+		running.incrementAndGet();
+		sessions.execute(new Runnable() {
+			public void run() {
+				try {
+					result.complete(session.play(maxMoves));
+				} catch (Throwable t) {
+					result.completeExceptionally(t);
+				} finally {
+					allLatency.addAll(latency);
+					running.decrementAndGet();
+				}
+			}
+		});
+		return new ServedGame(session, result, latency);
+	}
+
+	/** Runs a player's chooseMove() on the compute pool and waits for it.
+	*  Called from session threads.
+	*  @param player is the player to move
+	*  @return the player's move
+	*  @throws RejectedExecutionException if the search was not admitted
+	**/
+	Move search(final Player player) {
+		boolean admitted;
+		try {
+			admitted = admission.tryAcquire(admissionTimeout, TimeUnit.MILLISECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RejectedExecutionException("interrupted while waiting for a compute thread");
+		}
+		if (!admitted) {
+			rejected.incrementAndGet();
+			throw new RejectedExecutionException("compute pool saturated");
+		}
+		Future<Move> move = null;
+		try {
+			move = compute.submit(new Callable<Move>() {
+				public Move call() {
+					return player.chooseMove();
+				}
+			});
+			return move.get();
+		} catch (InterruptedException e) {
+			// nobody will read the move; free the compute thread, which a
+			// Searcher notices within Searcher.INTERRUPT_NODES nodes
+			move.cancel(true);
+			Thread.currentThread().interrupt();
+			throw new CancellationException("session interrupted during a search");
+		} catch (ExecutionException e) {
+			throw new CompletionException(e.getCause());
+		} finally {
+			admission.release();
+		}
+	}
+
+	/** Returns the number of games that have not finished.
+	*  @return the running game count
+	**/
+	public long runningGames() {
+		return running.get();
+	}
+
+	/** Returns the number of searches rejected by admission control.
+	*  @return the rejection count
+	**/
+	public long rejectedSearches() {
+		return rejected.get();
+	}
+
+	/** Returns the latencies of every search in every finished game.
+	*  @return the server-wide latency recorder
+	**/
+	public LatencyRecorder latency() {
+		return allLatency;
+	}
+
+	/** Returns whether sessions run on virtual threads.
+	*  @return false if the JVM has no virtual threads
+	**/
+	public boolean usesVirtualThreads() {
+		return virtualThreads;
+	}
+
+	/** Stops accepting games and interrupts the ones still running.
+	**/
+	public void shutdown() {
+		sessions.shutdownNow();
+		compute.shutdownNow();
+	}
+
+	/** Creates a virtual-thread-per-task executor through reflection, so the
+	*  server still runs, on platform threads, on JVMs older than 21.
+	*  @return the executor, or null if the JVM has no virtual threads
+	**/
+	private static ExecutorService newVirtualThreadExecutor() {
+		try {
+			return (ExecutorService)Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+		} catch (ReflectiveOperationException e) {
+			return null;
+		}
+	}
+
+	/** Returns a factory for named daemon threads.
+	*  @param prefix starts every thread's name
+	*  @return the factory
+	**/
+	private static ThreadFactory daemonThreads(final String prefix) {
+		final AtomicLong n = new AtomicLong();
+		return new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, prefix + n.incrementAndGet());
+				t.setDaemon(true);
+				return t;
+			}
+		};
+	}
+
+	// Test Code -- Reader Can Ignore
+	public static void main(String[] args) throws Exception {
+		int games = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+		int threads = Runtime.getRuntime().availableProcessors();
+		GameServer server = new GameServer(threads, 4 * games, 60000);
+		ServedGame[] served = new ServedGame[games];
+		long start = System.nanoTime();
+		for (int i = 0; i < games; i++) {
+			Player machine = new MachinePlayer(GameSession.WHITE, 1 + i % 2);
+			Player random = new RandomPlayer(GameSession.BLACK, i);
+			served[i] = server.start(machine, random, true, false, 200);
+		}
+		int whiteWins = 0;
+		for (int i = 0; i < games; i++) {
+			if (served[i].result().get() == GameSession.WHITE) {
+				whiteWins++;
+			}
+		}
+		System.out.println(games + " games in " + (System.nanoTime() - start) / 1000000
+			+ " ms on " + threads + " compute threads, virtual threads: " + server.usesVirtualThreads());
+		System.out.println("MachinePlayer won " + whiteWins + ", rejected searches: " + server.rejectedSearches());
+		System.out.println("game 0: " + served[0].latency());
+		System.out.println("game 1: " + served[1].latency());
+		System.out.println("all games: " + server.latency());
+		server.shutdown();
+
+		// a session interrupted mid-search gives its compute thread back
+		// rather than leaving it on a search nobody will read
+		GameServer one = new GameServer(1, 0, 60000);
+		ServedGame deep = one.start(new MachinePlayer(GameSession.WHITE, 12), new RandomPlayer(GameSession.BLACK, 0),
+				true, false, 200);
+		while (one.admission.availablePermits() > 0) {
+			Thread.sleep(10);
+		}
+		Thread.sleep(200);
+		one.sessions.shutdownNow();
+		long freed = System.nanoTime();
+		boolean free;
+		try {
+			free = one.compute.submit(new Callable<Boolean>() {
+				public Boolean call() {
+					return true;
+				}
+			}).get(5, TimeUnit.SECONDS);
+		} catch (TimeoutException e) {
+			free = false;
+		}
+		free &= deep.result().isCompletedExceptionally();
+		System.out.println("compute thread free " + (System.nanoTime() - freed) / 1000000
+				+ " ms after its session was interrupted");
+		one.shutdown();
+
+		boolean ok = free && server.rejectedSearches() == 0 && server.runningGames() == 0;
+		System.out.println(ok ? "PASSED" : "FAILED");
+	}
+}
@@ -0,0 +1,217 @@
+/* GameSession.java */
+
+package player;
+import java.io.IOException;
+import java.util.ArrayList;
+
+/** One game of Network between two players, refereed on the session's own
+*  Board. A session owns everything about its game (the board, both players
+*  and the move history) and shares no mutable state with other sessions, so
+*  any number of sessions can be played at once on different threads. Each
+*  session must only be driven by one thread at a time.
+*
+*  The referee follows the rules in the readme: an illegal move or a QUIT
+*  loses, and after every move the player who did not move wins if it has a
+*  network; otherwise the mover wins if it has one.
+*
+*  With setDrawRules(), the referee also ends a game as drawn once a
+*  position has occurred a given number of times, or once a given number of
+*  STEP moves have been played. A drawn game is over and has no winner.
+**/
+public class GameSession {
+	static final int WHITE = 1;
+	static final int BLACK = 0;
+	public static final int NO_RESULT = GameRecordWriter.NO_RESULT;
+
+	private Board board = new Board();
+	private Player[] players = new Player[2];
+	private ArrayList<Move> history = new ArrayList<Move>();
+	private int toMove = WHITE;
+	private int winner = NO_RESULT;
+	private boolean over;
+
+	// draw adjudication; 0 turns a rule off
+	private int drawRepetitions;
+	private int drawStepMoves;
+	private PositionHistory positions = new PositionHistory();
+	private long hash;
+	private int stepMoves;
+	private boolean drawn;
+
+	/** Creates a session between two players that have not moved yet.
+	*  @param white is the player who moves first
+	*  @param black is the other player
+	**/
+	public GameSession(Player white, Player black) {
+		players[WHITE] = white;
+		players[BLACK] = black;
+		positions.push(PositionHistory.key(hash, WHITE), true);
+	}
+
+	/** Makes the referee adjudicate draws. The rules are checked after every
+	*  legal move that does not complete a network.
+	*  @param repetitions is how many times a position must occur, counting
+	*         its first occurrence, for the game to be drawn; 0 for no limit
+	*  @param stepMoves is how many STEP moves, counting both players, end
+	*         the game in a draw; 0 for no limit
+	**/
+	public void setDrawRules(int repetitions, int stepMoves) {
+		drawRepetitions = repetitions;
+		drawStepMoves = stepMoves;
+	}
+
+	/** Plays the game until it ends or maxMoves more moves have been made.
+	*  @param maxMoves is the most moves to play, counting both players
+	*  @return the winner's color, or NO_RESULT if the game did not finish
+	*          or was drawn
+	**/
+	public int play(int maxMoves) {
+		for (int i = 0; i < maxMoves && !over; i++) {
+			step();
+		}
+		return winner;
+	}
+
+	/** Asks the player to move for one move, referees it and tells the other
+	*  player. Does nothing once the game is over.
+	*  @return whether the game is still going
+	**/
+	public boolean step() {
+		if (over) {
+			return false;
+		}
+		int mover = toMove;
+		int other = 1 - mover;
+		Move m = players[mover].chooseMove();
+		history.add(m);
+		if (m != null && m.moveKind == Move.QUIT) {
+			// let the referee's board and the opponent see the QUIT
+			board.isValid(m, mover);
+			players[other].opponentMove(m);
+			finish(other);
+			return false;
+		}
+		if (m == null || !board.isValid(m, mover)) {
+			finish(other);
+			return false;
+		}
+		board.makeMove(m, mover);
+		if (!players[other].opponentMove(m)) {
+			// the opponent's board disagrees with the referee's
+			finish(mover);
+			return false;
+		}
+		board.clearSearchState();
+		if (board.isNetwork(other)) {
+			finish(other);
+			return false;
+		}
+		board.clearSearchState();
+		if (board.isNetwork(mover)) {
+			finish(mover);
+			return false;
+		}
+		toMove = other;
+		hash ^= Zobrist.move(m, mover);
+		positions.push(PositionHistory.key(hash, other), m.moveKind == Move.ADD);
+		if (m.moveKind == Move.STEP) {
+			stepMoves++;
+		}
+		if ((drawRepetitions > 0 && positions.repetitions() + 1 >= drawRepetitions)
+				|| (drawStepMoves > 0 && stepMoves >= drawStepMoves)) {
+			drawn = true;
+			over = true;
+			return false;
+		}
+		return true;
+	}
+
+	/** Ends the game.
+	*  @param color is the winner's color
+	**/
+	private void finish(int color) {
+		winner = color;
+		over = true;
+	}
+
+	/** Returns whether the game has ended.
+	*  @return true once a player has won or the game was drawn
+	**/
+	public boolean isOver() {
+		return over;
+	}
+
+	/** Returns whether the referee adjudicated the game as drawn.
+	*  @return true if a draw rule ended the game
+	**/
+	public boolean isDraw() {
+		return drawn;
+	}
+
+	/** Returns the number of STEP moves played so far.
+	*  @return the STEP moves of both players
+	**/
+	public int stepMoves() {
+		return stepMoves;
+	}
+
+	/** Returns the winner of the game.
+	*  @return the winner's color, or NO_RESULT if the game is not over or
+	*          was drawn
+	**/
+	public int winner() {
+		return winner;
+	}
+
+	/** Returns the color to move next.
+	*  @return WHITE or BLACK
+	**/
+	public int toMove() {
+		return toMove;
+	}
+
+	/** Returns the number of moves played so far, including a final QUIT or
+	*  illegal move.
+	*  @return the length of the move history
+	**/
+	public int movesPlayed() {
+		return history.size();
+	}
+
+	/** Returns a move from the history.
+	*  @param i is the index of the move, 0 for white's first move
+	*  @return the i-th move played
+	**/
+	public Move move(int i) {
+		return history.get(i);
+	}
+
+	/** Returns the player of a color.
+	*  @param color is WHITE or BLACK
+	*  @return that color's player
+	**/
+	public Player player(int color) {
+		return players[color];
+	}
+
+	/** Returns the referee's current position.
+	*  @return a new Position
+	**/
+	public Position position() {
+		return Position.of(board, toMove);
+	}
+
+	/** Writes this session's moves and result as one game record.
+	*  @param writer is the game-record writer to append to
+	*  @throws IOException if the writer fails
+	**/
+	public void record(GameRecordWriter writer) throws IOException {
+		writer.startGame();
+		for (Move m : history) {
+			if (m != null) {
+				writer.move(m);
+			}
+		}
+		writer.endGame(winner);
+	}
+}
@@ -0,0 +1,55 @@
+/* HeapTranspositionTable.java */
+
+package player;
+import java.util.Arrays;
+
+/** A TranspositionTable in a long[] on the Java heap. Each slot is two
+*  longs: the key XORed with the data, then the data. A probe only accepts a
+*  slot whose two halves XOR back to the key, so a slot torn by two threads
+*  storing at once reads as a miss instead of as a wrong entry.
+*
+*  A slot is replaced when the new entry is for another position or was
+*  searched at least as deep as the one it replaces.
+**/
+class HeapTranspositionTable implements TranspositionTable {
+	private final long[] slots;
+	private final int shift;
+
+	/** Creates an empty table.
+	*  @param log2Entries is the base-2 logarithm of the number of slots
+	**/
+	HeapTranspositionTable(int log2Entries) {
+		if (log2Entries < 1 || log2Entries > 29) {
+			throw new IllegalArgumentException("log2Entries out of range: " + log2Entries);
+		}
+		slots = new long[2 << log2Entries];
+		shift = 64 - log2Entries;
+	}
+
+	public long probe(long key) {
+		int i = (int)(key >>> shift) << 1;
+		long data = slots[i + 1];
+		if ((slots[i] ^ data) == key && data != MISS) {
+			return data;
+		}
+		return MISS;
+	}
+
+	public void store(long key, long data) {
+		int i = (int)(key >>> shift) << 1;
+		long old = slots[i + 1];
+		if ((slots[i] ^ old) == key && TranspositionTable.depth(old) > TranspositionTable.depth(data)) {
+			return;
+		}
+		slots[i] = key ^ data;
+		slots[i + 1] = data;
+	}
+
+	public void clear() {
+		Arrays.fill(slots, 0L);
+	}
+
+	public long capacity() {
+		return slots.length >> 1;
+	}
+}
@@ -0,0 +1,67 @@
+/* LatencyRecorder.java */
+
+package player;
+import java.util.Arrays;
+
+/** Records move latencies and reports percentiles. All methods are
+*  synchronized, so one session's thread can record while a monitoring
+*  thread reads.
+**/
+public class LatencyRecorder {
+	private long[] samples = new long[32];
+	private int count;
+
+	/** Adds one latency sample.
+	*  @param nanos is the latency in nanoseconds
+	**/
+	public synchronized void record(long nanos) {
+		if (count == samples.length) {
+			samples = Arrays.copyOf(samples, count * 2);
+		}
+		samples[count++] = nanos;
+	}
+
+	/** Returns the number of samples recorded.
+	*  @return the sample count
+	**/
+	public synchronized int count() {
+		return count;
+	}
+
+	/** Returns a latency percentile by the nearest-rank method.
+	*  @param p is the percentile, from 0 to 100
+	*  @return the latency in nanoseconds, or 0 if nothing was recorded
+	**/
+	public synchronized long percentile(double p) {
+		if (count == 0) {
+			return 0;
+		}
+		long[] sorted = Arrays.copyOf(samples, count);
+		Arrays.sort(sorted);
+		int rank = (int)Math.ceil(p / 100.0 * count);
+		return sorted[Math.max(0, Math.min(count - 1, rank - 1))];
+	}
+
+	/** Adds every sample of another recorder to this one.
+	*  @param other is the recorder to copy from
+	**/
+	public void addAll(LatencyRecorder other) {
+		long[] copy;
+		int n;
+		synchronized (other) {
+			copy = Arrays.copyOf(other.samples, other.count);
+			n = other.count;
+		}
+		for (int i = 0; i < n; i++) {
+			record(copy[i]);
+		}
+	}
+
+	/** Returns the median and 99th percentile in milliseconds.
+	*  @return a short summary
+	**/
+	public String toString() {
+		return String.format("n=%d p50=%.2fms p99=%.2fms", count(),
+			percentile(50) / 1e6, percentile(99) / 1e6);
+	}
+}
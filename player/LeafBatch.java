@@ -0,0 +1,242 @@
+/* LeafBatch.java */
+
+package player;
+
+/** Rates a batch of leaf positions at once, giving each the rating
+*  Rules.evaluate() would.
+*
+*  Rules.evaluate() walks the rays out of every chip one cell at a time.
+*  Here the chips of a color move along a direction together, one shift of
+*  the bitboard per step: after k steps each chip has become the cell k
+*  away from it, and distinct chips become distinct cells, so counting the
+*  moved bits that land on chips counts every (chip, chip seen) pair. A
+*  color's own rays stop at the first chip of either color; the enemy's rays
+*  pass over the enemy's chips and stop at the first of ours.
+*
+*  The positions are kept as arrays of bitboards, one array per color, and
+*  every step runs as one loop over the whole batch, so the work is the same
+*  few shifts, masks and bit counts for each position with no branches on the
+*  board. The Searcher fills a batch with the children of a node just above
+*  the leaves and rates them all before searching any of them.
+**/
+final class LeafBatch {
+	// the cells whose chips are rated, and each color's goals
+	private static final long INTERIOR = 0x007E7E7E7E7E7E00L;
+	private static final long WHITE_GOALS = 0x0081818181818100L;
+	private static final long BLACK_GOALS = 0x7E0000000000007EL;
+
+	// each direction as a shift (left if positive) and the cells a step in
+	// it can reach without wrapping around the board's edge
+	private static final int[] SHIFT = {9, 7, -7, -9, 8, -8, 1, -1};
+	private static final long NOT_LEFT = ~0x0101010101010101L;
+	private static final long NOT_RIGHT = ~0x8080808080808080L;
+	private static final long[] REACH = {NOT_LEFT, NOT_RIGHT, NOT_LEFT, NOT_RIGHT, -1L, -1L, NOT_LEFT, NOT_RIGHT};
+
+	private final long[] white;
+	private final long[] black;
+	private final double[] ratings;
+	private int size;
+
+	// scratch: the moving rays of each color and the pairs counted so far
+	private final long[] heroRays;
+	private final long[] enemyRays;
+	private final int[] heroCount;
+	private final int[] enemyCount;
+
+	/** Makes an empty batch.
+	*  @param capacity is the most positions the batch can hold
+	**/
+	LeafBatch(int capacity) {
+		white = new long[capacity];
+		black = new long[capacity];
+		ratings = new double[capacity];
+		heroRays = new long[capacity];
+		enemyRays = new long[capacity];
+		heroCount = new int[capacity];
+		enemyCount = new int[capacity];
+	}
+
+	/** Empties the batch. */
+	void clear() {
+		size = 0;
+	}
+
+	/** Adds a position to the end of the batch.
+	*  @param p is the position
+	**/
+	void add(Position p) {
+		white[size] = p.white;
+		black[size] = p.black;
+		size++;
+	}
+
+	/** Returns the number of positions in the batch. */
+	int size() {
+		return size;
+	}
+
+	/** Returns a position's rating from the last call to evaluate().
+	*  @param i is the position's index in the batch
+	*  @return a rating between -50 and 50, or NaN
+	**/
+	double rating(int i) {
+		return ratings[i];
+	}
+
+	/** Rates every position in the batch for a player.
+	*  @param player is who the ratings favor
+	**/
+	void evaluate(int player) {
+		long[] own = player == Position.WHITE ? white : black;
+		long[] other = player == Position.WHITE ? black : white;
+		int n = size;
+		for (int i = 0; i < n; i++) {
+			heroCount[i] = 0;
+			enemyCount[i] = 0;
+		}
+		for (int d = 0; d < 8; d++) {
+			int shift = SHIFT[d];
+			long reach = REACH[d];
+			for (int i = 0; i < n; i++) {
+				heroRays[i] = own[i] & INTERIOR;
+				enemyRays[i] = other[i] & INTERIOR;
+			}
+			for (int step = 1; step < 8; step++) {
+				if (shift > 0) {
+					for (int i = 0; i < n; i++) {
+						long hero = (heroRays[i] << shift) & reach;
+						long enemy = (enemyRays[i] << shift) & reach & ~own[i];
+						heroCount[i] += Long.bitCount(hero & own[i]);
+						enemyCount[i] += Long.bitCount(enemy & other[i]);
+						heroRays[i] = hero & ~(own[i] | other[i]);
+						enemyRays[i] = enemy;
+					}
+				} else {
+					for (int i = 0; i < n; i++) {
+						long hero = (heroRays[i] >>> -shift) & reach;
+						long enemy = (enemyRays[i] >>> -shift) & reach & ~own[i];
+						heroCount[i] += Long.bitCount(hero & own[i]);
+						enemyCount[i] += Long.bitCount(enemy & other[i]);
+						heroRays[i] = hero & ~(own[i] | other[i]);
+						enemyRays[i] = enemy;
+					}
+				}
+			}
+		}
+		long ownGoals = player == Position.WHITE ? WHITE_GOALS : BLACK_GOALS;
+		long otherGoals = player == Position.WHITE ? BLACK_GOALS : WHITE_GOALS;
+		for (int i = 0; i < n; i++) {
+			double hero = heroCount[i] * borderCount(own[i] & ownGoals);
+			double enemy = enemyCount[i] * borderCount(other[i] & otherGoals);
+			ratings[i] = (hero - enemy) / (hero + enemy) * 50;
+		}
+	}
+
+	/** Returns Board's borderCount() for a color's chips in its goals. */
+	private static double borderCount(long goalChips) {
+		int count = Long.bitCount(goalChips);
+		if (count <= 2) {
+			return 1.0;
+		}
+		return 2.0 / count;
+	}
+
+	/*  Test Code -- Reader Can Ignore  */
+
+	public static void main(String[] args) {
+		// positions from random games, every phase
+		java.util.Random random = new java.util.Random(44);
+		java.util.List<Position> positions = new java.util.ArrayList<Position>();
+		Move[] buffer = Board.newMoveBuffer();
+		while (positions.size() < 20000) {
+			Position p = new Position();
+			int player = Position.WHITE;
+			for (int ply = 0; ply < 40; ply++) {
+				positions.add(new Position(p.white, p.black, player, p.whiteChips, p.blackChips));
+				int count = Rules.generateMoves(p, player, buffer);
+				if (count == 0) {
+					break;
+				}
+				Rules.play(p, buffer[random.nextInt(count)], player, p);
+				player = 1 - player;
+			}
+		}
+
+		// the same ratings, NaN included, batch by batch
+		LeafBatch batch = new LeafBatch(buffer.length);
+		int mismatches = 0;
+		for (int player = Position.BLACK; player <= Position.WHITE; player++) {
+			for (int start = 0; start < positions.size(); start += buffer.length) {
+				int end = Math.min(start + buffer.length, positions.size());
+				batch.clear();
+				for (int i = start; i < end; i++) {
+					batch.add(positions.get(i));
+				}
+				batch.evaluate(player);
+				for (int i = start; i < end; i++) {
+					double expected = Rules.evaluate(positions.get(i), player);
+					if (Double.doubleToLongBits(expected) != Double.doubleToLongBits(batch.rating(i - start))) {
+						mismatches++;
+					}
+				}
+			}
+		}
+		System.out.println(2 * positions.size() + " ratings, " + mismatches + " mismatches");
+
+		// the cost of a leaf, one at a time and by batches of children
+		Position[] sample = positions.subList(0, buffer.length).toArray(new Position[0]);
+		double sink = 0.0;
+		for (int round = 0; round < 5; round++) {
+			long start = System.nanoTime();
+			for (int r = 0; r < 2000; r++) {
+				for (Position p : sample) {
+					sink += Rules.evaluate(p, Position.WHITE);
+				}
+			}
+			long single = System.nanoTime() - start;
+			start = System.nanoTime();
+			for (int r = 0; r < 2000; r++) {
+				batch.clear();
+				for (Position p : sample) {
+					batch.add(p);
+				}
+				batch.evaluate(Position.WHITE);
+				sink += batch.rating(r % sample.length);
+			}
+			long batched = System.nanoTime() - start;
+			if (round == 4) {
+				long leaves = 2000L * sample.length;
+				System.out.println("one at a time: " + single / leaves + " ns per leaf, batched: "
+						+ batched / leaves + " ns per leaf");
+			}
+		}
+		if (sink == 1.0) {
+			System.out.println();
+		}
+
+		// searches with and without batches agree move for move
+		boolean same = true;
+		Searcher plain = new Searcher(Position.WHITE, new HeapTranspositionTable(14));
+		Searcher batched = new Searcher(Position.WHITE, new HeapTranspositionTable(14));
+		plain.setCopyMake(true);
+		batched.setCopyMake(true);
+		plain.setBatchLeaves(false);
+		for (int g = 0; g < 40; g++) {
+			Position p = positions.get(random.nextInt(positions.size()));
+			plain.table().clear();
+			batched.table().clear();
+			plain.load(p);
+			batched.load(p);
+			Best a = plain.search(p.toMove(), 3);
+			Best b = batched.search(p.toMove(), 3);
+			if (Double.compare(a.score, b.score) != 0 || plain.nodes() != batched.nodes()
+					|| (a.move == null ? b.move != null : !a.move.toString().equals(String.valueOf(b.move)))) {
+				same = false;
+			}
+		}
+		if (mismatches != 0 || !same) {
+			throw new AssertionError("batched ratings differ from Rules.evaluate()");
+		}
+		System.out.println("PASSED");
+	}
+}
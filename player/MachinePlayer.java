@@ -2,6 +2,7 @@
 
 package player;
 import list.*;
+import java.util.concurrent.CompletableFuture;
 
 /**
 *  An implementation of an automatic Network player.  Keeps track of moves
@@ -19,18 +20,68 @@ public class MachinePlayer extends Player {
 	
 	public final static int SIZE = 2;
 
+	// limits for the STEP-phase proof search
+	final static int PROOF_PLIES = 5;
+	final static long PROOF_BUDGET = 20000;
+
+	// size of the transposition table shared by searching and pondering
+	final static int TABLE_BITS = 12;
+
+	// deepest iteration the time-managed search and pondering will start
+	final static int MAX_DEPTH = 12;
+
 	Board gameBoard = new Board();
 
 	private int machinePlayerColor;
 	private int oppColor;
 	private int searchDepth;
 
+	// made by the first proveWin(), which only time-managed players call;
+	// its table is 1 MB
+	private ProofSolver solver;
+	private Searcher searcher;
+	private int searchedDepth;
+	private TimeManager timeManager = new TimeManager();
+	private Move bestReply;
+
+	// the win in one or block checked before searching
+	private Threats threats = new Threats();
+	private Rules rules = new Rules();
+	private Position threatPosition = new Position();
+	private Position blockPosition = new Position();
+	private Move[] threatMoves = Board.newMoveBuffer();
+	private Move[] blockMoves = Board.newMoveBuffer();
+
+	// every position of the game so far, for repetition detection
+	private PositionHistory history = new PositionHistory();
+	private long gameHash;
+
+	// pondering: a search on the predicted reply, run between chooseMove()
+	// and opponentMove() on the searcher's own board
+	private boolean pondering;
+	private Thread ponderThread;
+	private Move predicted;
+	private int ponderDepth;
+	private Move ponderReply;
+	private volatile Best pondered;
+	private Best ponderHit;
+
+	// search statistics for the current chooseMove() call
+	private long nodes;
+	private long moveStart;
+
+	// the chooseMoveAsync() call in progress, if any
+	private volatile SearchFuture running;
+
 	/** Creates a machine player with the given machinePlayerColor.  Color is 
-   *  either 0 (black) or 1 (white).  (White has the first move.)
+   *  either 0 (black) or 1 (white).  (White has the first move.)  The first
+   *  player made this way in a JVM spends two seconds warming up the JIT on
+   *  scratch games (see warmUp()), so its first move is not slowed down.
    * @param the color of "this" player
    **/
 	public MachinePlayer(int color) {
 		this(color, -1);
+		WarmUp.once(WarmUp.BUDGET);
 	}
 
 	/** Creates a machine player with the given machinePlayerColor and search 
@@ -40,9 +91,69 @@ public class MachinePlayer extends Player {
    * @param searchDepth is the deepest we can look for moves
    **/
 	public MachinePlayer(int color, int searchDepth) {
+		this(color, searchDepth, new HeapTranspositionTable(TABLE_BITS));
+	}
+
+	/** Creates a machine player that searches with a given transposition
+   *  table, such as a large OffHeapTranspositionTable for deep analysis.
+   * @param color of "this" player
+   *  A player that manages its time searches copy-make, rating the leaves
+   *  in batches, which visits about four times the nodes a second of
+   *  make/undo. Its scores can differ slightly from a make/undo search's
+   *  (see Searcher.searchLines()), but its moves depend on the clock anyway.
+   * @param color of "this" player
+   * @param searchDepth is the deepest we can look for moves, or -1 to
+   *        manage the time instead
+   * @param table is the table searching and pondering share
+   **/
+	MachinePlayer(int color, int searchDepth, TranspositionTable table) {
 		this.machinePlayerColor = color;
 		this.oppColor = (color + 1) % 2;
 		this.searchDepth = searchDepth;
+		this.searcher = new Searcher(color, table);
+		searcher.setCopyMake(searchDepth < 0);
+		history.push(PositionHistory.key(gameHash, WHITE), true);
+		searcher.setHistory(history);
+	}
+
+	/** Warms up the JIT on scratch games, unless that has been done in this
+   * JVM already, so that the first real chooseMove() runs compiled code.
+   * No game in progress is touched. A static initializer or a tournament
+   * harness can call this before making any players.
+   **/
+	public static void warmUp() {
+		WarmUp.once(WarmUp.BUDGET);
+	}
+
+	/** Sets the evaluator the search scores leaves with.
+   * @param evaluator is a trained network, or null for the built-in
+   *        evaluation function
+   **/
+	void setEvaluator(NeuralEvaluator evaluator) {
+		searcher.setEvaluator(evaluator);
+	}
+
+	/** Gives a player that manages its time less than the readme's five
+   * seconds a move, as WarmUp's scratch games do.
+   * @param nanos is the time allowed for each move
+   **/
+	void setMoveLimit(long nanos) {
+		timeManager = new TimeManager(nanos);
+	}
+
+	/** Turns pondering on or off. While pondering, the player keeps
+   * searching after chooseMove() returns, on its own copy of the board,
+   * assuming the opponent plays the reply the search predicted (or, with no
+   * prediction, warming the transposition table for every reply).
+   * opponentMove() stops it; if the opponent played the predicted move and
+   * the search finished, the next chooseMove() uses its result.
+   * @param on is whether to ponder
+   **/
+	public void setPondering(boolean on) {
+		pondering = on;
+		if (!on) {
+			stopPondering();
+		}
 	}
 	
 	/** Tests each Move for a winning network, if a network is found, then
@@ -65,45 +176,390 @@ public class MachinePlayer extends Player {
    * @returns a move by "this" player
    **/
 public Move chooseMove() {
-	Move[] moves = gameBoard.validMoves(this.oppColor);
-	for(Move m : moves){
-		if(m != null){
-			updateGameBoard(m, this.oppColor);
-			if(this.gameBoard.isNetwork(oppColor)){
-				clearCoordinates();
-				if(gameBoard.isValid(m, this.machinePlayerColor)){
-					return m;
-				}
-			}
-			undoMove(m, this.oppColor);
+	ChooseMoveEvent event = new ChooseMoveEvent();
+	event.begin();
+	moveStart = System.nanoTime();
+	nodes = 0;
+
+	// take a win in one, or else block the opponent's
+	threatPosition.setFrom(gameBoard, machinePlayerColor);
+	Move forced = null;
+	if (threats.find(threatPosition, machinePlayerColor, threatMoves) > 0) {
+		forced = threatMoves[0];
+	} else {
+		int count = threats.legalMoves();
+		if (count == 0) {
+			count = Rules.generateMoves(threatPosition, machinePlayerColor, threatMoves);
 		}
+		int blocks = threats.find(threatPosition, oppColor, blockMoves);
+		if (blocks > 0) {
+			forced = findBlock(count, Threats.targets(blockMoves, blocks));
+		}
+	}
+	if (forced != null) {
+		Move m = new Move();
+		Searcher.copy(forced, m);
+		ponderHit = null;
+		return play(m, event, 0, 0.0, null);
 	}
 
-	Best bestMove;
-	
-	if (machinePlayerColor == WHITE) {
-		if (searchDepth == -1 && gameBoard.whiteChips < 1) {
-			bestMove = gameTreeSearch(machinePlayerColor, -50.0, 50.0, 1.0, 2);
-		} else if (searchDepth == -1) {
-			bestMove = gameTreeSearch(machinePlayerColor, -50.0, 50.0, 1.0, 3);
-		} else {
-			bestMove = gameTreeSearch(machinePlayerColor, -50.0, 50.0, 1.0, searchDepth);
+	if (searchDepth == -1 && gameBoard.whiteChips == 0 && gameBoard.blackChips == 0) {
+		Move win = proveWin();
+		if (win != null) {
+			ponderHit = null;
+			return play(win, event, PROOF_PLIES, 50.0, null);
 		}
+	}
+
+	Best hit = ponderHit;
+	ponderHit = null;
+	if (hit != null) {
+		bestReply = ponderReply;
+	}
+	int maxDepth;
+	Best bestMove;
+	if (searchDepth == -1) {
+		bestMove = timedSearch(hit, ponderDepth);
+		maxDepth = searchedDepth;
 	} else {
-		if (searchDepth == -1 && gameBoard.blackChips < 1) {
-			bestMove = gameTreeSearch(machinePlayerColor, -50.0, 50.0, 1.0, 2);
-		} else if (searchDepth == -1) {
-			bestMove = gameTreeSearch(machinePlayerColor, -50.0, 50.0, 1.0, 3);
-		} else {
-			bestMove = gameTreeSearch(machinePlayerColor, -50.0, 50.0, 1.0, searchDepth);
+		maxDepth = searchDepth;
+		bestMove = hit;
+		if (running != null) {
+			// deepen one ply at a time, so that there is a move to report and
+			// to fall back on if the search is cancelled
+			bestMove = new Best(-50.0);
+			for (int d = 1; d <= maxDepth; d++) {
+				Best result = searchIteration(d, Long.MAX_VALUE);
+				if (result == null) {
+					break;
+				}
+				bestMove = result;
+			}
+		} else if (bestMove == null || ponderDepth != maxDepth) {
+			bestMove = searchIteration(maxDepth, Long.MAX_VALUE);
+			if (bestMove == null) {
+				// the thread was interrupted; play any legal move
+				bestMove = new Best(-50.0);
+			}
 		}
 	}
 
 	Move m = bestMove.move;
-	updateGameBoard(m, machinePlayerColor);
-	return m;
+	if (m == null) {
+		// every move scored no better than the worst case (or NaN); any
+		// legal move will do
+		clearCoordinates();
+		m = gameBoard.validMoves(machinePlayerColor)[0];
+	}
+	return play(m, event, maxDepth, bestMove.score, bestMove.move == m ? bestReply : null);
 }
 
+	/** Makes a chosen move on the game board, finishes chooseMove()'s
+   * event and, if pondering is on, starts pondering on the opponent's
+   * time. Every move chooseMove() returns goes through here.
+   * @param m is the move chosen
+   * @param event is the event begun when chooseMove() was entered
+   * @param depth is the search depth reached, 0 if no search was run
+   * @param score is the score of the chosen move
+   * @param reply is the opponent's predicted reply, or null if there is
+   *        none, in which case pondering searches every reply
+   * @return m
+   **/
+	private Move play(Move m, ChooseMoveEvent event, int depth, double score, Move reply) {
+		updateGameBoard(m, machinePlayerColor);
+		recordMove(m, machinePlayerColor);
+		commitEvent(event, depth, score, m);
+		if (pondering) {
+			startPondering(reply);
+		}
+		return m;
+	}
+
+	/** Chooses a move on a background thread. The move is recorded on the
+   * internal board as chooseMove() records it, and the player must not be
+   * used again until the future completes. A fixed-depth player deepens one
+   * ply at a time here, so it may choose a different move of the same
+   * score than chooseMove() would.
+   *
+   * Cancelling the future, with cancel(), stops the search within one node
+   * and completes the future normally with the best move of the deepest
+   * iteration finished, or any legal move if none has; cancel() itself
+   * returns false, as the future is not cancelled. Completing the future
+   * in any other way, as orTimeout() does when a client goes away, also
+   * stops the search, but the move chosen is still recorded and never
+   * seen, so the player should not be used for the game after that.
+   * @param listener receives every completed iteration, or null
+   * @return the future move
+   **/
+	public CompletableFuture<Move> chooseMoveAsync(SearchListener listener) {
+		final SearchFuture future = new SearchFuture(listener);
+		running = future;
+		future.whenComplete((m, e) -> {
+			if (running == future) {
+				future.cancel(false);
+			}
+		});
+		Thread thread = new Thread(new Runnable() {
+			public void run() {
+				Move m;
+				try {
+					m = chooseMove();
+				} catch (RuntimeException | Error e) {
+					running = null;
+					future.completeExceptionally(e);
+					return;
+				}
+				running = null;
+				future.complete(m);
+			}
+		}, "search");
+		thread.setDaemon(true);
+		thread.start();
+		return future;
+	}
+
+	/** The future chooseMoveAsync() returns. Cancelling it stops the search
+   * instead of abandoning it.
+   **/
+	private class SearchFuture extends CompletableFuture<Move> {
+		final SearchListener listener;
+		volatile boolean cancelled;
+
+		SearchFuture(SearchListener listener) {
+			this.listener = listener;
+		}
+
+		public boolean cancel(boolean mayInterruptIfRunning) {
+			cancelled = true;
+			if (running == this) {
+				searcher.stop();
+			}
+			return false;
+		}
+	}
+
+	/** Searches one ply deeper at a time for as long as the TimeManager
+   * allows, starting from a finished ponder search if there is one. An
+   * iteration cut off at the hard budget is thrown away.
+   * @param hit is the ponder result for this position, or null
+   * @param hitDepth is the depth of hit
+   * @return the result of the deepest completed iteration
+   **/
+	private Best timedSearch(Best hit, int hitDepth) {
+		int chipsLeft;
+		if (machinePlayerColor == WHITE) {
+			chipsLeft = gameBoard.whiteChips;
+		} else {
+			chipsLeft = gameBoard.blackChips;
+		}
+		clearCoordinates();
+		Move[] legal = gameBoard.validMoves(machinePlayerColor);
+		int count = 0;
+		while (count < legal.length && legal[count] != null) {
+			count++;
+		}
+		timeManager.startMove(moveStart, chipsLeft, count);
+
+		Best best = new Best(-50.0);
+		int depth = 0;
+		if (hit != null) {
+			best = hit;
+			depth = hitDepth;
+			timeManager.ponderHit(depth, hit.move);
+		}
+		while (depth < MAX_DEPTH && timeManager.deepen(depth, System.nanoTime())) {
+			long start = System.nanoTime();
+			// the first iteration always finishes, so there is a move to play
+			Best result = searchIteration(depth + 1, depth == 0 ? Long.MAX_VALUE : timeManager.deadline());
+			if (result == null) {
+				timeManager.abandoned(depth + 1);
+				break;
+			}
+			depth++;
+			best = result;
+			timeManager.iterationDone(depth, result.move, searcher.nodes(), System.nanoTime() - start);
+		}
+		searchedDepth = depth;
+		return best;
+	}
+
+	/** Returns the time manager's trace of the last chooseMove() call: the
+   * budgets it set, every iteration searched and why it stopped. Empty
+   * for players created with a fixed search depth.
+   * @return one line of text
+   **/
+	public String timeTrace() {
+		return timeManager.trace();
+	}
+
+	/** Returns the number of nodes the last chooseMove() call searched.
+   * @return the number of nodes
+   **/
+	long nodes() {
+		return nodes;
+	}
+
+	/** Starts a background search for the next chooseMove(). The board is
+   * copied into the searcher here, so the thread never reads gameBoard.
+   * @param reply is the opponent's predicted reply, or null
+   **/
+	private void startPondering(Move reply) {
+		stopPondering();
+		if (reply != null && !gameBoard.isValid(reply, oppColor)) {
+			reply = null;
+		}
+		predicted = reply;
+		pondered = null;
+		searcher.load(gameBoard);
+		final Move guess = reply;
+		// with a fixed depth only that depth is useful; otherwise keep
+		// deepening until opponentMove() stops the thread
+		final int from = searchDepth == -1 ? 1 : searchDepth;
+		final int to = searchDepth == -1 ? MAX_DEPTH : searchDepth;
+		ponderThread = new Thread(new Runnable() {
+			public void run() {
+				if (guess != null) {
+					searcher.play(guess, oppColor);
+				}
+				for (int d = from; d <= to; d++) {
+					if (guess == null) {
+						if (searcher.search(oppColor, d + 1) == null) {
+							return;
+						}
+						continue;
+					}
+					Best result = searcher.search(machinePlayerColor, d);
+					if (result == null) {
+						return;
+					}
+					ponderDepth = d;
+					ponderReply = searcher.reply();
+					pondered = result;
+				}
+			}
+		}, "ponder");
+		ponderThread.setDaemon(true);
+		ponderThread.start();
+	}
+
+	/** Stops pondering and waits for the background search to return, which
+   * takes at most one search node.
+   **/
+	private void stopPondering() {
+		if (ponderThread == null) {
+			return;
+		}
+		searcher.stop();
+		boolean interrupted = false;
+		while (true) {
+			try {
+				ponderThread.join();
+				break;
+			} catch (InterruptedException e) {
+				interrupted = true;
+			}
+		}
+		if (interrupted) {
+			Thread.currentThread().interrupt();
+		}
+		ponderThread = null;
+	}
+
+	/** Stops pondering and keeps its result if the opponent played the
+   * predicted reply.
+   * @param m is the opponent's move, or null if the board changed otherwise
+   **/
+	private void endPondering(Move m) {
+		stopPondering();
+		Best result = pondered;
+		pondered = null;
+		ponderHit = null;
+		if (result != null && predicted != null && m != null && m.moveKind != QUIT
+				&& TranspositionTable.moveCode(m) == TranspositionTable.moveCode(predicted)) {
+			ponderHit = result;
+		}
+		predicted = null;
+	}
+
+	/** Runs the proof-number solver on the current STEP-phase position,
+   * looking for a forced network in 1, 3 and then PROOF_PLIES plies. The
+   * solver works on its own copy of the board.
+   * @return the first move of a forced win, or null if none was proved
+   *         within PROOF_BUDGET nodes
+   **/
+	private Move proveWin() {
+		if (solver == null) {
+			solver = new ProofSolver(16);
+		}
+		Position p = Position.of(gameBoard, machinePlayerColor);
+		long budget = PROOF_BUDGET;
+		for (int plies = 1; plies <= PROOF_PLIES && budget > 0; plies += 2) {
+			int result = solver.solve(p, machinePlayerColor, plies, budget);
+			if (result == ProofSolver.PROVEN) {
+				return solver.proofMove();
+			}
+			budget -= solver.nodes();
+		}
+		return null;
+	}
+
+	/** Finishes the ChooseMoveEvent for this chooseMove() call and commits it
+   * if Flight Recorder has the event enabled.
+   * @param event is the event begun when chooseMove() was entered
+   * @param depth is the search depth reached, 0 if no search was run
+   * @param score is the score of the chosen move
+   * @param m is the chosen move
+   **/
+	private void commitEvent(ChooseMoveEvent event, int depth, double score, Move m) {
+		event.end();
+		if (event.shouldCommit()) {
+			event.color = machinePlayerColor;
+			event.depth = depth;
+			event.score = score;
+			event.nodes = nodes;
+			event.move = String.valueOf(m);
+			event.commit();
+		}
+	}
+
+	/** Runs one root search to the given depth and records it as a
+   * SearchIterationEvent when Flight Recorder has the event enabled.
+   * @param maxDepth is the deepest the search can look
+   * @param deadline is the System.nanoTime() at which to give up, or
+   *        Long.MAX_VALUE
+   * @return a Best object holding the best move and the score it has
+   *         earned, or null if the deadline passed first
+   **/
+	private Best searchIteration(int maxDepth, long deadline) {
+		SearchIterationEvent event = new SearchIterationEvent();
+		long startNodes = nodes;
+		event.begin();
+		searcher.load(gameBoard);
+		searcher.setDeadline(deadline);
+		SearchFuture async = running;
+		if (async != null && async.cancelled) {
+			return null;
+		}
+		Best best = searcher.search(machinePlayerColor, maxDepth);
+		nodes += searcher.nodes();
+		if (best != null) {
+			bestReply = searcher.reply();
+			if (async != null && async.listener != null && best.move != null) {
+				async.listener.improved(maxDepth, best.score,
+						searcher.principalVariation(machinePlayerColor, best.move, maxDepth), nodes);
+			}
+		}
+		event.end();
+		if (best != null && event.shouldCommit()) {
+			event.depth = maxDepth;
+			event.score = best.score;
+			event.nodes = nodes - startNodes;
+			event.split = System.nanoTime() - moveStart;
+			event.commit();
+		}
+		return best;
+	}
+
 	/** If the Move m is legal, records the move as a move by the opponent
    * (updates the internal game board) and returns true.  If the move is
    * illegal, returns false without modifying the internal state of "this"
@@ -112,8 +568,10 @@ public Move chooseMove() {
    * @return whether the move is valid or not
    **/
 	public boolean opponentMove(Move m) {
+		endPondering(m);
 		if(gameBoard.isValid(m, oppColor)){
 			updateGameBoard(m, oppColor);
+			recordMove(m, oppColor);
 			return true;
 		}
 		return false;
@@ -129,157 +587,70 @@ public Move chooseMove() {
    * @return whether the move is valid
    **/
 	public boolean forceMove(Move m) {
+		endPondering(null);
 		if(gameBoard.isValid(m, machinePlayerColor)){
 			updateGameBoard(m, machinePlayerColor);
+			recordMove(m, machinePlayerColor);
 			return true;
 		}
 		return false;
 	}
 
+	/** Returns a move to a cell the opponent threatens to complete a network
+   * on, after which the opponent has no win in one. A block that leaves
+   * another threat open is left to the search.
+   * @param count is the number of legal moves in threatMoves
+   * @param targets is a mask of the threatened cells
+   * @return the first such move, or null
+   **/
+	private Move findBlock(int count, long targets) {
+		for (int i = 0; i < count; i++) {
+			Move m = threatMoves[i];
+			if ((targets & (1L << Position.bit(m.x1, m.y1))) == 0) {
+				continue;
+			}
+			Rules.play(threatPosition, m, machinePlayerColor, blockPosition);
+			if (!rules.isNetwork(blockPosition, oppColor)
+					&& !threats.hasWin(blockPosition, oppColor, blockMoves)) {
+				return m;
+			}
+		}
+		return null;
+	}
+
 	/** Updates the board for the player with a given move. Does not update
    * the board if the move is not valid.
    * @param m is the move we are updating with
    * @param player is who we are updating for
    **/
 	private void updateGameBoard(Move m, int player) {
-		if (player == WHITE) {
-			gameBoard.addWhite(m.x1, m.y1);
-			if (m.moveKind == STEP) {
-				gameBoard.removeChip(m.x2, m.y2, player);
-			}
-		} else {
-			gameBoard.addBlack(m.x1, m.y1);
-			if (m.moveKind == STEP) {
-				gameBoard.removeChip(m.x2, m.y2, player);
-			}
-		}
+		gameBoard.makeMove(m, player);
 	}
 	
+	/** Adds the position after a move of the game to the history that
+   * searches check for repetitions.
+   * @param m is the move played
+   * @param player is who played it
+   **/
+	private void recordMove(Move m, int player) {
+		gameHash ^= Zobrist.move(m, player);
+		history.push(PositionHistory.key(gameHash, 1 - player), m.moveKind == ADD);
+	}
+
 	/** Reverses the process of a move done by a player. This is done for 
    * gameTreeSearch to build hypothetical boards to find the right move.
    * @param m is the move we are reversing
    * @param player is who originally did the move
    **/
 	public void undoMove(Move m, int player){
-		if (gameBoard.myBoard[m.x1 + 1][m.y1 + 1].item == gameBoard.EMPTY) {
-			return;
-		}
-		gameBoard.removeChip(m.x1,m.y1,player);
-		if (m.moveKind == STEP){
-			if (player == WHITE){
-				gameBoard.addWhite(m.x2,m.y2);
-			} else {
-				gameBoard.addBlack(m.x2,m.y2);
-			}
-		}
+		gameBoard.unmakeMove(m, player);
 	}
 
 
 	private void clearCoordinates(){
-		for (int i = 0; i < 9; i++){
-	 	   for (int j = 0; j < 9; j++){
-				if (gameBoard.myBoard[i][j].item != EMPTY){
-			    	gameBoard.myBoard[i][j].coordList = new SList();
-			    	gameBoard.myBoard[i][j].visited = false;
-				}
-	 	   }
-		}
+		gameBoard.clearSearchState();
     }
 	
-	/** This function uses alpha beta minimax search to find the best move.
-   * Search goes down at most maxDepth moves and finds the best move based
-   * on ratings of the hypothetical board built. The highest and lowest 
-   * scores are given to boards that have a network for a certain player.
-   * When a network hasn't been made, this function calls the evaluator 
-   * function to get a score.
-   * @param currPlayer is whose valid moves we are analyzing
-   * @param alpha is the highest score we have found
-   * @param beta is the lowest score we have found
-   * @param depth is the current depth of searching we are at
-   * @param maxDepth is the deepest this function can look
-   * @return a Best object holding the best move and the score it has earned
-   **/
-	private Best gameTreeSearch(int currPlayer, double alpha, double beta, double depth, int maxDepth) {
-		Best myBest = new Best();
-		Best reply;
-		boolean debug = false;
-		
-		clearCoordinates();
-
-		// Base cases
-		// if both have networks, other player wins 	
-		if (gameBoard.isNetwork(currPlayer) && gameBoard.isNetwork((currPlayer + 1) % 2)) {		
-			if (currPlayer == machinePlayerColor) {
-				
-				return new Best(null, (-50.0 / (double)depth));
-			} else {
-				return new Best(null, (50.0 / (double)depth));
-			}
-		}
-	
-		// if machine player wins
-	  if (gameBoard.isNetwork(machinePlayerColor)) {
-			if (depth == 1.0) {
-				return new Best(null, 100.0);
-			}
-			return new Best(null, (50.0 / (double)depth));
-		} 
-		// if opponent wins
-		if (gameBoard.isNetwork(oppColor)) {
-			return new Best(null, (-50.0 / (double)depth));
-		}
-		// if max depth reached
-		if (depth > maxDepth) {		
-				return new Best(null, (gameBoard.evaluatorFcn(machinePlayerColor) / (double)depth));
-		}
-		
-		// set worstcase scores
-		if (currPlayer == machinePlayerColor) { 
-			myBest.score = alpha;
-		} else {
-			myBest.score = beta;
-		}
-		
-		// rebuild possible moves
-		for (int k = 0; k < 10 - 1; k++){
-			for (int l = 0; l < 10 - 1; l++){
-				if (gameBoard.myBoard[k][l].item != EMPTY){
-					gameBoard.myBoard[k][l].coordList = new SList();
-					gameBoard.myBoard[k][l].visited = false;
-				}
-			}
-		}
-		
-		// create array of valid moves
-		Move[] moves = gameBoard.validMoves(currPlayer);
-		
-		// search through moves
-		for (Move m : moves) {
-			if (m != null) {
-				updateGameBoard(m, currPlayer);
-				reply = gameTreeSearch(((currPlayer + 1) % 2), alpha, beta, depth + 1, maxDepth);
-				undoMove(m, currPlayer);	
-				if ((currPlayer == machinePlayerColor) && (reply.score > myBest.score)) {
-					myBest.move = m;
-					myBest.score = reply.score;
-					alpha = reply.score;
-				} else if (( currPlayer == oppColor) && (reply.score < myBest.score)) {
-					myBest.move = m;
-					myBest.score = reply.score;
-					beta = reply.score;
-				}
-				
-				// alpha beta pruning
-				if (alpha >= beta) {
-					return myBest;
-				} 
-			} else {
-				break;
-			}
-		}
-		return myBest;
-	}
-	
 	// Second evaluator function for possible evaluatorFcn replacement
 	private double evaluatorFcn2(int nothing) {
 		double score = 0.0;
@@ -417,6 +788,107 @@ public Move chooseMove() {
 		player.chooseMove();
 		
 		System.out.println(player.gameBoard);	
+
+		asyncTest();
+		ponderTest();
+	}
+
+	/** Checks that a pondering player ponders after every move it makes,
+	 *  the forced wins and blocks included. */
+	private static void ponderTest() {
+		int moves = 0;
+		int forced = 0;
+		int idle = 0;
+		for (int game = 0; game < 5; game++) {
+			MachinePlayer machine = new MachinePlayer(WHITE, 2);
+			machine.setPondering(true);
+			GameSession session = new GameSession(machine, new RandomPlayer(BLACK, game));
+			while (!session.isOver() && session.movesPlayed() < 200) {
+				boolean machineToMove = session.toMove() == WHITE;
+				Position before = Position.of(machine.gameBoard, WHITE);
+				session.step();
+				if (!machineToMove) {
+					continue;
+				}
+				moves++;
+				Move[] buffer = Board.newMoveBuffer();
+				Threats threats = new Threats();
+				if (threats.find(before, WHITE, buffer) > 0 || threats.find(before, BLACK, buffer) > 0) {
+					forced++;
+				}
+				if (machine.ponderThread == null) {
+					idle++;
+				}
+			}
+			machine.setPondering(false);
+		}
+		System.out.println(moves + " moves, " + forced + " of them forced wins or blocks, "
+				+ idle + " not followed by pondering");
+		System.out.println(forced > 0 && idle == 0 ? "PASSED" : "FAILED");
+	}
+
+	/** Checks chooseMoveAsync(): its updates, and cancelling it mid-search. */
+	private static void asyncTest() {
+		final java.util.List<String> updates = new java.util.ArrayList<String>();
+		final Move[][] lastPv = new Move[1][];
+		SearchListener listener = new SearchListener() {
+			public void improved(int depth, double score, Move[] pv, long nodes) {
+				synchronized (updates) {
+					updates.add(depth + " " + score + " " + java.util.Arrays.toString(pv) + " " + nodes);
+					lastPv[0] = pv;
+				}
+			}
+		};
+		boolean ok = true;
+		try {
+			// a fixed depth: an update for each depth that found a best move,
+			// the last one's first move being the move chosen
+			MachinePlayer fixed = new MachinePlayer(WHITE, 4);
+			fixed.opponentMove(new Move(1, 0));
+			Move m = fixed.chooseMoveAsync(listener).get();
+			for (String u : updates) {
+				System.out.println("  " + u);
+			}
+			ok &= updates.get(updates.size() - 1).startsWith("4 ") && lastPv[0][0].toString().equals(m.toString());
+
+			// cancelling a deep search returns the best move so far at once,
+			// and records it
+			updates.clear();
+			MachinePlayer deep = new MachinePlayer(WHITE, 9);
+			deep.opponentMove(new Move(1, 0));
+			java.util.concurrent.CompletableFuture<Move> future = deep.chooseMoveAsync(listener);
+			while (true) {
+				synchronized (updates) {
+					if (updates.size() >= 3) {
+						break;
+					}
+				}
+				Thread.sleep(1);
+			}
+			long start = System.nanoTime();
+			boolean cancelled = future.cancel(true);
+			Move best = future.get();
+			long latency = System.nanoTime() - start;
+			System.out.println("cancelled after " + updates.size() + " depths in " + latency / 1000 + " us: " + best);
+			ok &= !cancelled && !future.isCancelled() && best.toString().equals(lastPv[0][0].toString())
+					&& deep.gameBoard.whiteChips == 9 && latency < 100 * 1000000L;
+
+			// a timeout stops the search as well
+			MachinePlayer timed = new MachinePlayer(WHITE, 12);
+			timed.opponentMove(new Move(1, 0));
+			try {
+				timed.chooseMoveAsync(null).orTimeout(50, java.util.concurrent.TimeUnit.MILLISECONDS).get();
+				ok = false;
+			} catch (java.util.concurrent.ExecutionException e) {
+				ok &= e.getCause() instanceof java.util.concurrent.TimeoutException;
+			}
+			Thread.sleep(100);
+			ok &= timed.running == null;
+		} catch (Exception e) {
+			e.printStackTrace();
+			ok = false;
+		}
+		System.out.println(ok ? "PASSED" : "FAILED");
 	}
 }
 
@@ -0,0 +1,271 @@
+/* MappedTranspositionTable.java */
+
+package player;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.StandardOpenOption;
+
+/** A TranspositionTable in a memory-mapped file, which every process on the
+*  host that opens the same file shares, so that searches in one JVM find
+*  what searches in another have stored.
+*
+*  The file is a header page followed by the slots of an
+*  OffHeapTranspositionTable, mapped in regions of at most 1 GB. Each slot
+*  is checked as the other tables check theirs: its first long is the key
+*  XORed with the data, which serves as the entry's checksum. Writes take
+*  no locks, and a slot torn by two processes storing at once, or a page
+*  of garbage, reads as a miss.
+*
+*  A persistent table keeps its entries in the file from one run to the
+*  next. Otherwise the first process to open the file clears it. Each open
+*  table holds a shared lock on part of the header, so a process can tell
+*  whether it is the first. File locks belong to the whole JVM, so a JVM
+*  should open a file once and share the table between its searchers.
+**/
+class MappedTranspositionTable implements TranspositionTable, Closeable {
+	static final int MAGIC = 0x4E54544D;
+	static final int VERSION = 1;
+	static final int HEADER = 4096;
+
+	// header bytes locked while a process opens the file, and held shared
+	// while it has the table open
+	private static final long OPENING = 0;
+	private static final long ATTACHED = 16;
+
+	private final OffHeapTranspositionTable slots;
+	private final FileChannel channel;
+	private final FileLock attached;
+	private final MappedByteBuffer[] regions;
+	private final boolean persistent;
+
+	private MappedTranspositionTable(MappedByteBuffer[] regions, int log2Entries, FileChannel channel,
+			FileLock attached, boolean persistent) {
+		this.slots = new OffHeapTranspositionTable(inNativeOrder(regions), log2Entries);
+		this.regions = regions;
+		this.channel = channel;
+		this.attached = attached;
+		this.persistent = persistent;
+	}
+
+	private static ByteBuffer[] inNativeOrder(MappedByteBuffer[] regions) {
+		ByteBuffer[] buffers = new ByteBuffer[regions.length];
+		for (int i = 0; i < regions.length; i++) {
+			buffers[i] = regions[i].order(ByteOrder.nativeOrder());
+		}
+		return buffers;
+	}
+
+	/** Opens a table file, making it if it does not exist.
+	*  @param file is the file
+	*  @param log2Entries is the base-2 logarithm of the number of slots,
+	*         1 to 40; an existing file must have been made with the same
+	*  @param persistent is whether to keep the entries already in the file;
+	*         if false and no other process has the file open, it is cleared
+	*  @return the table, open until close() is called
+	*  @throws IOException if the file cannot be mapped or is not a table
+	*          file of this size
+	**/
+	static MappedTranspositionTable open(File file, int log2Entries, boolean persistent) throws IOException {
+		if (log2Entries < 1 || log2Entries > 40) {
+			throw new IllegalArgumentException("log2Entries out of range: " + log2Entries);
+		}
+		FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+				StandardOpenOption.READ, StandardOpenOption.WRITE);
+		try {
+			FileLock opening = channel.lock(OPENING, 1, false);
+			try {
+				FileLock others = channel.tryLock(ATTACHED, 1, false);
+				boolean alone = others != null;
+				if (alone) {
+					others.release();
+				}
+				long slotBytes = 16L << log2Entries;
+				ByteBuffer header = ByteBuffer.allocate(12).order(ByteOrder.nativeOrder());
+				boolean made = channel.size() == 0;
+				if (made) {
+					header.putInt(MAGIC).putInt(VERSION).putInt(log2Entries).flip();
+					channel.write(header, 0);
+					// a sparse file; the slots read as zeroes, which is empty
+					channel.write(ByteBuffer.allocate(1), HEADER + slotBytes - 1);
+				} else {
+					channel.read(header, 0);
+					header.flip();
+					if (header.remaining() < 12 || header.getInt() != MAGIC || header.getInt() != VERSION) {
+						throw new IOException(file + " is not a transposition table file");
+					}
+					int slots = header.getInt();
+					if (slots != log2Entries || channel.size() != HEADER + slotBytes) {
+						throw new IOException(file + " holds a table of 2^" + slots + " slots, not 2^" + log2Entries);
+					}
+				}
+				int regionBytes = (int)Math.min(slotBytes, 1L << OffHeapTranspositionTable.MAX_BUFFER_LOG2);
+				MappedByteBuffer[] regions = new MappedByteBuffer[(int)(slotBytes / regionBytes)];
+				for (int i = 0; i < regions.length; i++) {
+					regions[i] = channel.map(FileChannel.MapMode.READ_WRITE, HEADER + (long)i * regionBytes, regionBytes);
+				}
+				FileLock attached = channel.lock(ATTACHED, 1, true);
+				MappedTranspositionTable table = new MappedTranspositionTable(regions, log2Entries, channel,
+						attached, persistent);
+				if (alone && !persistent && !made) {
+					table.clear();
+				}
+				return table;
+			} finally {
+				opening.release();
+			}
+		} catch (IOException | RuntimeException e) {
+			channel.close();
+			throw e;
+		}
+	}
+
+	public long probe(long key) {
+		return slots.probe(key);
+	}
+
+	public void store(long key, long data) {
+		slots.store(key, data);
+	}
+
+	public void clear() {
+		slots.clear();
+	}
+
+	public long capacity() {
+		return slots.capacity();
+	}
+
+	/** Returns whether the table keeps its entries between runs.
+	*  @return true if it was opened as persistent
+	**/
+	boolean persistent() {
+		return persistent;
+	}
+
+	/** Closes the table. A persistent table first writes its entries out
+	*  to the file. The table must not be used afterward.
+	**/
+	public void close() throws IOException {
+		if (persistent) {
+			for (MappedByteBuffer region : regions) {
+				region.force();
+			}
+		}
+		attached.release();
+		channel.close();
+	}
+
+	/*  Test Code -- Reader Can Ignore  */
+
+	// data that can only be stored under its own key, so any entry probed
+	// from a torn or mixed-up slot is caught
+	private static long dataFor(long key, int depth) {
+		return TranspositionTable.pack((int)key & 0xFFFF, depth, TranspositionTable.EXACT, (float)(key >>> 40));
+	}
+
+	private static int badHits(TranspositionTable table, long seed, int count, boolean store) {
+		java.util.Random random = new java.util.Random(seed);
+		int bad = 0;
+		for (int i = 0; i < count; i++) {
+			long key = random.nextLong() & 0x3FFFFL;
+			key = Position.mix(key);
+			if (store) {
+				table.store(key, dataFor(key, random.nextInt(8)));
+			}
+			long data = table.probe(key);
+			if (data != MISS && TranspositionTable.move(data) != TranspositionTable.move(dataFor(key, 0))) {
+				bad++;
+			}
+			if (data != MISS && TranspositionTable.score(data) != TranspositionTable.score(dataFor(key, 0))) {
+				bad++;
+			}
+		}
+		return bad;
+	}
+
+	public static void main(String[] args) throws Exception {
+		if (args.length == 3 && args[0].equals("child")) {
+			// another process: store and probe while the parent does too
+			MappedTranspositionTable table = open(new File(args[1]), Integer.parseInt(args[2]), true);
+			int bad = badHits(table, 2, 2000000, true);
+			table.close();
+			System.exit(bad == 0 ? 0 : 1);
+		}
+
+		File file = File.createTempFile("table", ".map");
+		file.delete();
+		boolean ok = true;
+
+		// entries survive closing and reopening a persistent table
+		MappedTranspositionTable table = open(file, 16, true);
+		long key = Position.mix(12345);
+		table.store(key, dataFor(key, 5));
+		table.close();
+		table = open(file, 16, true);
+		ok &= table.probe(key) == dataFor(key, 5);
+		table.close();
+		System.out.println("persisted across reopening: " + ok);
+
+		// a file of another size or kind is refused
+		try {
+			open(file, 17, true);
+			ok = false;
+		} catch (IOException e) {
+			System.out.println("refused: " + e.getMessage());
+		}
+
+		// a torn slot reads as a miss
+		table = open(file, 16, true);
+		int at = (int)(key >>> 48) << 4;
+		table.regions[0].putLong(at + 8, table.regions[0].getLong(at + 8) ^ 1L << 40);
+		ok &= table.probe(key) == MISS;
+		table.close();
+
+		// opening a table that is not persistent clears it
+		table = open(file, 16, true);
+		table.store(key, dataFor(key, 5));
+		table.close();
+		table = open(file, 16, false);
+		ok &= table.probe(key) == MISS;
+
+		// another process sees this one's entries, and both store at once
+		// without any probe finding another key's entry
+		table.store(key, dataFor(key, 5));
+		String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+		Process child = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"),
+				"player.MappedTranspositionTable", "child", file.getPath(), "16").inheritIO().start();
+		int bad = 0;
+		while (child.isAlive()) {
+			bad += badHits(table, 3, 100000, true);
+		}
+		int childStatus = child.waitFor();
+		bad += badHits(table, 2, 2000000, false);
+		ok &= bad == 0 && childStatus == 0;
+		table.close();
+		System.out.println("two processes: " + bad + " bad entries here, child " + (childStatus == 0 ? "ok" : "failed"));
+
+		// the child kept the file open as persistent, and closed it; the
+		// entries it stored are still there
+		table = open(file, 16, true);
+		java.util.Random random = new java.util.Random(2);
+		int found = 0;
+		for (int i = 0; i < 1000; i++) {
+			long k = Position.mix(random.nextLong() & 0x3FFFFL);
+			random.nextInt(8);
+			if (table.probe(k) != MISS) {
+				found++;
+			}
+		}
+		table.close();
+		ok &= found > 0;
+		System.out.println(found + " of 1000 of the child's keys found after reopening");
+		file.delete();
+		System.out.println(ok ? "PASSED" : "FAILED");
+	}
+}
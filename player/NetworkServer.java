@@ -0,0 +1,306 @@
+/* NetworkServer.java */
+
+package player;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.*;
+import java.util.ArrayList;
+import java.util.Iterator;
+
+/** A non-blocking server that referees Network games between remote players
+*  speaking WireProtocol. One thread runs a Selector over every connection.
+*  Clients are paired in the order their HELLO arrives, the first of a pair
+*  playing white. The server checks every move on its own Board, forwards
+*  legal moves to the opponent and ends the game with RESULT when a player
+*  completes a network, quits, moves illegally, disconnects or runs out of
+*  time. Messages are parsed in place from per-connection buffers, so
+*  relaying moves allocates nothing.
+**/
+public class NetworkServer implements Runnable {
+	static final long TICK_MILLIS = 50;
+
+	private Selector selector;
+	private ServerSocketChannel server;
+	private int millisPerMove;
+	private volatile boolean running = true;
+
+	private WireConnection waiting;
+	private ArrayList<WireMatch> matches = new ArrayList<WireMatch>();
+
+	/** Opens a server socket. Call run() on a thread to start serving.
+	*  @param port is the port to listen on, or 0 for any free port
+	*  @param millisPerMove is the time control sent to clients and enforced
+	*         by the server
+	*  @throws IOException if the socket cannot be opened
+	**/
+	public NetworkServer(int port, int millisPerMove) throws IOException {
+		this.millisPerMove = millisPerMove;
+		selector = Selector.open();
+		server = ServerSocketChannel.open();
+		server.bind(new InetSocketAddress(port), 1024);
+		server.configureBlocking(false);
+		server.register(selector, SelectionKey.OP_ACCEPT);
+	}
+
+	/** Returns the port the server listens on.
+	*  @return the local port
+	**/
+	public int port() {
+		return server.socket().getLocalPort();
+	}
+
+	/** Serves connections until stop() is called.
+	**/
+	public void run() {
+		try {
+			while (running) {
+				selector.select(TICK_MILLIS);
+				Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+				while (it.hasNext()) {
+					SelectionKey key = it.next();
+					it.remove();
+					if (!key.isValid()) {
+						continue;
+					}
+					if (key.isAcceptable()) {
+						accept();
+						continue;
+					}
+					WireConnection c = (WireConnection)key.attachment();
+					if (key.isReadable()) {
+						read(c);
+					}
+					if (key.isValid() && key.isWritable()) {
+						flush(c);
+					}
+				}
+				checkClocks(System.currentTimeMillis());
+			}
+		} catch (IOException e) {
+			System.err.println("NetworkServer stopped: " + e);
+		} finally {
+			try {
+				for (SelectionKey key : selector.keys()) {
+					key.channel().close();
+				}
+				selector.close();
+			} catch (IOException e) {
+				// already closing
+			}
+		}
+	}
+
+	/** Asks the serving thread to close every connection and return.
+	**/
+	public void stop() {
+		running = false;
+		selector.wakeup();
+	}
+
+	/** Accepts all pending connections.
+	*  @throws IOException if the server socket fails
+	**/
+	private void accept() throws IOException {
+		SocketChannel ch;
+		while ((ch = server.accept()) != null) {
+			ch.configureBlocking(false);
+			ch.socket().setTcpNoDelay(true);
+			ch.register(selector, SelectionKey.OP_READ, new WireConnection(ch));
+		}
+	}
+
+	/** Reads what has arrived on a connection and handles every complete
+	*  message.
+	*  @param c is the connection
+	**/
+	private void read(WireConnection c) {
+		int n;
+		try {
+			n = c.channel.read(c.in);
+		} catch (IOException e) {
+			n = -1;
+		}
+		if (n < 0) {
+			disconnect(c);
+			return;
+		}
+		c.in.flip();
+		try {
+			while (!c.closing) {
+				int length = WireProtocol.messageLength(c.in);
+				if (length < 0) {
+					disconnect(c);
+					return;
+				}
+				if (length == 0 || c.in.remaining() < length) {
+					break;
+				}
+				handle(c, length);
+			}
+		} catch (RuntimeException e) {
+			// a message the checks above let through; drop this client
+			// rather than the thread serving everyone else
+			System.err.println("NetworkServer dropped a client: " + e);
+			disconnect(c);
+			return;
+		}
+		c.in.compact();
+	}
+
+	/** Handles one complete message at the front of a connection's input.
+	*  @param c is the connection
+	*  @param length is the message length
+	**/
+	private void handle(WireConnection c, int length) {
+		ByteBuffer in = c.in;
+		int type = in.get(in.position()) & 0xFF;
+		if (!c.greeted) {
+			if (type != WireProtocol.HELLO || in.get(in.position() + 1) != WireProtocol.VERSION) {
+				disconnect(c);
+				return;
+			}
+			in.position(in.position() + length);
+			c.greeted = true;
+			pair(c);
+			return;
+		}
+		WireMatch m = c.match;
+		if (type >= WireProtocol.CONTROL || m == null || m.over) {
+			disconnect(c);
+			return;
+		}
+		int mover = c.color;
+		int other = 1 - mover;
+		if (!WireProtocol.getMove(in, m.move) || m.toMove != mover || m.move.moveKind == Move.QUIT || !m.board.isValid(m.move, mover)) {
+			finish(m, other);
+			return;
+		}
+		m.board.makeMove(m.move, mover);
+		WireConnection opponent = m.players[other];
+		WireProtocol.putMove(m.move, opponent.out);
+		flush(opponent);
+		m.board.clearSearchState();
+		if (m.board.isNetwork(other)) {
+			finish(m, other);
+			return;
+		}
+		m.board.clearSearchState();
+		if (m.board.isNetwork(mover)) {
+			finish(m, mover);
+			return;
+		}
+		m.toMove = other;
+		m.deadline = System.currentTimeMillis() + millisPerMove;
+	}
+
+	/** Pairs a greeted connection with the one waiting, or makes it wait.
+	*  @param c is the connection
+	**/
+	private void pair(WireConnection c) {
+		if (waiting == null || !waiting.channel.isOpen()) {
+			waiting = c;
+			return;
+		}
+		WireMatch m = new WireMatch();
+		m.players[GameSession.WHITE] = waiting;
+		m.players[GameSession.BLACK] = c;
+		waiting = null;
+		for (int color = 0; color < 2; color++) {
+			WireConnection p = m.players[color];
+			p.match = m;
+			p.color = color;
+			p.out.put((byte)WireProtocol.COLOR).put((byte)color);
+			p.out.put((byte)WireProtocol.TIME).putInt(millisPerMove);
+			flush(p);
+		}
+		m.deadline = System.currentTimeMillis() + millisPerMove;
+		matches.add(m);
+	}
+
+	/** Ends a game, sending RESULT to both players and closing their
+	*  connections once the message is written.
+	*  @param m is the match
+	*  @param winner is the winner's color
+	**/
+	private void finish(WireMatch m, int winner) {
+		m.over = true;
+		for (WireConnection p : m.players) {
+			if (p.channel.isOpen()) {
+				p.out.put((byte)WireProtocol.RESULT).put((byte)winner);
+				p.closing = true;
+				flush(p);
+			}
+		}
+	}
+
+	/** Writes as much pending output as the socket takes, and watches for
+	*  writability only while output remains.
+	*  @param c is the connection
+	**/
+	private void flush(WireConnection c) {
+		SelectionKey key = c.channel.keyFor(selector);
+		try {
+			c.out.flip();
+			c.channel.write(c.out);
+			c.out.compact();
+		} catch (IOException e) {
+			c.out.clear();
+			disconnect(c);
+			return;
+		}
+		if (key == null || !key.isValid()) {
+			return;
+		}
+		if (c.out.position() > 0) {
+			key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+		} else if (c.closing) {
+			close(c);
+		} else {
+			key.interestOps(SelectionKey.OP_READ);
+		}
+	}
+
+	/** Drops a connection. A player who drops out of a running game loses.
+	*  @param c is the connection
+	**/
+	private void disconnect(WireConnection c) {
+		close(c);
+		if (c.match != null && !c.match.over) {
+			finish(c.match, 1 - c.color);
+		}
+	}
+
+	/** Closes a connection's channel.
+	*  @param c is the connection
+	**/
+	private void close(WireConnection c) {
+		c.closing = true;
+		SelectionKey key = c.channel.keyFor(selector);
+		if (key != null) {
+			key.cancel();
+		}
+		try {
+			c.channel.close();
+		} catch (IOException e) {
+			// nothing more to do
+		}
+	}
+
+	/** Ends every game whose player to move has run out of time, and forgets
+	*  finished games.
+	*  @param now is the current time in milliseconds
+	**/
+	private void checkClocks(long now) {
+		for (int i = matches.size() - 1; i >= 0; i--) {
+			WireMatch m = matches.get(i);
+			if (!m.over && now > m.deadline) {
+				finish(m, 1 - m.toMove);
+			}
+			if (m.over) {
+				matches.set(i, matches.get(matches.size() - 1));
+				matches.remove(matches.size() - 1);
+			}
+		}
+	}
+}
@@ -0,0 +1,384 @@
+/* NeuralEvaluator.java */
+
+package player;
+import java.io.*;
+
+/** An evaluator made of a small neural network in the style of NNUE. The
+*  inputs are sparse: one per (cell, color) pair with a chip on it. Each
+*  color sees the board from its own side: black's view is transposed, so
+*  both colors' goals are on the left and right. Its inputs are its own
+*  chips, then the other color's. Each view has one hidden layer, clipped
+*  to [0, 1]. The output reads both views, the evaluated color's first,
+*  and the score is 50 * tanh(output / 2), the range of
+*  Board.evaluatorFcn().
+*
+*  Weights are 16-bit fixed point numbers loaded from a file that
+*  NeuralTrainer writes. The first layer's sums for both views are kept in
+*  an accumulator of 2 * hidden() ints. A move only changes the rows of
+*  the chips it adds or moves, so play() updates a copy of the parent's
+*  accumulator instead of summing again. evaluate() then costs 2 * hidden()
+*  multiply-adds.
+*
+*  The loops run over contiguous arrays, which C2 can compile to SIMD
+*  instructions. jdk.incubator.vector is not used. It would have to be
+*  added with --add-modules to every javac and java command that builds
+*  or runs this tree.
+*
+*  A NeuralEvaluator is never changed after it is made, so any number of
+*  Searchers and threads can share one.
+**/
+final class NeuralEvaluator {
+	static final int MAGIC = 0x4E4E5545; // "NNUE"
+	static final int VERSION = 1;
+
+	// a view's inputs: its own chips on the 64 cells, then the other color's
+	static final int INPUTS = 128;
+	// a hidden unit of QA stands for 1, and an output weight of QB for 1
+	static final int QA = 255;
+	static final int QB = 256;
+
+	// the cell each cell is in black's view
+	private static final int[] TRANSPOSED = new int[64];
+
+	static {
+		for (int x = 0; x < 8; x++) {
+			for (int y = 0; y < 8; y++) {
+				TRANSPOSED[Position.bit(x, y)] = Position.bit(y, x);
+			}
+		}
+	}
+
+	private final int hidden;
+	// INPUTS rows of hidden weights, scaled by QA
+	private final short[] inputWeights;
+	// scaled by QA
+	private final short[] hiddenBias;
+	// the evaluated color's view, then the other's, scaled by QB
+	private final short[] outputWeights;
+	// scaled by QA * QB
+	private final int outputBias;
+
+	/** Makes an evaluator from quantized weights.
+	*  @param hidden is the number of hidden units in each view
+	*  @param inputWeights holds INPUTS rows of hidden weights
+	*  @param hiddenBias holds hidden biases
+	*  @param outputWeights holds 2 * hidden weights
+	*  @param outputBias is the output bias
+	**/
+	NeuralEvaluator(int hidden, short[] inputWeights, short[] hiddenBias, short[] outputWeights,
+			int outputBias) {
+		if (inputWeights.length != INPUTS * hidden || hiddenBias.length != hidden
+				|| outputWeights.length != 2 * hidden) {
+			throw new IllegalArgumentException("weights do not fit " + hidden + " hidden units");
+		}
+		this.hidden = hidden;
+		this.inputWeights = inputWeights;
+		this.hiddenBias = hiddenBias;
+		this.outputWeights = outputWeights;
+		this.outputBias = outputBias;
+	}
+
+	/** Reads an evaluator from a weights file.
+	*  @param path is the file to read
+	*  @return the evaluator
+	*  @throws IOException if the file cannot be read or is not a weights
+	*          file
+	**/
+	static NeuralEvaluator load(File path) throws IOException {
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(path)));
+		try {
+			if (in.readInt() != MAGIC) {
+				throw new IOException(path + " is not a weights file");
+			}
+			int version = in.readByte();
+			if (version != VERSION) {
+				throw new IOException(path + " has unsupported version " + version);
+			}
+			int hidden = in.readShort();
+			if (hidden <= 0) {
+				throw new IOException(path + " has " + hidden + " hidden units");
+			}
+			short[] inputWeights = readShorts(in, INPUTS * hidden);
+			short[] hiddenBias = readShorts(in, hidden);
+			short[] outputWeights = readShorts(in, 2 * hidden);
+			return new NeuralEvaluator(hidden, inputWeights, hiddenBias, outputWeights, in.readInt());
+		} catch (EOFException e) {
+			throw new IOException(path + " is truncated");
+		} finally {
+			in.close();
+		}
+	}
+
+	/** Writes this evaluator to a weights file.
+	*  @param path is the file to write
+	*  @throws IOException if the file cannot be written
+	**/
+	void save(File path) throws IOException {
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(path)));
+		try {
+			out.writeInt(MAGIC);
+			out.writeByte(VERSION);
+			out.writeShort(hidden);
+			writeShorts(out, inputWeights);
+			writeShorts(out, hiddenBias);
+			writeShorts(out, outputWeights);
+			out.writeInt(outputBias);
+		} finally {
+			out.close();
+		}
+	}
+
+	/** Returns the number of hidden units in each view.
+	*  @return the hidden layer's size
+	**/
+	int hidden() {
+		return hidden;
+	}
+
+	/** Makes an accumulator for this evaluator.
+	*  @return a new array of 2 * hidden() ints
+	**/
+	int[] newAccumulator() {
+		return new int[2 * hidden];
+	}
+
+	/** Sums the first layer for a position from scratch.
+	*  @param p is the position
+	*  @param acc receives the sums
+	**/
+	void refresh(Position p, int[] acc) {
+		for (int j = 0; j < hidden; j++) {
+			acc[j] = hiddenBias[j];
+			acc[hidden + j] = hiddenBias[j];
+		}
+		for (long chips = p.white; chips != 0; chips &= chips - 1) {
+			add(acc, Position.WHITE, Long.numberOfTrailingZeros(chips), 1);
+		}
+		for (long chips = p.black; chips != 0; chips &= chips - 1) {
+			add(acc, Position.BLACK, Long.numberOfTrailingZeros(chips), 1);
+		}
+	}
+
+	/** Writes the accumulator of the position after a move.
+	*  @param from is the accumulator before the move
+	*  @param m is a legal ADD or STEP move
+	*  @param player is the mover
+	*  @param to receives the accumulator after the move; it may be from
+	**/
+	void play(int[] from, Move m, int player, int[] to) {
+		if (to != from) {
+			System.arraycopy(from, 0, to, 0, 2 * hidden);
+		}
+		if (m.moveKind == Move.STEP) {
+			add(to, player, Position.bit(m.x2, m.y2), -1);
+		}
+		if (m.moveKind != Move.QUIT) {
+			add(to, player, Position.bit(m.x1, m.y1), 1);
+		}
+	}
+
+	/** Returns the score of a position for a color.
+	*  @param acc is the position's accumulator
+	*  @param player is the color the score favors
+	*  @return a score between -50 and 50
+	**/
+	double evaluate(int[] acc, int player) {
+		int own = player == Position.WHITE ? 0 : hidden;
+		int other = hidden - own;
+		int sum = outputBias;
+		for (int j = 0; j < hidden; j++) {
+			sum += Math.min(Math.max(acc[own + j], 0), QA) * outputWeights[j];
+		}
+		for (int j = 0; j < hidden; j++) {
+			sum += Math.min(Math.max(acc[other + j], 0), QA) * outputWeights[hidden + j];
+		}
+		return 50.0 * Math.tanh(sum / (2.0 * QA * QB));
+	}
+
+	/** Returns the input a chip turns on in a color's view.
+	*  @param view is the color whose view it is
+	*  @param chip is the color of the chip
+	*  @param bit is the chip's cell
+	*  @return an input from 0 to INPUTS - 1
+	**/
+	static int input(int view, int chip, int bit) {
+		int cell = view == Position.WHITE ? bit : TRANSPOSED[bit];
+		return chip == view ? cell : 64 + cell;
+	}
+
+	/** Adds a chip's rows to both views of an accumulator, or subtracts
+	*  them.
+	*  @param sign is 1 to add the chip and -1 to remove it
+	**/
+	private void add(int[] acc, int chip, int bit, int sign) {
+		int row = input(Position.WHITE, chip, bit) * hidden;
+		for (int j = 0; j < hidden; j++) {
+			acc[j] += sign * inputWeights[row + j];
+		}
+		row = input(Position.BLACK, chip, bit) * hidden;
+		for (int j = 0; j < hidden; j++) {
+			acc[hidden + j] += sign * inputWeights[row + j];
+		}
+	}
+
+	private static short[] readShorts(DataInputStream in, int count) throws IOException {
+		short[] values = new short[count];
+		for (int i = 0; i < count; i++) {
+			values[i] = in.readShort();
+		}
+		return values;
+	}
+
+	private static void writeShorts(DataOutputStream out, short[] values) throws IOException {
+		for (short v : values) {
+			out.writeShort(v);
+		}
+	}
+	/*  Test Code -- Reader Can Ignore  */
+
+	/** Times a network update and evaluation, Rules.evaluate() and
+	*  Board.evaluatorFcn() over a list of positions.
+	*  @return the nanoseconds each took for the whole list
+	**/
+	private static long[] time(NeuralEvaluator network, java.util.List<Position> positions) {
+		int[][] accs = new int[positions.size()][];
+		Board[] boards = new Board[positions.size()];
+		for (int i = 0; i < accs.length; i++) {
+			accs[i] = network.newAccumulator();
+			network.refresh(positions.get(i), accs[i]);
+			boards[i] = positions.get(i).toBoard();
+		}
+		Move step = new Move(3, 3, 4, 4);
+		int[] child = network.newAccumulator();
+		double sink = 0.0;
+		long start = System.nanoTime();
+		for (int i = 0; i < accs.length; i++) {
+			network.play(accs[i], step, Position.WHITE, child);
+			sink += network.evaluate(child, Position.WHITE);
+		}
+		long middle = System.nanoTime();
+		for (int i = 0; i < accs.length; i++) {
+			sink += Rules.evaluate(positions.get(i), Position.WHITE);
+		}
+		long end = System.nanoTime();
+		for (int i = 0; i < accs.length; i++) {
+			boards[i].clearSearchState();
+			sink += boards[i].evaluatorFcn(Position.WHITE);
+		}
+		long last = System.nanoTime();
+		if (sink == 1.0) {
+			System.out.println();
+		}
+		return new long[] {middle - start, end - middle, last - end};
+	}
+
+	public static void main(String[] args) throws IOException {
+		// random weights, as large as training could make them
+		java.util.Random random = new java.util.Random(5);
+		int hidden = NeuralTrainer.HIDDEN;
+		short[] w1 = new short[INPUTS * hidden];
+		for (int i = 0; i < w1.length; i++) {
+			w1[i] = (short)(random.nextGaussian() * QA / 4);
+		}
+		short[] b1 = new short[hidden];
+		for (int j = 0; j < hidden; j++) {
+			b1[j] = (short)(QA / 2);
+		}
+		short[] w2 = new short[2 * hidden];
+		for (int j = 0; j < w2.length; j++) {
+			w2[j] = (short)(random.nextGaussian() * QB / 4);
+		}
+		NeuralEvaluator network = new NeuralEvaluator(hidden, w1, b1, w2, 0);
+
+		// accumulators updated move by move must equal ones summed afresh
+		Rules rules = new Rules();
+		Move[] buffer = Board.newMoveBuffer();
+		java.util.List<Position> positions = new java.util.ArrayList<Position>();
+		int[] incremental = network.newAccumulator();
+		int[] fresh = network.newAccumulator();
+		int mismatches = 0;
+		for (int game = 0; game < 200; game++) {
+			Position p = new Position();
+			network.refresh(p, incremental);
+			int player = Position.WHITE;
+			for (int ply = 0; ply < 60 && !rules.isNetwork(p, 1 - player); ply++) {
+				int count = Rules.generateMoves(p, player, buffer);
+				Move m = buffer[random.nextInt(count)];
+				Rules.play(p, m, player, p);
+				network.play(incremental, m, player, incremental);
+				network.refresh(p, fresh);
+				if (!java.util.Arrays.equals(incremental, fresh)) {
+					mismatches++;
+				}
+				positions.add(new Position(p.white, p.black, 1 - player, p.whiteChips, p.blackChips));
+				player = 1 - player;
+			}
+		}
+		System.out.println(positions.size() + " positions, " + mismatches + " incremental mismatches");
+
+		// what a leaf costs: a move's update and an evaluation, against the
+		// evaluation functions of Rules and Board
+		long[] nanos = new long[3];
+		for (int round = 0; round < 5; round++) {
+			// the first rounds warm up the JIT compiler
+			nanos = time(network, positions);
+		}
+		System.out.println("ns a leaf: network update and evaluation " + nanos[0] / positions.size()
+				+ ", Rules.evaluate " + nanos[1] / positions.size() + ", Board.evaluatorFcn "
+				+ nanos[2] / positions.size());
+
+		// searches scoring leaves with the network, in both modes and with
+		// weights read back from a file, must not allocate once warm. The
+		// modes can differ where Board's network search leaves visited
+		// flags behind, as they do with evaluatorFcn
+		java.io.File weights = java.io.File.createTempFile("weights", ".nnue");
+		weights.deleteOnExit();
+		network.save(weights);
+		NeuralEvaluator loaded = load(weights);
+		com.sun.management.ThreadMXBean threads =
+				(com.sun.management.ThreadMXBean)java.lang.management.ManagementFactory.getThreadMXBean();
+		Searcher[] searchers = new Searcher[6];
+		for (int i = 0; i < searchers.length; i++) {
+			searchers[i] = new Searcher(Position.WHITE, new HeapTranspositionTable(16));
+			searchers[i].setCopyMake((i & 1) != 0);
+			searchers[i].setEvaluator(i < 2 ? null : i < 4 ? network : loaded);
+		}
+		Best[] best = new Best[searchers.length];
+		int[] differ = new int[2];
+		int reloadDiffers = 0;
+		long allocated = 0;
+		for (int round = 0; round < 2; round++) {
+			allocated = 0;
+			differ = new int[2];
+			reloadDiffers = 0;
+			for (int i = 0; i < positions.size(); i += 97) {
+				Position p = positions.get(i);
+				for (int k = 0; k < searchers.length; k++) {
+					best[k] = new Best();
+					best[k].move = new Move();
+					searchers[k].load(p);
+					long before = threads.getCurrentThreadAllocatedBytes();
+					searchers[k].search(p.toMove(), 3, best[k]);
+					if (k >= 2) {
+						allocated += threads.getCurrentThreadAllocatedBytes() - before;
+					}
+				}
+				for (int k = 0; k < 2; k++) {
+					if (Double.compare(best[2 * k].score, best[2 * k + 1].score) != 0) {
+						differ[k]++;
+					}
+					if (Double.compare(best[2 + k].score, best[4 + k].score) != 0) {
+						reloadDiffers++;
+					}
+				}
+			}
+			// the first round is warm-up
+		}
+		System.out.println("depth-3 searches differing between modes: " + differ[0] + " with evaluatorFcn, "
+				+ differ[1] + " with the network; " + reloadDiffers + " differing with the weights read back; "
+				+ allocated + " bytes allocated");
+
+		boolean ok = mismatches == 0 && reloadDiffers == 0 && allocated == 0 && nanos[0] < nanos[2];
+		System.out.println(ok ? "PASSED" : "FAILED");
+	}
+}
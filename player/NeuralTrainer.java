@@ -0,0 +1,490 @@
+/* NeuralTrainer.java */
+
+package player;
+import java.io.*;
+import java.util.Random;
+
+/** Trains a NeuralEvaluator on game records, on the CPU. Each position
+*  of each game is labeled with the game's result: 1 for the winner, 0
+*  for the loser, and 1/2 for both colors after a draw. The network is
+*  taught to predict that label from either color's view, with a sigmoid
+*  output and cross-entropy loss.
+*
+*  Training is plain stochastic gradient descent in floating point on the
+*  same network NeuralEvaluator runs. Only the input rows of a position's
+*  chips are touched, so a step costs about as much as building an
+*  accumulator. Every position is also shown flipped left to right, top
+*  to bottom, or both, at random; those flips keep each color's goals its
+*  own. quantize() rounds the weights to NeuralEvaluator's fixed point.
+*
+*  From the command line,
+*
+*    java player.NeuralTrainer weights.nnue games.ngr ...
+*
+*  trains on the given record files and writes the weights.
+**/
+final class NeuralTrainer {
+	static final int HIDDEN = 32;
+	static final int EPOCHS = 8;
+	static final double RATE = 0.002;
+
+	private final int hidden;
+	private final Random random;
+
+	// the network, unscaled
+	private final float[] inputWeights;
+	private final float[] hiddenBias;
+	private final float[] outputWeights;
+	private float outputBias;
+
+	// the positions read so far, and white's label for each in halves:
+	// 2 if white won, 0 if black won, 1 for a draw
+	private long[] white = new long[1024];
+	private long[] black = new long[1024];
+	private byte[] label = new byte[1024];
+	private int size;
+
+	// scratch space for one training step
+	private final int[] features = new int[2 * 2 * Position.CHIPS];
+	private final float[] sums;
+	private final float[] grad;
+
+	/** Makes a trainer with a randomly started network.
+	*  @param hidden is the number of hidden units in each view
+	*  @param seed seeds the starting weights and the order of training
+	**/
+	NeuralTrainer(int hidden, long seed) {
+		this.hidden = hidden;
+		this.random = new Random(seed);
+		inputWeights = new float[NeuralEvaluator.INPUTS * hidden];
+		hiddenBias = new float[hidden];
+		outputWeights = new float[2 * hidden];
+		sums = new float[2 * hidden];
+		grad = new float[2 * hidden];
+		for (int i = 0; i < inputWeights.length; i++) {
+			inputWeights[i] = (float)(random.nextGaussian() * 0.1);
+		}
+		for (int j = 0; j < hidden; j++) {
+			hiddenBias[j] = 0.5f;
+		}
+		for (int j = 0; j < outputWeights.length; j++) {
+			outputWeights[j] = (float)(random.nextGaussian() * 0.1);
+		}
+	}
+
+	/** Adds the positions of every game in a record file.
+	*  @param records is a file written by GameRecordWriter
+	*  @return the number of positions added
+	*  @throws IOException if the file cannot be read
+	**/
+	int read(File records) throws IOException {
+		int before = size;
+		GameRecordReader reader = new GameRecordReader(records);
+		try {
+			Position p = new Position();
+			Move m = new Move();
+			while (reader.nextGame()) {
+				int result = reader.result();
+				byte whiteLabel = (byte)(result == Position.WHITE ? 2 : result == Position.BLACK ? 0 : 1);
+				p.copyFrom(new Position());
+				int player = Position.WHITE;
+				while (reader.nextMove() && reader.moveKind() != Move.QUIT) {
+					m.moveKind = reader.moveKind();
+					m.x1 = reader.x1();
+					m.y1 = reader.y1();
+					m.x2 = reader.x2();
+					m.y2 = reader.y2();
+					Rules.play(p, m, player, p);
+					add(p.white, p.black, whiteLabel);
+					player = 1 - player;
+				}
+			}
+		} finally {
+			reader.close();
+		}
+		return size - before;
+	}
+
+	/** Returns the number of positions read.
+	*  @return the number of positions
+	**/
+	int size() {
+		return size;
+	}
+
+	/** Trains the network on every position read.
+	*  @param epochs is the number of passes over the positions
+	*  @param rate is the learning rate of the first pass; it falls to a
+	*         tenth of that by the last
+	*  @return the mean loss of the last pass
+	**/
+	double train(int epochs, double rate) {
+		int[] order = new int[size];
+		for (int i = 0; i < size; i++) {
+			order[i] = i;
+		}
+		double loss = 0.0;
+		for (int epoch = 0; epoch < epochs; epoch++) {
+			float step = (float)(rate * Math.pow(0.1, epochs > 1 ? (double)epoch / (epochs - 1) : 0.0));
+			for (int i = size - 1; i > 0; i--) {
+				int j = random.nextInt(i + 1);
+				int t = order[i];
+				order[i] = order[j];
+				order[j] = t;
+			}
+			loss = 0.0;
+			for (int i = 0; i < size; i++) {
+				int k = order[i];
+				int flip = random.nextInt(4);
+				long w = Symmetry.mask(flip, white[k]);
+				long b = Symmetry.mask(flip, black[k]);
+				double target = label[k] / 2.0;
+				loss += step(w, b, Position.WHITE, target, step);
+				loss += step(w, b, Position.BLACK, 1.0 - target, step);
+			}
+			loss /= 2 * size;
+		}
+		return loss;
+	}
+
+	/** Returns the mean loss over every position read, from both views.
+	*  @return the mean cross-entropy
+	**/
+	double loss() {
+		double loss = 0.0;
+		for (int k = 0; k < size; k++) {
+			double target = label[k] / 2.0;
+			loss += crossEntropy(output(white[k], black[k], Position.WHITE), target);
+			loss += crossEntropy(output(white[k], black[k], Position.BLACK), 1.0 - target);
+		}
+		return loss / (2 * size);
+	}
+
+	/** Returns the trained network's score of a position, before
+	*  quantization.
+	*  @param p is the position
+	*  @param player is the color the score favors
+	*  @return a score between -50 and 50
+	**/
+	double evaluate(Position p, int player) {
+		return 50.0 * Math.tanh(output(p.white, p.black, player) / 2.0);
+	}
+
+	/** Rounds the network to NeuralEvaluator's fixed point.
+	*  @return the evaluator
+	**/
+	NeuralEvaluator quantize() {
+		short[] w1 = new short[inputWeights.length];
+		for (int i = 0; i < w1.length; i++) {
+			w1[i] = fixed(inputWeights[i], NeuralEvaluator.QA);
+		}
+		short[] b1 = new short[hidden];
+		for (int j = 0; j < hidden; j++) {
+			b1[j] = fixed(hiddenBias[j], NeuralEvaluator.QA);
+		}
+		short[] w2 = new short[2 * hidden];
+		for (int j = 0; j < w2.length; j++) {
+			w2[j] = fixed(outputWeights[j], NeuralEvaluator.QB);
+		}
+		int b2 = (int)Math.round((double)outputBias * NeuralEvaluator.QA * NeuralEvaluator.QB);
+		return new NeuralEvaluator(hidden, w1, b1, w2, b2);
+	}
+
+	/** Adds one position.
+	*  @param whiteLabel is white's label in halves
+	**/
+	private void add(long w, long b, byte whiteLabel) {
+		if (size == white.length) {
+			white = java.util.Arrays.copyOf(white, 2 * size);
+			black = java.util.Arrays.copyOf(black, 2 * size);
+			label = java.util.Arrays.copyOf(label, 2 * size);
+		}
+		white[size] = w;
+		black[size] = b;
+		label[size] = whiteLabel;
+		size++;
+	}
+
+	/** Fills features with the inputs a position turns on in both views:
+	*  the evaluated color's view first, then the other's.
+	*  @return the number of inputs in each view
+	**/
+	private int features(long w, long b, int player) {
+		int n = 0;
+		for (int view = 0; view < 2; view++) {
+			int v = view == 0 ? player : 1 - player;
+			for (long chips = w; chips != 0; chips &= chips - 1) {
+				features[n++] = NeuralEvaluator.input(v, Position.WHITE, Long.numberOfTrailingZeros(chips));
+			}
+			for (long chips = b; chips != 0; chips &= chips - 1) {
+				features[n++] = NeuralEvaluator.input(v, Position.BLACK, Long.numberOfTrailingZeros(chips));
+			}
+		}
+		return n / 2;
+	}
+
+	/** Computes the hidden sums of both views into sums and returns the
+	*  output before the sigmoid.
+	**/
+	private double output(long w, long b, int player) {
+		int n = features(w, b, player);
+		for (int view = 0; view < 2; view++) {
+			int off = view * hidden;
+			for (int j = 0; j < hidden; j++) {
+				sums[off + j] = hiddenBias[j];
+			}
+			for (int i = view * n; i < (view + 1) * n; i++) {
+				int row = features[i] * hidden;
+				for (int j = 0; j < hidden; j++) {
+					sums[off + j] += inputWeights[row + j];
+				}
+			}
+		}
+		double out = outputBias;
+		for (int j = 0; j < 2 * hidden; j++) {
+			out += clip(sums[j]) * outputWeights[j];
+		}
+		return out;
+	}
+
+	/** Takes one gradient step on one position seen from one view.
+	*  @return the loss before the step
+	**/
+	private double step(long w, long b, int player, double target, float rate) {
+		double out = output(w, b, player);
+		double predicted = 1.0 / (1.0 + Math.exp(-out));
+		float delta = (float)(predicted - target);
+		int n = features(w, b, player);
+		for (int j = 0; j < 2 * hidden; j++) {
+			float s = sums[j];
+			grad[j] = s > 0.0f && s < 1.0f ? delta * outputWeights[j] : 0.0f;
+			outputWeights[j] -= rate * delta * clip(s);
+		}
+		outputBias -= rate * delta;
+		for (int view = 0; view < 2; view++) {
+			int off = view * hidden;
+			for (int i = view * n; i < (view + 1) * n; i++) {
+				int row = features[i] * hidden;
+				for (int j = 0; j < hidden; j++) {
+					inputWeights[row + j] -= rate * grad[off + j];
+				}
+			}
+			for (int j = 0; j < hidden; j++) {
+				hiddenBias[j] -= rate * grad[off + j];
+			}
+		}
+		return crossEntropy(out, target);
+	}
+
+	private static float clip(float s) {
+		return Math.min(Math.max(s, 0.0f), 1.0f);
+	}
+
+	/** Returns the cross-entropy of a sigmoid output against a target. */
+	private static double crossEntropy(double out, double target) {
+		// log(1 + e^out) - target * out, without overflow
+		double softplus = out > 0 ? out + Math.log1p(Math.exp(-out)) : Math.log1p(Math.exp(out));
+		return softplus - target * out;
+	}
+
+	/** Rounds a weight to fixed point, saturating at the range of a short. */
+	private static short fixed(float weight, int scale) {
+		long v = Math.round((double)weight * scale);
+		return (short)Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, v));
+	}
+
+	/*  Test Code -- Reader Can Ignore  */
+
+	/** A machine player that opens with random moves, so that self-play
+	*  games differ from each other.
+	**/
+	private static class RandomOpening extends Player {
+		private MachinePlayer player;
+		private int color;
+		private Random random;
+		private int randomMoves;
+
+		RandomOpening(int color, long seed, int randomMoves, int depth, NeuralEvaluator evaluator) {
+			this.player = new MachinePlayer(color, depth);
+			player.setEvaluator(evaluator);
+			this.color = color;
+			this.random = new Random(seed);
+			this.randomMoves = randomMoves;
+		}
+
+		public Move chooseMove() {
+			if (randomMoves-- <= 0) {
+				return player.chooseMove();
+			}
+			Move[] moves = player.gameBoard.validMoves(color);
+			int count = 0;
+			while (count < moves.length && moves[count] != null) {
+				count++;
+			}
+			Move m = moves[random.nextInt(count)];
+			player.forceMove(m);
+			return m;
+		}
+
+		public boolean opponentMove(Move m) {
+			return player.opponentMove(m);
+		}
+
+		public boolean forceMove(Move m) {
+			return player.forceMove(m);
+		}
+	}
+
+	/** Writes self-play games to a record file.
+	*  @param seed picks the games
+	**/
+	private static void selfPlay(File file, int games, long seed) throws IOException {
+		GameRecordWriter writer = new GameRecordWriter(file, false);
+		for (int g = 0; g < games; g++) {
+			GameSession s = new GameSession(new RandomOpening(Position.WHITE, seed + 2 * g, 8, 1, null),
+					new RandomOpening(Position.BLACK, seed + 2 * g + 1, 8, 1, null));
+			s.setDrawRules(3, 100);
+			s.play(400);
+			s.record(writer);
+		}
+		writer.close();
+	}
+
+	/** Returns how often a score's sign names the winner, over the
+	*  positions of decided games from the STEP phase on.
+	*  @param network is the trained evaluator, or null for
+	*         Board.evaluatorFcn()
+	**/
+	private static double accuracy(File file, NeuralEvaluator network) throws IOException {
+		GameRecordReader reader = new GameRecordReader(file);
+		Position p = new Position();
+		int[] acc = network == null ? null : network.newAccumulator();
+		int right = 0;
+		int total = 0;
+		while (reader.nextGame()) {
+			int result = reader.result();
+			p.copyFrom(new Position());
+			int player = Position.WHITE;
+			while (reader.nextMove() && reader.moveKind() != Move.QUIT) {
+				Rules.play(p, reader.move(), player, p);
+				player = 1 - player;
+				if (result == GameRecordWriter.NO_RESULT || p.chipsLeft(Position.BLACK) > 0) {
+					continue;
+				}
+				double score;
+				if (network != null) {
+					network.refresh(p, acc);
+					score = network.evaluate(acc, Position.WHITE);
+				} else {
+					score = Rules.evaluate(p, Position.WHITE);
+				}
+				if (score != 0.0 && !Double.isNaN(score)) {
+					total++;
+					if ((score > 0) == (result == Position.WHITE)) {
+						right++;
+					}
+				}
+			}
+		}
+		reader.close();
+		return (double)right / total;
+	}
+
+	public static void main(String[] args) throws IOException {
+		if (args.length >= 2) {
+			NeuralTrainer trainer = new NeuralTrainer(HIDDEN, 1);
+			for (int i = 1; i < args.length; i++) {
+				trainer.read(new File(args[i]));
+			}
+			System.out.println(trainer.size() + " positions, loss " + trainer.train(EPOCHS, RATE));
+			trainer.quantize().save(new File(args[0]));
+			return;
+		}
+
+		File training = File.createTempFile("train", ".ngr");
+		File validation = File.createTempFile("validate", ".ngr");
+		File weights = File.createTempFile("weights", ".nnue");
+		training.deleteOnExit();
+		validation.deleteOnExit();
+		weights.deleteOnExit();
+		long start = System.nanoTime();
+		selfPlay(training, 2000, 1000);
+		selfPlay(validation, 400, 90000);
+		System.out.println("self-play: " + (System.nanoTime() - start) / 1000000 + " ms");
+
+		NeuralTrainer trainer = new NeuralTrainer(HIDDEN, 7);
+		trainer.read(training);
+		NeuralTrainer held = new NeuralTrainer(HIDDEN, 7);
+		held.read(validation);
+		double before = trainer.loss();
+		start = System.nanoTime();
+		double trained = trainer.train(EPOCHS, RATE);
+		System.out.println(trainer.size() + " positions, " + EPOCHS + " passes in "
+				+ (System.nanoTime() - start) / 1000000 + " ms; loss " + before + " -> " + trained);
+
+		// the held-out games, scored by the trained weights
+		System.arraycopy(trainer.inputWeights, 0, held.inputWeights, 0, held.inputWeights.length);
+		System.arraycopy(trainer.hiddenBias, 0, held.hiddenBias, 0, held.hiddenBias.length);
+		System.arraycopy(trainer.outputWeights, 0, held.outputWeights, 0, held.outputWeights.length);
+		held.outputBias = trainer.outputBias;
+		double heldLoss = held.loss();
+		System.out.println(held.size() + " held-out positions, loss " + heldLoss
+				+ " (a constant 1/2 scores " + Math.log(2) + ")");
+
+		// the quantized network must score like the float one, and survive
+		// a round trip through a file
+		NeuralEvaluator network = trainer.quantize();
+		network.save(weights);
+		NeuralEvaluator loaded = NeuralEvaluator.load(weights);
+		Random random = new Random(3);
+		Rules rules = new Rules();
+		Move[] buffer = Board.newMoveBuffer();
+		int[] acc = network.newAccumulator();
+		int[] acc2 = loaded.newAccumulator();
+		double worst = 0.0;
+		boolean same = true;
+		for (int game = 0; game < 50; game++) {
+			Position p = new Position();
+			int player = Position.WHITE;
+			for (int ply = 0; ply < 40 && !rules.isNetwork(p, 1 - player); ply++) {
+				for (int view = 0; view < 2; view++) {
+					network.refresh(p, acc);
+					loaded.refresh(p, acc2);
+					double q = network.evaluate(acc, view);
+					worst = Math.max(worst, Math.abs(q - trainer.evaluate(p, view)));
+					same = same && q == loaded.evaluate(acc2, view);
+				}
+				int count = Rules.generateMoves(p, player, buffer);
+				Rules.play(p, buffer[random.nextInt(count)], player, p);
+				player = 1 - player;
+			}
+		}
+		System.out.println("quantized scores differ by at most " + worst + ", reloaded the same: " + same);
+
+		double net = accuracy(validation, network);
+		double hand = accuracy(validation, null);
+		System.out.println("STEP-phase positions whose sign names the winner: network "
+				+ net + ", evaluatorFcn " + hand);
+
+		// depth-2 games between the network and evaluatorFcn, each side
+		// playing both colors from the same openings
+		int games = 40;
+		double points = 0.0;
+		start = System.nanoTime();
+		for (int g = 0; g < games; g++) {
+			int netColor = g & 1;
+			long seed = 50000 + 2 * (g / 2);
+			GameSession s = new GameSession(
+					new RandomOpening(Position.WHITE, seed, 4, 2, netColor == Position.WHITE ? network : null),
+					new RandomOpening(Position.BLACK, seed + 1, 4, 2, netColor == Position.BLACK ? network : null));
+			s.setDrawRules(3, 100);
+			s.play(400);
+			points += s.winner() == netColor ? 1.0 : s.winner() == GameSession.NO_RESULT ? 0.5 : 0.0;
+		}
+		System.out.println("depth 2, network against evaluatorFcn: " + points + " of " + games + " points in "
+				+ (System.nanoTime() - start) / 1000000 + " ms");
+
+		boolean ok = trained < before && heldLoss < Math.log(2) && worst < 2.0 && same;
+		System.out.println(ok ? "PASSED" : "FAILED");
+	}
+}
@@ -0,0 +1,210 @@
+/* OffHeapTranspositionTable.java */
+
+package player;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.stream.IntStream;
+
+/** A TranspositionTable outside the Java heap, for tables of many
+*  gigabytes that a long[] would make the garbage collector copy and scan.
+*  Slots and replacement are those of HeapTranspositionTable: two longs,
+*  the key XORed with the data and then the data, so a slot torn by two
+*  threads storing at once reads as a miss.
+*
+*  A ByteBuffer is indexed by int, so the table is split into direct
+*  buffers of at most 1 GB each. Each buffer starts on an address aligned
+*  to a chosen size, 2 MB by default, so that the operating system can back
+*  it with huge pages. New buffers are zeroed by the JVM; clear() zeroes
+*  the table in pieces on the common ForkJoinPool. The memory is returned
+*  when the table is garbage collected, and counts against the JVM's
+*  -XX:MaxDirectMemorySize.
+**/
+class OffHeapTranspositionTable implements TranspositionTable {
+	static final int HUGE_PAGE_LOG2 = 21;
+	static final int MAX_BUFFER_LOG2 = 30;
+
+	// bytes zeroed by one task of clear()
+	private static final int CLEAR_PIECE = 1 << 24;
+
+	private final ByteBuffer[] buffers;
+	private final int shift;
+	private final int bufferShift;
+	private final long bufferMask;
+
+	/** Creates an empty table aligned for 2 MB pages.
+	*  @param log2Entries is the base-2 logarithm of the number of slots
+	**/
+	OffHeapTranspositionTable(int log2Entries) {
+		this(log2Entries, HUGE_PAGE_LOG2, MAX_BUFFER_LOG2);
+	}
+
+	/** Creates an empty table.
+	*  @param log2Entries is the base-2 logarithm of the number of slots,
+	*         1 to 40
+	*  @param log2Alignment is the base-2 logarithm of the address each
+	*         buffer starts on, 4 to 30; buffers smaller than that are
+	*         aligned to their own size
+	*  @param log2BufferBytes is the base-2 logarithm of the most bytes in
+	*         one buffer, 4 to 30
+	**/
+	OffHeapTranspositionTable(int log2Entries, int log2Alignment, int log2BufferBytes) {
+		if (log2Entries < 1 || log2Entries > 40) {
+			throw new IllegalArgumentException("log2Entries out of range: " + log2Entries);
+		}
+		if (log2Alignment < 4 || log2Alignment > 30) {
+			throw new IllegalArgumentException("log2Alignment out of range: " + log2Alignment);
+		}
+		if (log2BufferBytes < 4 || log2BufferBytes > MAX_BUFFER_LOG2) {
+			throw new IllegalArgumentException("log2BufferBytes out of range: " + log2BufferBytes);
+		}
+		// 16 bytes a slot
+		int log2Bytes = Math.min(log2Entries + 4, log2BufferBytes);
+		int bufferBytes = 1 << log2Bytes;
+		int alignment = 1 << Math.min(log2Alignment, log2Bytes);
+		buffers = new ByteBuffer[1 << (log2Entries + 4 - log2Bytes)];
+		for (int i = 0; i < buffers.length; i++) {
+			// bufferBytes is a multiple of alignment, so the slice holds
+			// exactly bufferBytes
+			buffers[i] = ByteBuffer.allocateDirect(bufferBytes + alignment - 1).alignedSlice(alignment)
+					.order(ByteOrder.nativeOrder());
+		}
+		shift = 64 - log2Entries;
+		bufferShift = log2Bytes - 4;
+		bufferMask = (1L << bufferShift) - 1;
+	}
+
+	/** Makes a table in buffers made elsewhere, such as a mapped file.
+	*  @param buffers are the buffers in native byte order, all holding the
+	*         same power of two bytes, 2^(log2Entries + 4) in all
+	*  @param log2Entries is the base-2 logarithm of the number of slots
+	**/
+	OffHeapTranspositionTable(ByteBuffer[] buffers, int log2Entries) {
+		int log2Bytes = Integer.numberOfTrailingZeros(buffers[0].capacity());
+		this.buffers = buffers;
+		shift = 64 - log2Entries;
+		bufferShift = log2Bytes - 4;
+		bufferMask = (1L << bufferShift) - 1;
+	}
+
+	public long probe(long key) {
+		long slot = key >>> shift;
+		ByteBuffer b = buffers[(int)(slot >>> bufferShift)];
+		int at = (int)(slot & bufferMask) << 4;
+		long data = b.getLong(at + 8);
+		if ((b.getLong(at) ^ data) == key && data != MISS) {
+			return data;
+		}
+		return MISS;
+	}
+
+	public void store(long key, long data) {
+		long slot = key >>> shift;
+		ByteBuffer b = buffers[(int)(slot >>> bufferShift)];
+		int at = (int)(slot & bufferMask) << 4;
+		long old = b.getLong(at + 8);
+		if ((b.getLong(at) ^ old) == key && TranspositionTable.depth(old) > TranspositionTable.depth(data)) {
+			return;
+		}
+		b.putLong(at, key ^ data);
+		b.putLong(at + 8, data);
+	}
+
+	public void clear() {
+		final int bufferBytes = buffers[0].capacity();
+		final int piece = Math.min(bufferBytes, CLEAR_PIECE);
+		final int pieces = bufferBytes / piece;
+		IntStream.range(0, buffers.length * pieces).parallel().forEach(i -> {
+			ByteBuffer b = buffers[i / pieces];
+			int end = (i % pieces + 1) * piece;
+			for (int at = end - piece; at < end; at += 8) {
+				b.putLong(at, 0L);
+			}
+		});
+	}
+
+	public long capacity() {
+		return (long)buffers.length << bufferShift;
+	}
+
+	/*  Test Code -- Reader Can Ignore  */
+
+	public static void main(String[] args) {
+		// the same answers as the heap table, with one buffer and with many
+		boolean same = true;
+		TranspositionTable heap = new HeapTranspositionTable(12);
+		TranspositionTable[] tables = {new OffHeapTranspositionTable(12),
+				new OffHeapTranspositionTable(12, HUGE_PAGE_LOG2, 10)};
+		for (TranspositionTable table : tables) {
+			heap.clear();
+			java.util.Random random = new java.util.Random(45);
+			for (int i = 0; i < 200000; i++) {
+				long key = random.nextLong();
+				if (random.nextBoolean()) {
+					// revisit a recent key
+					key = key & 0xFFFFL;
+				}
+				long data = TranspositionTable.pack(random.nextInt(1 << 16), random.nextInt(8),
+						TranspositionTable.EXACT, random.nextFloat());
+				heap.store(key, data);
+				table.store(key, data);
+				if (heap.probe(key) != table.probe(key) || heap.probe(~key) != table.probe(~key)) {
+					same = false;
+				}
+			}
+			table.clear();
+			for (int i = 0; i < 1000; i++) {
+				if (table.probe(random.nextLong() & 0xFFFFL) != MISS) {
+					same = false;
+				}
+			}
+		}
+		if (tables[1].capacity() != 1 << 12 || ((OffHeapTranspositionTable)tables[1]).buffers.length != 64) {
+			same = false;
+		}
+
+		// every buffer starts on a 2 MB boundary
+		boolean aligned = true;
+		OffHeapTranspositionTable big = new OffHeapTranspositionTable(22, HUGE_PAGE_LOG2, 24);
+		for (ByteBuffer b : big.buffers) {
+			aligned &= b.alignmentOffset(0, 1 << HUGE_PAGE_LOG2) == 0;
+		}
+
+		// a searching MachinePlayer on either table plays the same game
+		MachinePlayer[] onHeap = {new MachinePlayer(Position.WHITE, 3), new MachinePlayer(Position.BLACK, 3)};
+		MachinePlayer[] offHeap = {new MachinePlayer(Position.WHITE, 3, new OffHeapTranspositionTable(MachinePlayer.TABLE_BITS)),
+				new MachinePlayer(Position.BLACK, 3, new OffHeapTranspositionTable(MachinePlayer.TABLE_BITS))};
+		Board board = new Board();
+		for (int ply = 0; ply < 30 && !board.isNetwork(Position.WHITE) && !board.isNetwork(Position.BLACK); ply++) {
+			int mover = ply % 2 == 0 ? Position.WHITE : Position.BLACK;
+			Move a = onHeap[1 - mover].chooseMove();
+			Move b = offHeap[1 - mover].chooseMove();
+			if (!a.toString().equals(b.toString())) {
+				same = false;
+				break;
+			}
+			onHeap[mover].opponentMove(a);
+			offHeap[mover].opponentMove(b);
+			board.makeMove(a, mover);
+		}
+
+		// building and clearing a 256 MB table, on and off the heap
+		long start = System.nanoTime();
+		TranspositionTable large = new HeapTranspositionTable(24);
+		long heapNew = System.nanoTime() - start;
+		start = System.nanoTime();
+		large.clear();
+		long heapClear = System.nanoTime() - start;
+		large = null;
+		start = System.nanoTime();
+		large = new OffHeapTranspositionTable(24);
+		long offNew = System.nanoTime() - start;
+		start = System.nanoTime();
+		large.clear();
+		long offClear = System.nanoTime() - start;
+		System.out.println("2^24 slots: heap " + heapNew / 1000000 + " ms to make, " + heapClear / 1000000
+				+ " ms to clear; off-heap " + offNew / 1000000 + " ms to make, " + offClear / 1000000
+				+ " ms to clear on " + java.util.concurrent.ForkJoinPool.getCommonPoolParallelism() + " threads");
+
+		System.out.println(same && aligned ? "PASSED" : "FAILED");
+	}
+}
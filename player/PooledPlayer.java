@@ -0,0 +1,55 @@
+/* PooledPlayer.java */
+
+package player;
+import java.util.concurrent.*;
+
+/** Wraps a CPU-bound player so that its chooseMove() runs on a GameServer's
+*  compute pool while the session's own thread just waits. Every chooseMove()
+*  latency, including time spent queued for the pool, goes to the session's
+*  LatencyRecorder.
+**/
+class PooledPlayer extends Player {
+	private Player player;
+	private GameServer server;
+	private LatencyRecorder latency;
+
+	/** Creates a wrapper.
+	*  @param player is the player whose searches use the pool
+	*  @param server is the server owning the pool
+	*  @param latency receives the latency of every chooseMove()
+	**/
+	PooledPlayer(Player player, GameServer server, LatencyRecorder latency) {
+		this.player = player;
+		this.server = server;
+		this.latency = latency;
+		this.myName = player.myName;
+	}
+
+	/** Runs the wrapped player's chooseMove() on the compute pool.
+	*  @return the wrapped player's move
+	*  @throws RejectedExecutionException if the pool stayed saturated for
+	*          the server's admission timeout
+	**/
+	public Move chooseMove() {
+		long start = System.nanoTime();
+		Move m = server.search(player);
+		latency.record(System.nanoTime() - start);
+		return m;
+	}
+
+	/** Passes the opponent's move to the wrapped player.
+	*  @param m is the opponent's move
+	*  @return what the wrapped player returned
+	**/
+	public boolean opponentMove(Move m) {
+		return player.opponentMove(m);
+	}
+
+	/** Passes a forced move to the wrapped player.
+	*  @param m is the move
+	*  @return what the wrapped player returned
+	**/
+	public boolean forceMove(Move m) {
+		return player.forceMove(m);
+	}
+}
@@ -0,0 +1,429 @@
+/* Position.java */
+
+package player;
+
+/** A compact value representation of a Network position: one 64-bit mask of
+*  cells per color, the color to move and the number of chips each color
+*  still has to add. Bit (y * 8 + x) of a mask is the cell (x, y), so each
+*  byte of a mask is one row of the board.
+*
+*  Positions have a one-line text notation and a 16-byte binary encoding so
+*  that test, benchmark and regression fixtures can be stored and loaded
+*  without replaying moves. The notation lists the rows from y = 0 to y = 7
+*  separated by '/', with 'W' and 'B' for chips and a digit for a run of
+*  empty cells, followed by the color to move ('w' or 'b') and the white and
+*  black chips left to add, which must be CHIPS less the chips of that color
+*  on the board:
+*
+*    2B5/W5W1/8/8/3W1B2/8/8/5B2 w 7 7
+*
+*  The binary encoding is the white mask followed by the black mask, both
+*  big-endian. Corner cells can never hold a chip, so bit 0 of the black mask
+*  is used to record that black is to move; chip counts are recomputed from
+*  the masks.
+**/
+public class Position {
+	static final int EMPTY = 2;
+	static final int WHITE = 1;
+	static final int BLACK = 0;
+
+	static final int CHIPS = 10;
+	static final int BYTES = 16;
+
+	// the four corner cells, which are never occupied
+	static final long CORNERS = 1L | (1L << 7) | (1L << 56) | (1L << 63);
+
+	long white;
+	long black;
+	int toMove;
+	int whiteChips;
+	int blackChips;
+
+	/** Creates the starting position: an empty board with white to move.
+	**/
+	public Position() {
+		this(0L, 0L, WHITE, CHIPS, CHIPS);
+	}
+
+	/** Creates a position from its parts.
+	*  @param white is the mask of white chips
+	*  @param black is the mask of black chips
+	*  @param toMove is the color to move
+	*  @param whiteChips is the number of chips white has left to add
+	*  @param blackChips is the number of chips black has left to add
+	**/
+	public Position(long white, long black, int toMove, int whiteChips, int blackChips) {
+		this.white = white;
+		this.black = black;
+		this.toMove = toMove;
+		this.whiteChips = whiteChips;
+		this.blackChips = blackChips;
+	}
+
+	/** Creates a copy of another position.
+	*  @param p is the position to copy
+	**/
+	public Position(Position p) {
+		copyFrom(p);
+	}
+
+	/** Overwrites this position with another one without allocating.
+	*  @param p is the position to copy
+	**/
+	void copyFrom(Position p) {
+		white = p.white;
+		black = p.black;
+		toMove = p.toMove;
+		whiteChips = p.whiteChips;
+		blackChips = p.blackChips;
+	}
+
+	/** Returns the bit index of a cell.
+	*  @param x is the x coordinate, 0 to 7
+	*  @param y is the y coordinate, 0 to 7
+	*  @return y * 8 + x
+	**/
+	static int bit(int x, int y) {
+		return (y << 3) | x;
+	}
+
+	/** Returns what occupies a cell.
+	*  @param x is the x coordinate, 0 to 7
+	*  @param y is the y coordinate, 0 to 7
+	*  @return WHITE, BLACK or EMPTY
+	**/
+	public int get(int x, int y) {
+		long b = 1L << bit(x, y);
+		if ((white & b) != 0) {
+			return WHITE;
+		} else if ((black & b) != 0) {
+			return BLACK;
+		}
+		return EMPTY;
+	}
+
+	/** Returns the color to move.
+	*  @return WHITE or BLACK
+	**/
+	public int toMove() {
+		return toMove;
+	}
+
+	/** Returns how many chips a color still has to add.
+	*  @param player is the color asked about
+	*  @return the chips left, 0 once that color makes STEP moves
+	**/
+	public int chipsLeft(int player) {
+		return player == WHITE ? whiteChips : blackChips;
+	}
+
+	/** Reads the position held by a Board.
+	*  @param b is the board to read
+	*  @param toMove is the color to move, which a Board does not record
+	*  @return a new position equal to the board
+	**/
+	static Position of(Board b, int toMove) {
+		Position p = new Position();
+		p.setFrom(b, toMove);
+		return p;
+	}
+
+	/** Makes this position equal to a Board, without allocating.
+	*  @param b is the board to read
+	*  @param toMove is the color to move, which a Board does not record
+	**/
+	void setFrom(Board b, int toMove) {
+		long w = 0L;
+		long k = 0L;
+		for (int x = 0; x < 8; x++) {
+			for (int y = 0; y < 8; y++) {
+				int item = b.myBoard[x + 1][y + 1].item;
+				if (item == WHITE) {
+					w |= 1L << bit(x, y);
+				} else if (item == BLACK) {
+					k |= 1L << bit(x, y);
+				}
+			}
+		}
+		white = w;
+		black = k;
+		this.toMove = toMove;
+		whiteChips = b.whiteChips;
+		blackChips = b.blackChips;
+	}
+
+	/** Builds a Board holding this position, without replaying moves or
+	*  checking legality.
+	*  @return a new Board
+	**/
+	Board toBoard() {
+		Board b = new Board();
+		for (int i = 0; i < 64; i++) {
+			if ((white & (1L << i)) != 0) {
+				b.addWhite(i & 7, i >> 3);
+			} else if ((black & (1L << i)) != 0) {
+				b.addBlack(i & 7, i >> 3);
+			}
+		}
+		b.whiteChips = whiteChips;
+		b.blackChips = blackChips;
+		return b;
+	}
+
+	/** Sets a Board to this position without allocating and clears its
+	*  search state.
+	*  @param b is the board to overwrite
+	**/
+	void copyTo(Board b) {
+		for (int i = 0; i < Board.SIZE; i++) {
+			for (int j = 0; j < Board.SIZE; j++) {
+				SpaceNode cell = b.myBoard[i][j];
+				cell.item = Board.EMPTY;
+				cell.coordList.clear();
+				cell.visited = false;
+			}
+		}
+		for (int i = 0; i < 64; i++) {
+			if ((white & (1L << i)) != 0) {
+				b.myBoard[(i & 7) + 1][(i >> 3) + 1].item = WHITE;
+			} else if ((black & (1L << i)) != 0) {
+				b.myBoard[(i & 7) + 1][(i >> 3) + 1].item = BLACK;
+			}
+		}
+		b.whiteChips = whiteChips;
+		b.blackChips = blackChips;
+	}
+
+	/** Parses a position written in the notation described above.
+	*  @param s is the notation
+	*  @return the position
+	*  @throws IllegalArgumentException if s is not valid notation, puts a
+	*          chip on a corner cell, or gives a chip count that does not
+	*          match the board
+	**/
+	public static Position parse(String s) {
+		String[] parts = s.trim().split("\\s+");
+		if (parts.length != 4) {
+			throw new IllegalArgumentException("expected cells, side and two chip counts: " + s);
+		}
+		long w = 0L;
+		long k = 0L;
+		int x = 0;
+		int y = 0;
+		String cells = parts[0];
+		for (int i = 0; i < cells.length(); i++) {
+			char c = cells.charAt(i);
+			if (c == '/') {
+				if (x != 8) {
+					throw new IllegalArgumentException("row " + y + " does not have 8 cells: " + s);
+				}
+				x = 0;
+				y++;
+			} else if (c >= '1' && c <= '8') {
+				x += c - '0';
+			} else if (c == 'W' || c == 'B') {
+				if (x > 7 || y > 7) {
+					throw new IllegalArgumentException("too many cells: " + s);
+				}
+				if (c == 'W') {
+					w |= 1L << bit(x, y);
+				} else {
+					k |= 1L << bit(x, y);
+				}
+				x++;
+			} else {
+				throw new IllegalArgumentException("bad cell character '" + c + "': " + s);
+			}
+			if (x > 8 || y > 7) {
+				throw new IllegalArgumentException("too many cells: " + s);
+			}
+		}
+		if (x != 8 || y != 7) {
+			throw new IllegalArgumentException("expected 8 rows of 8 cells: " + s);
+		}
+		if (((w | k) & CORNERS) != 0) {
+			throw new IllegalArgumentException("chip on a corner cell: " + s);
+		}
+		int side;
+		if (parts[1].equals("w")) {
+			side = WHITE;
+		} else if (parts[1].equals("b")) {
+			side = BLACK;
+		} else {
+			throw new IllegalArgumentException("side to move must be w or b: " + s);
+		}
+		int whiteLeft;
+		int blackLeft;
+		try {
+			whiteLeft = Integer.parseInt(parts[2]);
+			blackLeft = Integer.parseInt(parts[3]);
+		} catch (NumberFormatException e) {
+			throw new IllegalArgumentException("bad chip count: " + s);
+		}
+		// the binary encoding recomputes the counts from the masks, so any
+		// other count would not survive a round trip
+		if (!chipsLeft(whiteLeft, w) || !chipsLeft(blackLeft, k)) {
+			throw new IllegalArgumentException("chip count does not match the board: " + s);
+		}
+		return new Position(w, k, side, whiteLeft, blackLeft);
+	}
+
+	private static boolean chipsLeft(int left, long mask) {
+		return left >= 0 && left <= CHIPS && left == CHIPS - Long.bitCount(mask);
+	}
+
+	/** Writes the 16-byte binary encoding of this position.
+	*  @param buf is the array written to
+	*  @param off is where in buf the encoding starts
+	**/
+	public void writeBytes(byte[] buf, int off) {
+		// bit 0 of the black mask is the side to move
+		assert (black & CORNERS) == 0 : "black chip on a corner cell";
+		long k = black;
+		if (toMove == BLACK) {
+			k |= 1L;
+		}
+		for (int i = 0; i < 8; i++) {
+			buf[off + i] = (byte)(white >>> (56 - 8 * i));
+			buf[off + 8 + i] = (byte)(k >>> (56 - 8 * i));
+		}
+	}
+
+	/** Returns the 16-byte binary encoding of this position.
+	*  @return a new array of BYTES bytes
+	**/
+	public byte[] toBytes() {
+		byte[] buf = new byte[BYTES];
+		writeBytes(buf, 0);
+		return buf;
+	}
+
+	/** Decodes a position written by writeBytes().
+	*  @param buf is the array read from
+	*  @param off is where in buf the encoding starts
+	*  @return the position
+	**/
+	public static Position fromBytes(byte[] buf, int off) {
+		Position p = new Position();
+		p.readBytes(buf, off);
+		return p;
+	}
+
+	/** Overwrites this position with one decoded from its binary encoding,
+	*  without allocating.
+	*  @param buf is the array read from
+	*  @param off is where in buf the encoding starts
+	**/
+	void readBytes(byte[] buf, int off) {
+		long w = 0L;
+		long k = 0L;
+		for (int i = 0; i < 8; i++) {
+			w = (w << 8) | (buf[off + i] & 0xFF);
+			k = (k << 8) | (buf[off + 8 + i] & 0xFF);
+		}
+		toMove = (k & 1L) != 0 ? BLACK : WHITE;
+		white = w;
+		black = k & ~1L;
+		whiteChips = CHIPS - Long.bitCount(white);
+		blackChips = CHIPS - Long.bitCount(black);
+	}
+
+	/** Returns this position in the one-line notation.
+	*  @return the notation
+	**/
+	public String toString() {
+		StringBuilder sb = new StringBuilder(40);
+		for (int y = 0; y < 8; y++) {
+			if (y > 0) {
+				sb.append('/');
+			}
+			int run = 0;
+			for (int x = 0; x < 8; x++) {
+				int item = get(x, y);
+				if (item == EMPTY) {
+					run++;
+					continue;
+				}
+				if (run > 0) {
+					sb.append(run);
+					run = 0;
+				}
+				sb.append(item == WHITE ? 'W' : 'B');
+			}
+			if (run > 0) {
+				sb.append(run);
+			}
+		}
+		sb.append(toMove == WHITE ? " w " : " b ");
+		sb.append(whiteChips).append(' ').append(blackChips);
+		return sb.toString();
+	}
+
+	/** Returns a well-mixed 64-bit key for this position, suitable for
+	*  hash tables.
+	*  @return the key
+	**/
+	long key() {
+		long h = mix(white) ^ Long.rotateLeft(mix(~black), 17);
+		h ^= ((long)toMove << 8 | (long)whiteChips << 4 | blackChips) * 0x9E3779B97F4A7C15L;
+		return mix(h);
+	}
+
+	/** Scrambles the bits of a long so every input bit affects every output
+	*  bit (the SplitMix64 finalizer).
+	*  @param z is the value to scramble
+	*  @return the scrambled value
+	**/
+	static long mix(long z) {
+		z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+		z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+		return z ^ (z >>> 31);
+	}
+
+	/** Returns whether another object is a Position with the same cells, color
+	*  to move and chip counts.
+	*  @param o is the object compared with
+	*  @return true if they are equal
+	**/
+	public boolean equals(Object o) {
+		if (!(o instanceof Position)) {
+			return false;
+		}
+		Position p = (Position)o;
+		return white == p.white && black == p.black && toMove == p.toMove
+			&& whiteChips == p.whiteChips && blackChips == p.blackChips;
+	}
+
+	/** Returns a hash code consistent with equals().
+	*  @return the hash code
+	**/
+	public int hashCode() {
+		return (int)key();
+	}
+
+	// Test Code -- Reader Can Ignore
+	public static void main(String[] args) {
+		// the first position of Board.testNetworks()
+		Position p = parse("6B1/W1B1B1W1/2B1WB2/6W1/2B2BW1/4WB2/4W1WW/8 b 1 2");
+		System.out.println(p);
+		Board b = p.toBoard();
+		System.out.println("WHITE NETWORK: " + b.isNetwork(WHITE) + "    Should be: true");
+		System.out.println("BLACK NETWORK: " + b.isNetwork(BLACK) + "    Should be: false");
+		System.out.println("Round trip through Board: " + of(b, BLACK).equals(p));
+		Position q = fromBytes(p.toBytes(), 0);
+		System.out.println("Round trip through bytes: " + q.equals(p) + " " + q);
+		System.out.println("Start position: " + new Position());
+		String[] bad = {"B7/8/8/8/8/8/8/8 w 10 9", "8/8/8/8/8/8/8/7W b 9 10",
+				"8/8/8/8/8/8/8/8 w 77 -4", "2B5/W5W1/8/8/3W1B2/8/8/5B2 b 6 7"};
+		int refused = 0;
+		for (String n : bad) {
+			try {
+				parse(n);
+			} catch (IllegalArgumentException e) {
+				refused++;
+			}
+		}
+		System.out.println("Corner chips and wrong chip counts refused: " + refused + " of " + bad.length
+				+ "    Should be: " + bad.length + " of " + bad.length);
+	}
+}
@@ -0,0 +1,197 @@
+/* PositionHistory.java */
+
+package player;
+
+/** The positions of a game, or of a game and the line a search is looking
+*  at, as a stack of Zobrist keys that include the side to move. Positions
+*  before the last ADD move have fewer chips on the board than any position
+*  after it, so repetitions are only looked for back to the last ADD; each
+*  entry remembers where that reversible run starts.
+*
+*  Pushing and popping cost one array store each, and the stack only
+*  allocates when it outgrows its arrays.
+**/
+final class PositionHistory {
+	private long[] keys = new long[64];
+	// the index of the first entry of each entry's reversible run
+	private int[] runStart = new int[64];
+	private int size;
+
+	/** Returns the key a position is stored under.
+	*  @param hash is the position's Zobrist hash, as from Zobrist.hash()
+	*  @param toMove is the color to move
+	*  @return the key
+	**/
+	static long key(long hash, int toMove) {
+		return toMove == Position.WHITE ? hash ^ Zobrist.WHITE_TO_MOVE : hash;
+	}
+
+	/** Adds a position to the top of the stack.
+	*  @param key is the position's key
+	*  @param irreversible is true if the position was reached by an ADD move
+	*         or starts the history, so no earlier position can repeat it
+	**/
+	void push(long key, boolean irreversible) {
+		if (size == keys.length) {
+			keys = java.util.Arrays.copyOf(keys, size * 2);
+			runStart = java.util.Arrays.copyOf(runStart, size * 2);
+		}
+		keys[size] = key;
+		runStart[size] = irreversible || size == 0 ? size : runStart[size - 1];
+		size++;
+	}
+
+	/** Removes the position on top of the stack. */
+	void pop() {
+		size--;
+	}
+
+	/** Returns the number of positions in the stack.
+	*  @return the size
+	**/
+	int size() {
+		return size;
+	}
+
+	/** Pops positions until a number of them are left.
+	*  @param size is the size to go back to, no more than size()
+	**/
+	void truncate(int size) {
+		this.size = size;
+	}
+
+	/** Returns the key on top of the stack.
+	*  @return the key of the latest position, or 0 if the stack is empty
+	**/
+	long top() {
+		return size == 0 ? 0L : keys[size - 1];
+	}
+
+	/** Counts the earlier occurrences of the latest position. Only every
+	*  other entry can match, since the side to move is part of the key.
+	*  @return how many times the position on top occurred before, 0 if it
+	*          is new
+	**/
+	int repetitions() {
+		if (size == 0) {
+			return 0;
+		}
+		long key = keys[size - 1];
+		int count = 0;
+		for (int i = size - 3; i >= runStart[size - 1]; i -= 2) {
+			if (keys[i] == key) {
+				count++;
+			}
+		}
+		return count;
+	}
+
+	/** Returns the number of moves since the last ADD move.
+	*  @return the length of the current reversible run, in moves
+	**/
+	int reversibleMoves() {
+		return size == 0 ? 0 : size - 1 - runStart[size - 1];
+	}
+
+	/** Makes this history a copy of another one, reusing its arrays when
+	*  they are big enough.
+	*  @param h is the history to copy
+	**/
+	void copyFrom(PositionHistory h) {
+		if (keys.length < h.size) {
+			keys = new long[h.keys.length];
+			runStart = new int[h.keys.length];
+		}
+		System.arraycopy(h.keys, 0, keys, 0, h.size);
+		System.arraycopy(h.runStart, 0, runStart, 0, h.size);
+		size = h.size;
+	}
+
+	/** Empties the history. */
+	void clear() {
+		size = 0;
+	}
+
+	/*  Test Code -- Reader Can Ignore  */
+
+	/** A machine player that opens with random moves, so that self-play
+	*  games differ from each other.
+	**/
+	private static class RandomOpening extends Player {
+		private MachinePlayer player;
+		private int color;
+		private java.util.Random random;
+		private int randomMoves;
+
+		RandomOpening(int color, long seed, int randomMoves) {
+			this.player = new MachinePlayer(color, 2);
+			this.color = color;
+			this.random = new java.util.Random(seed);
+			this.randomMoves = randomMoves;
+		}
+
+		public Move chooseMove() {
+			if (randomMoves-- <= 0) {
+				return player.chooseMove();
+			}
+			Move[] moves = player.gameBoard.validMoves(color);
+			int count = 0;
+			while (count < moves.length && moves[count] != null) {
+				count++;
+			}
+			Move m = moves[random.nextInt(count)];
+			player.forceMove(m);
+			return m;
+		}
+
+		public boolean opponentMove(Move m) {
+			return player.opponentMove(m);
+		}
+
+		public boolean forceMove(Move m) {
+			return player.forceMove(m);
+		}
+	}
+
+	public static void main(String[] args) {
+		// two chips shuffled back and forth after the last ADD
+		PositionHistory h = new PositionHistory();
+		long[] cycle = {11L, 12L, 13L, 14L};
+		h.push(1L, true);
+		h.push(11L, true);
+		for (int i = 1; i < 9; i++) {
+			h.push(cycle[i & 3], false);
+		}
+		System.out.println("repetitions " + h.repetitions() + ", reversible moves "
+				+ h.reversibleMoves() + "    Should be: 2, 8");
+		h.push(11L, true);
+		System.out.println("after an ADD: " + h.repetitions() + "    Should be: 0");
+		boolean ok = h.repetitions() == 0;
+		h.pop();
+		ok = ok && h.repetitions() == 2 && h.reversibleMoves() == 8;
+
+		// self-play from random openings, played out without and then with
+		// draw adjudication
+		int games = 20;
+		long[] moves = new long[2];
+		int[] draws = new int[2];
+		for (int rules = 0; rules < 2; rules++) {
+			for (int g = 0; g < games; g++) {
+				GameSession s = new GameSession(new RandomOpening(Position.WHITE, g, 6),
+						new RandomOpening(Position.BLACK, g + games, 6));
+				if (rules == 1) {
+					s.setDrawRules(3, 100);
+				}
+				s.play(1000);
+				moves[rules] += s.movesPlayed();
+				if (s.isDraw()) {
+					draws[rules]++;
+				}
+			}
+			System.out.println((rules == 0 ? "no draw rules: " : "draw rules (3, 100): ")
+					+ (double)moves[rules] / games + " moves a game, " + draws[rules] + " draws");
+		}
+		ok = ok && moves[1] * 2 < moves[0] && draws[1] > 0;
+		System.out.println(ok ? "PASSED" : "FAILED");
+	}
+}
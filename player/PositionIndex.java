@@ -0,0 +1,431 @@
+/* PositionIndex.java */
+
+package player;
+import java.io.*;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/** Answers "explorer" questions about a corpus of games: how often a
+*  position occurred, how those games ended, and which moves were played
+*  from it with what results. The index is built by PositionIndexBuilder.
+*
+*  The file is a header (MAGIC, VERSION and the number of entries) followed
+*  by fixed-size entries sorted by canonical key and then by move code:
+*
+*    s64 key of the canonical position (Position.key())
+*    s32 move code (TranspositionTable.moveCode(), QUIT_MOVE or NO_MOVE)
+*    s32 occurrences
+*    s32 occurrences in games white won
+*    s32 occurrences in games black won
+*
+*  The file is memory mapped in regions of at most 1 GB, and lookup()
+*  finds a position's first entry by binary search, so a query reads a few
+*  dozen entries wherever they are and only the pages they lie on are ever
+*  loaded. Positions are found by their 64-bit key, so two positions whose
+*  keys collide would share statistics.
+**/
+class PositionIndex implements Closeable {
+	static final int MAGIC = 0x4E455458; // "NETX"
+	static final int VERSION = 1;
+	static final int HEADER_BYTES = 16;
+	static final int ENTRY_BYTES = 24;
+
+	// move codes beyond those of ADD and STEP moves: the game was quit, or
+	// it ended in the position
+	static final int QUIT_MOVE = GameRecordWriter.QUIT_BYTE;
+	static final int NO_MOVE = 0xFFFF;
+
+	private final RandomAccessFile file;
+	private final MappedByteBuffer[] regions;
+	private final int regionEntries;
+	private final long entries;
+
+	/** Opens an index file.
+	*  @param path is a file written by PositionIndexBuilder.build()
+	*  @throws IOException if the file cannot be mapped or is not an index
+	**/
+	PositionIndex(File path) throws IOException {
+		file = new RandomAccessFile(path, "r");
+		try {
+			if (file.length() < HEADER_BYTES || file.readInt() != MAGIC) {
+				throw new IOException(path + " is not a position index");
+			}
+			int version = file.readInt();
+			if (version != VERSION) {
+				throw new IOException(path + " has unsupported version " + version);
+			}
+			entries = file.readLong();
+			if (file.length() != HEADER_BYTES + entries * ENTRY_BYTES) {
+				throw new IOException(path + " is truncated");
+			}
+			regionEntries = (1 << 30) / ENTRY_BYTES;
+			FileChannel channel = file.getChannel();
+			regions = new MappedByteBuffer[(int)((entries + regionEntries - 1) / regionEntries)];
+			for (int i = 0; i < regions.length; i++) {
+				long first = (long)i * regionEntries;
+				long count = Math.min(regionEntries, entries - first);
+				regions[i] = channel.map(FileChannel.MapMode.READ_ONLY, HEADER_BYTES + first * ENTRY_BYTES,
+						count * ENTRY_BYTES);
+			}
+		} catch (IOException | RuntimeException e) {
+			file.close();
+			throw e;
+		}
+	}
+
+	/** Returns the number of entries: different pairs of position and move.
+	*  @return the number of entries
+	**/
+	long entries() {
+		return entries;
+	}
+
+	/** Writes one entry in the index's format.
+	*  @param out is where it goes
+	*  @param key is the canonical position's key
+	*  @param code is the move code
+	*  @param count is the number of occurrences
+	*  @param white is the number of them in games white won
+	*  @param black is the number of them in games black won
+	*  @throws IOException if out fails
+	**/
+	static void write(DataOutput out, long key, int code, int count, int white, int black) throws IOException {
+		out.writeLong(key);
+		out.writeInt(code);
+		out.writeInt(count);
+		out.writeInt(white);
+		out.writeInt(black);
+	}
+
+	private MappedByteBuffer region(long i) {
+		return regions[(int)(i / regionEntries)];
+	}
+
+	private int offset(long i) {
+		return (int)(i % regionEntries) * ENTRY_BYTES;
+	}
+
+	private long key(long i) {
+		return region(i).getLong(offset(i));
+	}
+
+	/** Finds the first entry whose key is not less than a key.
+	*  @param key is the key
+	*  @return the entry's index, entries() if there is none
+	**/
+	private long first(long key) {
+		long lo = 0;
+		long hi = entries;
+		while (lo < hi) {
+			long mid = (lo + hi) >>> 1;
+			if (key(mid) < key) {
+				lo = mid + 1;
+			} else {
+				hi = mid;
+			}
+		}
+		return lo;
+	}
+
+	/** Returns how many times a position occurred, without building its
+	*  statistics.
+	*  @param p is the position
+	*  @return the number of occurrences
+	**/
+	int occurrences(Position p) {
+		Position c = new Position();
+		Symmetry.canonicalize(p, c, true);
+		long key = c.key();
+		int count = 0;
+		for (long i = first(key); i < entries && key(i) == key; i++) {
+			count += region(i).getInt(offset(i) + 12);
+		}
+		return count;
+	}
+
+	/** Looks up a position. The moves are those of p, mapped back from the
+	*  canonical position the games were indexed under, and the wins are
+	*  p's colors.
+	*  @param p is the position
+	*  @return its statistics, with no occurrences if it is not indexed
+	**/
+	PositionStats lookup(Position p) {
+		Position c = new Position();
+		int t = Symmetry.canonicalize(p, c, true);
+		int back = Symmetry.inverse(t);
+		int swap = Symmetry.swapsColors(t) ? 1 : 0;
+		long key = c.key();
+		long start = first(key);
+		long end = start;
+		int played = 0;
+		while (end < entries && key(end) == key) {
+			if (region(end).getInt(offset(end) + 8) != NO_MOVE) {
+				played++;
+			}
+			end++;
+		}
+		int occurrences = 0;
+		int[] wins = new int[2];
+		Move[] moves = new Move[played];
+		int[] counts = new int[played];
+		int[][] moveWins = new int[2][played];
+		int n = 0;
+		for (long i = start; i < end; i++) {
+			MappedByteBuffer b = region(i);
+			int at = offset(i);
+			int code = b.getInt(at + 8);
+			int count = b.getInt(at + 12);
+			int white = b.getInt(at + 16 + 4 * swap);
+			int black = b.getInt(at + 20 - 4 * swap);
+			occurrences += count;
+			wins[Position.WHITE] += white;
+			wins[Position.BLACK] += black;
+			if (code != NO_MOVE) {
+				moves[n] = Symmetry.transform(move(code), back);
+				counts[n] = count;
+				moveWins[Position.WHITE][n] = white;
+				moveWins[Position.BLACK][n] = black;
+				n++;
+			}
+		}
+		// the most played first; few enough for an insertion sort
+		for (int i = 1; i < played; i++) {
+			for (int j = i; j > 0 && counts[j] > counts[j - 1]; j--) {
+				Move m = moves[j];
+				moves[j] = moves[j - 1];
+				moves[j - 1] = m;
+				swap(counts, j);
+				swap(moveWins[Position.WHITE], j);
+				swap(moveWins[Position.BLACK], j);
+			}
+		}
+		return new PositionStats(occurrences, wins, moves, counts, moveWins);
+	}
+
+	private static void swap(int[] a, int j) {
+		int t = a[j];
+		a[j] = a[j - 1];
+		a[j - 1] = t;
+	}
+
+	/** Decodes a move code.
+	*  @param code is a code from TranspositionTable.moveCode() or QUIT_MOVE
+	*  @return a new Move
+	**/
+	static Move move(int code) {
+		if (code == QUIT_MOVE) {
+			return new Move();
+		}
+		if (code > 0xFF) {
+			int to = (code >> 8) & 0x3F;
+			int from = code & 0x3F;
+			return new Move(to >> 3, to & 7, from >> 3, from & 7);
+		}
+		return new Move(code >> 3, code & 7);
+	}
+
+	/** Closes the file. The mapping is released when it is garbage collected.
+	*  @throws IOException if the file cannot be closed
+	**/
+	public void close() throws IOException {
+		file.close();
+	}
+
+	/*  Test Code -- Reader Can Ignore  */
+
+	// games whose players choose among the first few moves generated, so
+	// that openings recur, each also played in a mirror image
+	private static java.util.List<Move[]> games(int count, long seed) {
+		java.util.Random random = new java.util.Random(seed);
+		java.util.List<Move[]> games = new java.util.ArrayList<Move[]>();
+		Rules rules = new Rules();
+		Move[] buffer = Board.newMoveBuffer();
+		while (games.size() < count) {
+			Position p = new Position();
+			int player = Position.WHITE;
+			int plies = 10 + random.nextInt(40);
+			java.util.List<Move> moves = new java.util.ArrayList<Move>();
+			for (int ply = 0; ply < plies && !rules.isNetwork(p, Position.WHITE) && !rules.isNetwork(p, Position.BLACK); ply++) {
+				int n = Rules.generateMoves(p, player, buffer);
+				Move m = buffer[random.nextInt(Math.min(n, ply < 6 ? 3 : n))];
+				Move copy = m.moveKind == Move.STEP ? new Move(m.x1, m.y1, m.x2, m.y2) : new Move(m.x1, m.y1);
+				moves.add(copy);
+				Rules.play(p, copy, player, p);
+				player = 1 - player;
+			}
+			if (random.nextInt(10) == 0) {
+				moves.add(new Move());
+			}
+			int t = random.nextInt(Symmetry.TRANSPOSE);
+			for (int flip : new int[] {Symmetry.IDENTITY, t}) {
+				Move[] game = new Move[moves.size()];
+				for (int i = 0; i < game.length; i++) {
+					game[i] = Symmetry.transform(moves.get(i), flip);
+				}
+				games.add(game);
+			}
+		}
+		return games;
+	}
+
+	private static int result(Move[] game) {
+		Rules rules = new Rules();
+		Position p = new Position();
+		int player = Position.WHITE;
+		for (Move m : game) {
+			if (m.moveKind == Move.QUIT) {
+				// the player who quit loses
+				return 1 - player;
+			}
+			Rules.play(p, m, player, p);
+			player = 1 - player;
+		}
+		return rules.isNetwork(p, Position.WHITE) ? Position.WHITE
+				: rules.isNetwork(p, Position.BLACK) ? Position.BLACK : GameRecordWriter.NO_RESULT;
+	}
+
+	// the statistics of q found by replaying every game, as sorted lines
+	private static java.util.List<String> scan(java.util.List<Move[]> games, Position q) {
+		Position c = new Position();
+		int tq = Symmetry.canonicalize(q, c, true);
+		long key = c.key();
+		java.util.Map<String, int[]> moves = new java.util.TreeMap<String, int[]>();
+		for (Move[] game : games) {
+			int result = result(game);
+			Position p = new Position();
+			int player = Position.WHITE;
+			for (int i = 0; i <= game.length; i++) {
+				int tp = Symmetry.canonicalize(p, c, true);
+				if (c.key() == key) {
+					String m = i == game.length ? "end"
+							: Symmetry.transform(Symmetry.transform(game[i], tp), Symmetry.inverse(tq)).toString();
+					int w = result == GameRecordWriter.NO_RESULT || Symmetry.swapsColors(tp) == Symmetry.swapsColors(tq)
+							? result : 1 - result;
+					int[] stats = moves.computeIfAbsent(m, k -> new int[3]);
+					stats[0]++;
+					if (w != GameRecordWriter.NO_RESULT) {
+						stats[1 + w]++;
+					}
+				}
+				if (i == game.length || game[i].moveKind == Move.QUIT) {
+					break;
+				}
+				Rules.play(p, game[i], player, p);
+				player = 1 - player;
+			}
+		}
+		java.util.List<String> lines = new java.util.ArrayList<String>();
+		for (java.util.Map.Entry<String, int[]> e : moves.entrySet()) {
+			lines.add(e.getKey() + " " + java.util.Arrays.toString(e.getValue()));
+		}
+		return lines;
+	}
+
+	private static java.util.List<String> lines(PositionStats stats) {
+		java.util.Map<String, int[]> moves = new java.util.TreeMap<String, int[]>();
+		int[] end = {stats.occurrences(), stats.wins(Position.BLACK), stats.wins(Position.WHITE)};
+		for (int i = 0; i < stats.moveCount(); i++) {
+			moves.put(stats.move(i).toString(), new int[] {stats.count(i), stats.wins(i, Position.BLACK),
+					stats.wins(i, Position.WHITE)});
+			for (int j = 0; j < 3; j++) {
+				end[j] -= moves.get(stats.move(i).toString())[j];
+			}
+		}
+		if (end[0] > 0) {
+			moves.put("end", end);
+		}
+		java.util.List<String> lines = new java.util.ArrayList<String>();
+		for (java.util.Map.Entry<String, int[]> e : moves.entrySet()) {
+			lines.add(e.getKey() + " " + java.util.Arrays.toString(e.getValue()));
+		}
+		return lines;
+	}
+
+	private static void record(java.util.List<Move[]> games, File f) throws IOException {
+		GameRecordWriter w = new GameRecordWriter(f, false);
+		for (Move[] game : games) {
+			w.startGame();
+			for (Move m : game) {
+				w.move(m);
+			}
+			w.endGame(result(game));
+		}
+		w.close();
+	}
+
+	public static void main(String[] args) throws IOException {
+		int count = args.length > 0 ? Integer.parseInt(args[0]) : 10000;
+		java.util.List<Move[]> games = games(count, 50);
+		File records = File.createTempFile("games", ".ngr");
+		File index = File.createTempFile("positions", ".pix");
+		File other = File.createTempFile("positions", ".pix");
+		record(games, records);
+		boolean ok = true;
+
+		// in one run, and in many runs merged four at a time, the same index
+		PositionIndexBuilder builder = new PositionIndexBuilder(null);
+		long start = System.nanoTime();
+		builder.add(records);
+		long entries = builder.build(index);
+		long buildTime = System.nanoTime() - start;
+		PositionIndexBuilder small = new PositionIndexBuilder(null, 1000, 4);
+		small.add(records);
+		int runs = small.runs();
+		small.build(other);
+		ok &= java.util.Arrays.equals(java.nio.file.Files.readAllBytes(index.toPath()),
+				java.nio.file.Files.readAllBytes(other.toPath()));
+		System.out.println(builder.games() + " games, " + builder.occurrences() + " positions, " + entries
+				+ " entries in " + buildTime / 1000000 + " ms; " + runs + " small runs merged to the same bytes: " + ok);
+
+		// positions from the games, and symmetric images of them that swap
+		// the colors, agree with a scan of every game
+		PositionIndex positions = new PositionIndex(index);
+		java.util.Random random = new java.util.Random(51);
+		int checked = 0;
+		int mismatches = 0;
+		for (int g = 0; g < 100; g++) {
+			Move[] game = games.get(random.nextInt(games.size()));
+			Position p = new Position();
+			int ply = random.nextInt(game.length + 1);
+			for (int i = 0; i < ply && game[i].moveKind != Move.QUIT; i++) {
+				Rules.play(p, game[i], i % 2 == 0 ? Position.WHITE : Position.BLACK, p);
+			}
+			Position q = new Position();
+			Symmetry.transform(random.nextInt(Symmetry.COUNT), p, q);
+			if (!scan(games, q).equals(lines(positions.lookup(q)))
+					|| positions.occurrences(q) != positions.lookup(q).occurrences()) {
+				mismatches++;
+			}
+			checked++;
+		}
+		ok &= mismatches == 0 && positions.lookup(Position.parse("8/1WWWWWW1/8/8/8/8/8/8 b 4 10")).occurrences() == 0;
+		ok &= positions.occurrences(new Position()) == games.size();
+		System.out.println("the starting position: " + positions.lookup(new Position()));
+		System.out.println(checked + " lookups checked against a scan of every game, " + mismatches + " mismatches");
+
+		// lookups on a warm index
+		Position[] queries = new Position[4096];
+		for (int i = 0; i < queries.length; i++) {
+			Move[] game = games.get(random.nextInt(games.size()));
+			Position p = new Position();
+			for (int j = 0; j < game.length / 2 && game[j].moveKind != Move.QUIT; j++) {
+				Rules.play(p, game[j], j % 2 == 0 ? Position.WHITE : Position.BLACK, p);
+			}
+			queries[i] = p;
+		}
+		long found = 0;
+		for (int round = 0; round < 5; round++) {
+			start = System.nanoTime();
+			for (Position q : queries) {
+				found += positions.lookup(q).occurrences();
+			}
+		}
+		long lookupTime = (System.nanoTime() - start) / queries.length;
+		System.out.println(lookupTime + " ns a lookup over " + entries + " entries (" + found + ")");
+		positions.close();
+		records.delete();
+		index.delete();
+		other.delete();
+		System.out.println(ok ? "PASSED" : "FAILED");
+	}
+}
@@ -0,0 +1,385 @@
+/* PositionIndexBuilder.java */
+
+package player;
+import java.io.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/** Builds a PositionIndex from game-record files, however many games they
+*  hold, with an external merge sort.
+*
+*  Every position of every game, from the empty board to the last, is one
+*  occurrence: its canonical key (Symmetry.canonicalize(), colors swapped
+*  too), the move played from it mapped into the canonical position, and
+*  the game's winner in the canonical colors. Occurrences are gathered in a
+*  run of runEntries, sorted, summed into one entry for each key and move,
+*  and written to a temporary file. build() then merges the runs, at most
+*  mergeWays at a time, summing equal entries of different runs, into the
+*  index. Memory use is the run buffer and one stream buffer per merged run,
+*  whatever the size of the corpus.
+**/
+class PositionIndexBuilder implements Closeable {
+	static final int RUN_ENTRIES = 1 << 21;
+	static final int MERGE_WAYS = 64;
+	static final int BUFFER_BYTES = 1 << 16;
+
+	private static final Position START = new Position();
+
+	private final File directory;
+	private final int mergeWays;
+	private final List<File> runs = new ArrayList<File>();
+
+	// occurrences not yet written out: the key, then the move code shifted
+	// left by two bits with the winner in the low ones
+	private final long[] run;
+	private int size;
+
+	private final Position position = new Position();
+	private final Position canonical = new Position();
+	private final Move move = new Move();
+	private long games;
+	private long occurrences;
+
+	/** Creates a builder with runs of RUN_ENTRIES occurrences, 32 MB.
+	*  @param directory is where run files are written, or null for the
+	*         system's temporary directory
+	**/
+	PositionIndexBuilder(File directory) {
+		this(directory, RUN_ENTRIES, MERGE_WAYS);
+	}
+
+	/** Creates a builder.
+	*  @param directory is where run files are written, or null for the
+	*         system's temporary directory
+	*  @param runEntries is how many occurrences are sorted in memory at once
+	*  @param mergeWays is how many runs are merged at once, at least 2
+	**/
+	PositionIndexBuilder(File directory, int runEntries, int mergeWays) {
+		if (runEntries < 1) {
+			throw new IllegalArgumentException("runEntries must be positive: " + runEntries);
+		}
+		if (mergeWays < 2) {
+			throw new IllegalArgumentException("mergeWays must be at least 2: " + mergeWays);
+		}
+		this.directory = directory;
+		this.mergeWays = mergeWays;
+		this.run = new long[2 * runEntries];
+	}
+
+	/** Adds every game of a game-record file.
+	*  @param records is a file written by GameRecordWriter
+	*  @return the number of games added
+	*  @throws IOException if the file cannot be read or a run cannot be
+	*          written
+	**/
+	int add(File records) throws IOException {
+		int added = 0;
+		GameRecordReader reader = new GameRecordReader(records);
+		try {
+			while (reader.nextGame()) {
+				int result = reader.result();
+				position.copyFrom(START);
+				int player = Position.WHITE;
+				int kind = Move.ADD;
+				while (kind != Move.QUIT && reader.nextMove()) {
+					kind = reader.moveKind();
+					move.moveKind = kind;
+					move.x1 = reader.x1();
+					move.y1 = reader.y1();
+					move.x2 = reader.x2();
+					move.y2 = reader.y2();
+					occurrence(move, result);
+					if (kind != Move.QUIT) {
+						Rules.play(position, move, player, position);
+						player = 1 - player;
+					}
+				}
+				if (kind != Move.QUIT) {
+					occurrence(null, result);
+				}
+				added++;
+			}
+		} finally {
+			reader.close();
+		}
+		games += added;
+		return added;
+	}
+
+	/** Adds one occurrence of the current position.
+	*  @param m is the move played from it, or null if the game ended there
+	*  @param result is the game's winner, or GameRecordWriter.NO_RESULT
+	**/
+	private void occurrence(Move m, int result) throws IOException {
+		int t = Symmetry.canonicalize(position, canonical, true);
+		int code = PositionIndex.NO_MOVE;
+		if (m != null && m.moveKind == Move.QUIT) {
+			code = PositionIndex.QUIT_MOVE;
+		} else if (m != null) {
+			int to = GameRecordWriter.cell(Symmetry.x(t, m.x1, m.y1), Symmetry.y(t, m.x1, m.y1));
+			code = m.moveKind == Move.STEP ? (GameRecordWriter.STEP_FLAG | to) << 8
+					| GameRecordWriter.cell(Symmetry.x(t, m.x2, m.y2), Symmetry.y(t, m.x2, m.y2)) : to;
+		}
+		if (result != GameRecordWriter.NO_RESULT && Symmetry.swapsColors(t)) {
+			result = 1 - result;
+		}
+		if (2 * size == run.length) {
+			spill();
+		}
+		run[2 * size] = canonical.key();
+		run[2 * size + 1] = (long)code << 2 | result;
+		size++;
+		occurrences++;
+	}
+
+	/** Returns the number of games added so far.
+	*  @return the number of games
+	**/
+	long games() {
+		return games;
+	}
+
+	/** Returns the number of positions added so far, counting repeats.
+	*  @return the number of occurrences
+	**/
+	long occurrences() {
+		return occurrences;
+	}
+
+	/** Returns the number of run files written so far.
+	*  @return the number of runs
+	**/
+	int runs() {
+		return runs.size();
+	}
+
+	/** Sorts the occurrences in memory and writes them out as a run.
+	**/
+	private void spill() throws IOException {
+		if (size == 0) {
+			return;
+		}
+		sort(run, 0, size - 1);
+		File file = File.createTempFile("run", ".pix", directory);
+		runs.add(file);
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), BUFFER_BYTES));
+		try {
+			int i = 0;
+			while (i < size) {
+				long key = run[2 * i];
+				int code = (int)(run[2 * i + 1] >>> 2);
+				int count = 0;
+				int white = 0;
+				int black = 0;
+				for (; i < size && run[2 * i] == key && (int)(run[2 * i + 1] >>> 2) == code; i++) {
+					int result = (int)run[2 * i + 1] & 3;
+					if (result == Position.WHITE) {
+						white++;
+					} else if (result == Position.BLACK) {
+						black++;
+					}
+					count++;
+				}
+				PositionIndex.write(out, key, code, count, white, black);
+			}
+		} finally {
+			out.close();
+		}
+		size = 0;
+	}
+
+	/** Writes the index of every game added, and deletes the runs. The
+	*  builder is empty afterward and can build another index.
+	*  @param index is the file to write
+	*  @return the number of entries in the index
+	*  @throws IOException if a run cannot be read or the index written
+	**/
+	long build(File index) throws IOException {
+		spill();
+		while (runs.size() > mergeWays) {
+			// a pass merges the oldest runs into a new one at the end
+			List<File> group = new ArrayList<File>(runs.subList(0, mergeWays));
+			runs.subList(0, mergeWays).clear();
+			File file = File.createTempFile("run", ".pix", directory);
+			runs.add(file);
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), BUFFER_BYTES));
+			try {
+				merge(group, out);
+			} finally {
+				out.close();
+				delete(group);
+			}
+		}
+		long entries;
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(index), BUFFER_BYTES));
+		try {
+			out.writeInt(PositionIndex.MAGIC);
+			out.writeInt(PositionIndex.VERSION);
+			out.writeLong(0L);
+			entries = merge(runs, out);
+		} finally {
+			out.close();
+			delete(runs);
+			runs.clear();
+		}
+		RandomAccessFile file = new RandomAccessFile(index, "rw");
+		try {
+			file.seek(8);
+			file.writeLong(entries);
+		} finally {
+			file.close();
+		}
+		return entries;
+	}
+
+	/** Deletes the run files, written or not, without building an index.
+	**/
+	public void close() {
+		delete(runs);
+		runs.clear();
+		size = 0;
+	}
+
+	private static void delete(List<File> files) {
+		for (File f : files) {
+			f.delete();
+		}
+	}
+
+	/** Merges sorted runs into one sorted stream, adding up the entries
+	*  that several runs hold for the same key and move.
+	*  @param inputs are the runs
+	*  @param out receives the merged entries
+	*  @return the number of entries written
+	**/
+	private static long merge(List<File> inputs, DataOutputStream out) throws IOException {
+		PriorityQueue<RunReader> heads = new PriorityQueue<RunReader>(Math.max(1, inputs.size()));
+		List<RunReader> readers = new ArrayList<RunReader>();
+		long written = 0;
+		try {
+			for (File f : inputs) {
+				RunReader r = new RunReader(f);
+				readers.add(r);
+				if (r.next()) {
+					heads.add(r);
+				}
+			}
+			while (!heads.isEmpty()) {
+				RunReader first = heads.poll();
+				long key = first.key;
+				int code = first.code;
+				int count = first.count;
+				int white = first.white;
+				int black = first.black;
+				if (first.next()) {
+					heads.add(first);
+				}
+				while (!heads.isEmpty() && heads.peek().key == key && heads.peek().code == code) {
+					RunReader r = heads.poll();
+					count = Math.addExact(count, r.count);
+					white += r.white;
+					black += r.black;
+					if (r.next()) {
+						heads.add(r);
+					}
+				}
+				PositionIndex.write(out, key, code, count, white, black);
+				written++;
+			}
+		} finally {
+			for (RunReader r : readers) {
+				r.in.close();
+			}
+		}
+		return written;
+	}
+
+	/** Sorts occurrences by key and then by move and winner, as pairs of
+	*  longs, with a quicksort. Keys are hashes, so the middle element is a
+	*  good pivot.
+	*  @param a holds the pairs
+	*  @param lo is the first pair to sort
+	*  @param hi is the last pair to sort
+	**/
+	private static void sort(long[] a, int lo, int hi) {
+		while (hi - lo > 16) {
+			int mid = (lo + hi) >>> 1;
+			long pk = a[2 * mid];
+			long pv = a[2 * mid + 1];
+			int i = lo;
+			int j = hi;
+			while (i <= j) {
+				while (compare(a, i, pk, pv) < 0) {
+					i++;
+				}
+				while (compare(a, j, pk, pv) > 0) {
+					j--;
+				}
+				if (i <= j) {
+					swap(a, i++, j--);
+				}
+			}
+			// recurse into the smaller half so the stack stays shallow
+			if (j - lo < hi - i) {
+				sort(a, lo, j);
+				lo = i;
+			} else {
+				sort(a, i, hi);
+				hi = j;
+			}
+		}
+		for (int i = lo + 1; i <= hi; i++) {
+			for (int j = i; j > lo && compare(a, j, a[2 * j - 2], a[2 * j - 1]) < 0; j--) {
+				swap(a, j, j - 1);
+			}
+		}
+	}
+
+	private static int compare(long[] a, int i, long key, long value) {
+		int c = Long.compare(a[2 * i], key);
+		return c != 0 ? c : Long.compare(a[2 * i + 1], value);
+	}
+
+	private static void swap(long[] a, int i, int j) {
+		long k = a[2 * i];
+		long v = a[2 * i + 1];
+		a[2 * i] = a[2 * j];
+		a[2 * i + 1] = a[2 * j + 1];
+		a[2 * j] = k;
+		a[2 * j + 1] = v;
+	}
+
+	/** Reads the entries of one run in order.
+	**/
+	private static class RunReader implements Comparable<RunReader> {
+		final DataInputStream in;
+		long key;
+		int code;
+		int count;
+		int white;
+		int black;
+
+		RunReader(File f) throws IOException {
+			in = new DataInputStream(new BufferedInputStream(new FileInputStream(f), BUFFER_BYTES));
+		}
+
+		boolean next() throws IOException {
+			try {
+				key = in.readLong();
+			} catch (EOFException e) {
+				return false;
+			}
+			code = in.readInt();
+			count = in.readInt();
+			white = in.readInt();
+			black = in.readInt();
+			return true;
+		}
+
+		public int compareTo(RunReader r) {
+			int c = Long.compare(key, r.key);
+			return c != 0 ? c : Integer.compare(code, r.code);
+		}
+	}
+}
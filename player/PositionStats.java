@@ -0,0 +1,85 @@
+/* PositionStats.java */
+
+package player;
+
+/** What a PositionIndex knows about one position: how often it occurred in
+*  the indexed games, how those games ended, and which moves were played
+*  from it. Colors and moves are those of the position looked up, even when
+*  the games reached it in a symmetric form.
+**/
+class PositionStats {
+	private final int occurrences;
+	private final int[] wins;
+	private final Move[] moves;
+	private final int[] counts;
+	private final int[][] moveWins;
+
+	PositionStats(int occurrences, int[] wins, Move[] moves, int[] counts, int[][] moveWins) {
+		this.occurrences = occurrences;
+		this.wins = wins;
+		this.moves = moves;
+		this.counts = counts;
+		this.moveWins = moveWins;
+	}
+
+	/** Returns how many times the position occurred. A position repeated
+	*  within a game counts each time.
+	*  @return the number of occurrences, 0 if the position is not indexed
+	**/
+	int occurrences() {
+		return occurrences;
+	}
+
+	/** Returns how many occurrences were in games won by a color.
+	*  @param color is Position.WHITE or Position.BLACK
+	*  @return the number of occurrences
+	**/
+	int wins(int color) {
+		return wins[color];
+	}
+
+	/** Returns the number of different moves played from the position. Games
+	*  that ended in the position play none.
+	*  @return the number of moves
+	**/
+	int moveCount() {
+		return moves.length;
+	}
+
+	/** Returns a move played from the position. Moves are ordered from the
+	*  most often played to the least.
+	*  @param i is the move's index, 0 to moveCount() - 1
+	*  @return the move
+	**/
+	Move move(int i) {
+		return moves[i];
+	}
+
+	/** Returns how many times a move was played from the position.
+	*  @param i is the move's index
+	*  @return the number of times
+	**/
+	int count(int i) {
+		return counts[i];
+	}
+
+	/** Returns how many times a move was played in a game a color won.
+	*  @param i is the move's index
+	*  @param color is Position.WHITE or Position.BLACK
+	*  @return the number of times
+	**/
+	int wins(int i, int color) {
+		return moveWins[color][i];
+	}
+
+	public String toString() {
+		StringBuilder sb = new StringBuilder();
+		sb.append(occurrences).append(" occurrences, white won ").append(wins[Position.WHITE])
+				.append(", black won ").append(wins[Position.BLACK]);
+		for (int i = 0; i < moves.length; i++) {
+			sb.append("\n  ").append(moves[i]).append(' ').append(counts[i]).append(" (")
+					.append(moveWins[Position.WHITE][i]).append('/').append(moveWins[Position.BLACK][i]).append(')');
+		}
+		return sb.toString();
+	}
+}
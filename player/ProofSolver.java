@@ -0,0 +1,331 @@
+/* ProofSolver.java */
+
+package player;
+
+/** A depth-first proof-number (df-pn) solver that looks for forced networks.
+*  It is meant for the STEP phase, where the branching factor is too high for
+*  the regular search to see more than a couple of moves ahead, but forced
+*  wins are common.
+*
+*  The solver proves that an "attacker" can complete a network within a
+*  number of plies whatever the defender does. It searches on its own scratch
+*  Board, never on a player's game board, and keeps proof and disproof
+*  numbers in a fixed-size table of its own. A search stops when the root is
+*  proved, disproved or the node budget runs out.
+**/
+class ProofSolver {
+	static final int UNKNOWN = 0;
+	static final int PROVEN = 1;
+	static final int DISPROVEN = 2;
+
+	static final int INFINITY = 1 << 28;
+
+	// slots per table bucket
+	static final int BUCKET = 4;
+
+	// the proof table: keys with proof and disproof numbers
+	private long[] keys;
+	private int[] proof;
+	private int[] disproof;
+	private int mask;
+
+	private Board board;
+	private Position pos = new Position();
+	private int attacker;
+	private int maxPly;
+	private long budget;
+	private long nodes;
+	private boolean aborted;
+
+	/** Creates a solver whose proof table has 2^tableBits entries.
+	*  @param tableBits is the log2 of the table size
+	**/
+	ProofSolver(int tableBits) {
+		keys = new long[1 << tableBits];
+		proof = new int[1 << tableBits];
+		disproof = new int[1 << tableBits];
+		mask = (1 << tableBits) - 1;
+	}
+
+	/** Tries to prove that the attacker can force a network within maxPly
+	*  plies of p. The table is cleared first.
+	*  @param p is the position to solve; it is not modified
+	*  @param attacker is the color trying to complete a network
+	*  @param maxPly is the number of plies the proof may use
+	*  @param nodeBudget is the number of nodes the solver may expand
+	*  @return PROVEN, DISPROVEN or UNKNOWN if the budget ran out
+	**/
+	int solve(Position p, int attacker, int maxPly, long nodeBudget) {
+		java.util.Arrays.fill(keys, 0L);
+		this.board = p.toBoard();
+		this.pos.copyFrom(p);
+		this.attacker = attacker;
+		this.maxPly = maxPly;
+		this.budget = nodeBudget;
+		this.nodes = 0;
+		this.aborted = false;
+
+		mid(0, INFINITY, INFINITY);
+		int i = find(key(0));
+		if (i >= 0 && proof[i] == 0) {
+			return PROVEN;
+		} else if (i >= 0 && disproof[i] == 0) {
+			return DISPROVEN;
+		}
+		return UNKNOWN;
+	}
+
+	/** Returns a move that keeps the proof found by the last solve() call.
+	*  Only meaningful when solve() returned PROVEN with the attacker to move.
+	*  @return a winning move, or null if there is none
+	**/
+	Move proofMove() {
+		Move[] moves = board.validMoves(pos.toMove);
+		for (Move m : moves) {
+			if (m == null) {
+				break;
+			}
+			play(m);
+			int i = find(key(1));
+			boolean won = i >= 0 && proof[i] == 0;
+			unplay(m);
+			if (won) {
+				return m;
+			}
+		}
+		return null;
+	}
+
+	/** Returns the number of nodes expanded by the last solve() call.
+	*  @return the node count
+	**/
+	long nodes() {
+		return nodes;
+	}
+
+	/** Expands the node at the current board until its proof number reaches
+	*  thpn, its disproof number reaches thdn, or the budget runs out. The
+	*  node's numbers are left in the table.
+	*  @param ply is the number of moves made since the root
+	*  @param thpn is the proof-number threshold
+	*  @param thdn is the disproof-number threshold
+	**/
+	private void mid(int ply, int thpn, int thdn) {
+		long k = key(ply);
+		if (++nodes > budget) {
+			aborted = true;
+			return;
+		}
+
+		// the side that just moved may have completed, or unblocked, a network
+		int toMove = pos.toMove;
+		int mover = 1 - toMove;
+		board.clearSearchState();
+		int winner = -1;
+		if (board.isNetwork(toMove)) {
+			winner = toMove;
+		} else if (board.isNetwork(mover)) {
+			winner = mover;
+		}
+		if (winner == attacker) {
+			store(k, 0, INFINITY);
+			return;
+		} else if (winner != -1 || ply >= maxPly) {
+			store(k, INFINITY, 0);
+			return;
+		}
+
+		Move[] moves = board.validMoves(toMove);
+		int count = 0;
+		while (count < moves.length && moves[count] != null) {
+			count++;
+		}
+		if (count == 0) {
+			store(k, INFINITY, 0);
+			return;
+		}
+
+		boolean orNode = toMove == attacker;
+		while (true) {
+			// gather children: c1 is the most promising, second the runner-up
+			long sum = 0;
+			int min = INFINITY;
+			int second = INFINITY;
+			int c1 = 0;
+			int c1Proof = 0;
+			int c1Disproof = 0;
+			for (int c = 0; c < count; c++) {
+				play(moves[c]);
+				long ck = key(ply + 1);
+				unplay(moves[c]);
+				int i = find(ck);
+				int cp = 1;
+				int cd = 1;
+				if (i >= 0) {
+					cp = proof[i];
+					cd = disproof[i];
+				}
+				int select = orNode ? cp : cd;
+				sum += orNode ? cd : cp;
+				if (select < min) {
+					second = min;
+					min = select;
+					c1 = c;
+					c1Proof = cp;
+					c1Disproof = cd;
+				} else if (select < second) {
+					second = select;
+				}
+			}
+			int pn;
+			int dn;
+			if (orNode) {
+				pn = min;
+				dn = (int)Math.min(sum, INFINITY);
+			} else {
+				pn = (int)Math.min(sum, INFINITY);
+				dn = min;
+			}
+			store(k, pn, dn);
+			if (pn >= thpn || dn >= thdn || aborted) {
+				return;
+			}
+
+			int childThpn;
+			int childThdn;
+			if (orNode) {
+				childThpn = Math.min(thpn, second + 1);
+				childThdn = (int)Math.min((long)thdn - dn + c1Disproof, INFINITY);
+			} else {
+				childThpn = (int)Math.min((long)thpn - pn + c1Proof, INFINITY);
+				childThdn = Math.min(thdn, second + 1);
+			}
+			play(moves[c1]);
+			mid(ply + 1, childThpn, childThdn);
+			unplay(moves[c1]);
+		}
+	}
+
+	/** Makes a move for the color to move on the scratch board and position.
+	*  @param m is the move
+	**/
+	private void play(Move m) {
+		int player = pos.toMove;
+		board.makeMove(m, player);
+		long add = 1L << Position.bit(m.x1, m.y1);
+		long remove = 0L;
+		if (m.moveKind == Move.STEP) {
+			remove = 1L << Position.bit(m.x2, m.y2);
+		}
+		if (player == Position.WHITE) {
+			pos.white = (pos.white | add) & ~remove;
+			if (remove == 0L) {
+				pos.whiteChips--;
+			}
+		} else {
+			pos.black = (pos.black | add) & ~remove;
+			if (remove == 0L) {
+				pos.blackChips--;
+			}
+		}
+		pos.toMove = 1 - player;
+	}
+
+	/** Takes back a move made with play().
+	*  @param m is the move
+	**/
+	private void unplay(Move m) {
+		int player = 1 - pos.toMove;
+		board.unmakeMove(m, player);
+		long add = 1L << Position.bit(m.x1, m.y1);
+		long remove = 0L;
+		if (m.moveKind == Move.STEP) {
+			remove = 1L << Position.bit(m.x2, m.y2);
+		}
+		if (player == Position.WHITE) {
+			pos.white = (pos.white & ~add) | remove;
+			if (remove == 0L) {
+				pos.whiteChips++;
+			}
+		} else {
+			pos.black = (pos.black & ~add) | remove;
+			if (remove == 0L) {
+				pos.blackChips++;
+			}
+		}
+		pos.toMove = player;
+	}
+
+	/** Returns the table key of the current position at a given ply. The ply
+	*  is part of the key because a node's numbers depend on how many plies
+	*  the proof has left.
+	*  @param ply is the number of moves made since the root
+	*  @return the key, never 0
+	**/
+	private long key(int ply) {
+		long k = pos.key() ^ ((long)(maxPly - ply) << 56) ^ ((long)attacker << 62);
+		return k == 0L ? 1L : k;
+	}
+
+	/** Returns the slot holding a key. Each key may live in any of the
+	*  BUCKET slots of its bucket.
+	*  @param k is the key
+	*  @return the slot index, or -1 if the key is not in the table
+	**/
+	private int find(long k) {
+		int b = bucket(k);
+		for (int i = b; i < b + BUCKET; i++) {
+			if (keys[i] == k) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	/** Returns the first slot of a key's bucket.
+	*  @param k is the key
+	*  @return the slot index
+	**/
+	private int bucket(long k) {
+		return (int)k & mask & ~(BUCKET - 1);
+	}
+
+	/** Stores a node's numbers. If the node is not in the table it takes an
+	*  empty slot of its bucket, or else the first slot holding an unsolved
+	*  node, so proofs and disproofs survive collisions.
+	*  @param k is the node's key
+	*  @param pn is the proof number
+	*  @param dn is the disproof number
+	**/
+	private void store(long k, int pn, int dn) {
+		int i = find(k);
+		if (i < 0) {
+			int b = bucket(k);
+			i = b;
+			for (int j = b; j < b + BUCKET; j++) {
+				if (keys[j] == 0L) {
+					i = j;
+					break;
+				}
+				if (proof[j] != 0 && disproof[j] != 0 && (proof[i] == 0 || disproof[i] == 0)) {
+					i = j;
+				}
+			}
+		}
+		keys[i] = k;
+		proof[i] = pn;
+		disproof[i] = dn;
+	}
+
+	// Test Code -- Reader Can Ignore
+	public static void main(String[] args) {
+		// white steps 25 to 06 and completes a network next move whatever black does
+		Position p = Position.parse("8/5W2/1W1WBWB1/1W1W4/1BB1BWB1/1WW1W3/1BB1B1B1/8 w 0 0");
+		ProofSolver solver = new ProofSolver(16);
+		for (int plies = 1; plies <= 3; plies += 2) {
+			int result = solver.solve(p, Position.WHITE, plies, 100000);
+			System.out.println(plies + " plies: result " + result + " in " + solver.nodes() + " nodes");
+		}
+		System.out.println("Proof move: " + solver.proofMove() + "    Should be: [step from 25 to 06]");
+	}
+}
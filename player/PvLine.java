@@ -0,0 +1,164 @@
+/* PvLine.java */
+
+package player;
+
+/** One of the best root moves found by a multi-PV search: the move, its
+*  exact score and the principal variation that starts with it.
+**/
+class PvLine {
+	private final Move[] pv;
+	private final double score;
+	private final int depth;
+
+	PvLine(Move[] pv, double score, int depth) {
+		this.pv = pv;
+		this.score = score;
+		this.depth = depth;
+	}
+
+	/** Returns the root move.
+	*  @return the move
+	**/
+	Move move() {
+		return pv[0];
+	}
+
+	/** Returns the move's score for the side to move, as Searcher.search()
+	*  would score it if it were the only move.
+	*  @return the score
+	**/
+	double score() {
+		return score;
+	}
+
+	/** Returns the principal variation, as far as the transposition table
+	*  held it when the move was searched.
+	*  @return the moves, starting with move()
+	**/
+	Move[] pv() {
+		return pv;
+	}
+
+	/** Returns the depth the move was searched to.
+	*  @return the depth in plies
+	**/
+	int depth() {
+		return depth;
+	}
+
+	public String toString() {
+		return depth + " " + score + " " + java.util.Arrays.toString(pv);
+	}
+
+	/*  Test Code -- Reader Can Ignore  */
+
+	// middle-game positions from random games, with enough chips that few
+	// moves rate NaN
+	private static java.util.List<Position> positions(int count) {
+		java.util.Random random = new java.util.Random(49);
+		java.util.List<Position> positions = new java.util.ArrayList<Position>();
+		Rules rules = new Rules();
+		Move[] buffer = Board.newMoveBuffer();
+		while (positions.size() < count) {
+			Position p = new Position();
+			int player = Position.WHITE;
+			int plies = 12 + random.nextInt(14);
+			for (int ply = 0; ply < plies; ply++) {
+				Rules.play(p, buffer[random.nextInt(Rules.generateMoves(p, player, buffer))], player, p);
+				player = 1 - player;
+			}
+			if (!rules.isNetwork(p, Position.WHITE) && !rules.isNetwork(p, Position.BLACK)) {
+				positions.add(new Position(p.white, p.black, player, p.whiteChips, p.blackChips));
+			}
+		}
+		return positions;
+	}
+
+	public static void main(String[] args) {
+		java.util.List<Position> positions = positions(30);
+		Searcher lines = new Searcher(Position.WHITE, new HeapTranspositionTable(16));
+		Searcher single = new Searcher(Position.WHITE, new HeapTranspositionTable(16));
+		// in copy-make mode, where every network check starts afresh, a
+		// score does not depend on the order moves are searched in
+		lines.setCopyMake(true);
+		single.setCopyMake(true);
+
+		// the top three agree with the top three of every move scored, and
+		// the best with a single-PV search
+		int mismatches = 0;
+		int depth = 3;
+		for (Position p : positions) {
+			lines.load(p);
+			PvLine[] top = lines.searchLines(p.toMove(), depth, 3);
+			lines.load(p);
+			PvLine[] all = lines.searchLines(p.toMove(), depth, Board.newMoveBuffer().length);
+			single.load(p);
+			Best best = single.search(p.toMove(), depth);
+			for (int i = 0; i < top.length; i++) {
+				if (Double.compare(top[i].score(), all[i].score()) != 0 || top[i].depth() != depth) {
+					mismatches++;
+				}
+			}
+			if (top.length == 0 ? best.move != null : Double.compare(top[0].score(), best.score) != 0) {
+				mismatches++;
+			}
+		}
+		PvLine[] example = positions.isEmpty() ? new PvLine[0] : top3(lines, positions.get(0), depth);
+		for (PvLine line : example) {
+			System.out.println("  " + line);
+		}
+		System.out.println(positions.size() + " positions to depth " + depth + ", " + mismatches + " score mismatches");
+
+		// the lines are the best for the searcher's color, so the other
+		// color cannot be to move
+		boolean refused = false;
+		if (!positions.isEmpty()) {
+			lines.load(positions.get(0));
+			try {
+				lines.searchLines(1 - positions.get(0).toMove(), depth, 3);
+			} catch (IllegalArgumentException e) {
+				refused = true;
+			}
+		}
+		System.out.println("wrong color to move refused: " + refused);
+
+		// the cost of more lines: iterative deepening to depth 4 with one
+		// line, as MachinePlayer searches, against searchLines()
+		int[] counts = {1, 3, 5};
+		long[] time = new long[counts.length + 1];
+		long[] nodes = new long[counts.length + 1];
+		for (int round = 0; round < 2; round++) {
+			java.util.Arrays.fill(time, 0);
+			java.util.Arrays.fill(nodes, 0);
+			for (Position p : positions) {
+				single.table().clear();
+				long start = System.nanoTime();
+				for (int d = 1; d <= 4; d++) {
+					single.load(p);
+					single.search(p.toMove(), d);
+					nodes[0] += single.nodes();
+				}
+				time[0] += System.nanoTime() - start;
+				for (int c = 0; c < counts.length; c++) {
+					lines.table().clear();
+					lines.load(p);
+					start = System.nanoTime();
+					lines.searchLines(p.toMove(), 4, counts[c]);
+					time[c + 1] += System.nanoTime() - start;
+					nodes[c + 1] += lines.nodes();
+				}
+			}
+		}
+		System.out.println("single PV: " + nodes[0] + " nodes, " + time[0] / 1000000 + " ms");
+		for (int c = 0; c < counts.length; c++) {
+			System.out.println(counts[c] + " lines: " + nodes[c + 1] + " nodes, " + time[c + 1] / 1000000 + " ms, "
+					+ String.format("%.2f", (double)time[c + 1] / time[0]) + "x the time of single PV");
+		}
+		System.out.println(mismatches == 0 && refused ? "PASSED" : "FAILED");
+	}
+
+	private static PvLine[] top3(Searcher s, Position p, int depth) {
+		s.load(p);
+		return s.searchLines(p.toMove(), depth, 3);
+	}
+}
@@ -0,0 +1,89 @@
+/* RandomPlayer.java */
+
+package player;
+import java.util.Random;
+
+/** A Network player that makes uniformly random legal moves. It is cheap
+*  enough to drive thousands of games at once, which makes it useful for
+*  stress tests and as a baseline opponent. Given the same seed and the same
+*  opponent moves, it always plays the same game.
+**/
+class RandomPlayer extends Player {
+	private Board board = new Board();
+	private Random random;
+	private int color;
+	private int quitAfter;
+	private int movesMade;
+
+	/** Creates a random player.
+	*  @param color is the color of "this" player
+	*  @param seed seeds the player's random number generator
+	**/
+	RandomPlayer(int color, long seed) {
+		this(color, seed, -1);
+	}
+
+	/** Creates a random player that quits after a number of its own moves.
+	*  @param color is the color of "this" player
+	*  @param seed seeds the player's random number generator
+	*  @param quitAfter is how many moves to make before quitting, or -1 to
+	*         never quit
+	**/
+	RandomPlayer(int color, long seed, int quitAfter) {
+		this.color = color;
+		this.random = new Random(seed);
+		this.quitAfter = quitAfter;
+		this.myName = "Random";
+	}
+
+	/** Returns a random legal move, or a QUIT move if there is none or this
+	*  player has made quitAfter moves.
+	*  @return a move by "this" player
+	**/
+	public Move chooseMove() {
+		if (movesMade == quitAfter) {
+			return new Move();
+		}
+		Move[] moves = board.validMoves(color);
+		int count = 0;
+		while (count < moves.length && moves[count] != null) {
+			count++;
+		}
+		if (count == 0) {
+			return new Move();
+		}
+		Move m = moves[random.nextInt(count)];
+		board.makeMove(m, color);
+		movesMade++;
+		return m;
+	}
+
+	/** Records a legal opponent move.
+	*  @param m is the opponent's move
+	*  @return whether the move was legal
+	**/
+	public boolean opponentMove(Move m) {
+		return record(m, 1 - color);
+	}
+
+	/** Records a legal move by "this" player.
+	*  @param m is the move
+	*  @return whether the move was legal
+	**/
+	public boolean forceMove(Move m) {
+		return record(m, color);
+	}
+
+	/** Applies a move to this player's board if it is legal.
+	*  @param m is the move
+	*  @param player is who made it
+	*  @return whether the move was legal
+	**/
+	private boolean record(Move m, int player) {
+		if (board.isValid(m, player)) {
+			board.makeMove(m, player);
+			return true;
+		}
+		return false;
+	}
+}
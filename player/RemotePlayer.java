@@ -0,0 +1,275 @@
+/* RemotePlayer.java */
+
+package player;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/** An opponent playing through a NetworkServer, seen as an ordinary Player.
+*  A local GameSession referees the game as usual: the moves this player is
+*  told about through opponentMove() are sent to the server, and
+*  chooseMove() waits for the remote opponent's reply. If the server ends
+*  the game first (the remote player quit, disconnected or ran out of time)
+*  chooseMove() returns a QUIT move.
+**/
+public class RemotePlayer extends Player {
+	private SocketChannel channel;
+	private ByteBuffer in = ByteBuffer.allocate(WireConnection.BUFFER_SIZE);
+	private ByteBuffer out = ByteBuffer.allocate(WireConnection.BUFFER_SIZE);
+	private int color;
+	private int millisPerMove;
+	private int result = WireProtocol.NO_RESULT;
+
+	/** Connects to a server and waits to be paired with an opponent.
+	*  @param host is the server's host name
+	*  @param port is the server's port
+	*  @param name is the local player's name, sent to the server
+	*  @throws IOException if the connection fails or the server breaks the
+	*          protocol
+	**/
+	public RemotePlayer(String host, int port, String name) throws IOException {
+		myName = "Remote";
+		channel = SocketChannel.open(new InetSocketAddress(host, port));
+		channel.socket().setTcpNoDelay(true);
+		byte[] bytes = name.getBytes("US-ASCII");
+		int length = Math.min(bytes.length, WireProtocol.MAX_NAME);
+		out.put((byte)WireProtocol.HELLO).put((byte)WireProtocol.VERSION).put((byte)length);
+		out.put(bytes, 0, length);
+		send();
+		in.flip();
+		color = expect(WireProtocol.COLOR).get() & 0xFF;
+		millisPerMove = expect(WireProtocol.TIME).getInt();
+	}
+
+	/** Returns the color the server assigned to the local player. The remote
+	*  opponent plays the other color.
+	*  @return WHITE or BLACK
+	**/
+	public int localColor() {
+		return color;
+	}
+
+	/** Returns the time allowed per move, as announced by the server.
+	*  @return milliseconds per move
+	**/
+	public int timePerMove() {
+		return millisPerMove;
+	}
+
+	/** Returns the result the server announced, if any.
+	*  @return the winner's color, or NO_RESULT if no RESULT has been received
+	**/
+	public int result() {
+		return result;
+	}
+
+	/** Waits for the remote opponent's move.
+	*  @return the move, or a QUIT move if the game ended on the server
+	**/
+	public Move chooseMove() {
+		try {
+			while (true) {
+				int length = fill();
+				int type = in.get(in.position()) & 0xFF;
+				if (type < WireProtocol.CONTROL) {
+					Move m = new Move();
+					if (!WireProtocol.getMove(in, m)) {
+						throw new IOException("bad move from server");
+					}
+					return m;
+				}
+				in.position(in.position() + 1);
+				if (type == WireProtocol.RESULT) {
+					result = in.get() & 0xFF;
+					return new Move();
+				}
+				in.position(in.position() + length - 1);
+			}
+		} catch (IOException e) {
+			return new Move();
+		}
+	}
+
+	/** Sends the local player's move to the server.
+	*  @param m is the local player's move
+	*  @return true unless the connection has failed
+	**/
+	public boolean opponentMove(Move m) {
+		try {
+			WireProtocol.putMove(m, out);
+			send();
+			return true;
+		} catch (IOException e) {
+			return false;
+		}
+	}
+
+	/** Moves cannot be forced on a remote player.
+	*  @param m is ignored
+	*  @return false
+	**/
+	public boolean forceMove(Move m) {
+		return false;
+	}
+
+	/** Closes the connection to the server.
+	**/
+	public void close() {
+		try {
+			channel.close();
+		} catch (IOException e) {
+			// nothing more to do
+		}
+	}
+
+	/** Writes all pending output.
+	*  @throws IOException if the connection fails
+	**/
+	private void send() throws IOException {
+		out.flip();
+		while (out.hasRemaining()) {
+			channel.write(out);
+		}
+		out.clear();
+	}
+
+	/** Reads until a whole message is in the input buffer.
+	*  @return the message's length
+	*  @throws IOException if the connection fails or a bad message arrives
+	**/
+	private int fill() throws IOException {
+		while (true) {
+			int length = WireProtocol.messageLength(in);
+			if (length < 0) {
+				throw new IOException("bad message from server");
+			}
+			if (length > 0 && in.remaining() >= length) {
+				return length;
+			}
+			in.compact();
+			int n = channel.read(in);
+			in.flip();
+			if (n < 0) {
+				throw new IOException("server closed the connection");
+			}
+		}
+	}
+
+	/** Reads a control message of a given type and skips its type byte.
+	*  @param type is the expected message type
+	*  @return the input buffer, positioned at the message body
+	*  @throws IOException if another message arrives
+	**/
+	private ByteBuffer expect(int type) throws IOException {
+		fill();
+		if ((in.get() & 0xFF) != type) {
+			throw new IOException("expected message " + Integer.toHexString(type));
+		}
+		return in;
+	}
+
+	/*  Test Code -- Reader Can Ignore  */
+
+	/** Plays one game through the server, refereed locally. Returns the
+	*  local winner and the server's result packed into one int.
+	**/
+	private static int playThroughServer(int port, int index) throws IOException {
+		RemotePlayer remote = new RemotePlayer("localhost", port, "p" + index);
+		int me = remote.localColor();
+		Player local = index % 8 == 0 ? new MachinePlayer(me, 1) : new RandomPlayer(me, index);
+		GameSession session = me == GameSession.WHITE ? new GameSession(local, remote)
+				: new GameSession(remote, local);
+		int winner = session.play(1000);
+		if (remote.result() == WireProtocol.NO_RESULT) {
+			// the local player's last move ended the game; read the verdict
+			remote.chooseMove();
+		}
+		remote.close();
+		return winner << 4 | remote.result();
+	}
+
+	private static ByteBuffer readFully(SocketChannel ch, int length) throws IOException {
+		ByteBuffer b = ByteBuffer.allocate(length);
+		while (b.hasRemaining() && ch.read(b) >= 0) {
+		}
+		b.flip();
+		return b;
+	}
+
+	/** Pairs two raw clients, has white send bytes that are no move, and
+	*  returns the winner black is told of.
+	**/
+	private static int badMove(int port, byte[] bytes) throws IOException {
+		SocketChannel[] clients = new SocketChannel[2];
+		for (int i = 0; i < 2; i++) {
+			clients[i] = SocketChannel.open(new InetSocketAddress("localhost", port));
+			clients[i].write(ByteBuffer.wrap(new byte[] {(byte)WireProtocol.HELLO, (byte)WireProtocol.VERSION, 0}));
+		}
+		SocketChannel[] byColor = new SocketChannel[2];
+		for (SocketChannel ch : clients) {
+			// COLOR, then TIME
+			ByteBuffer b = readFully(ch, 7);
+			byColor[b.get(1)] = ch;
+		}
+		byColor[GameSession.WHITE].write(ByteBuffer.wrap(bytes));
+		ByteBuffer result = readFully(byColor[GameSession.BLACK], 2);
+		clients[0].close();
+		clients[1].close();
+		return result.remaining() == 2 && (result.get(0) & 0xFF) == WireProtocol.RESULT ? result.get(1) : -1;
+	}
+
+	public static void main(String[] args) throws Exception {
+		int clients = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+		NetworkServer server = new NetworkServer(0, 5000);
+		Thread serving = new Thread(server, "network-server");
+		serving.start();
+		final int port = server.port();
+
+		// a STEP from a cell off the board, and a byte that starts no
+		// message, each lose the sender the game; the games below show the
+		// server survives them
+		int offBoard = badMove(port, new byte[] {(byte)(WireProtocol.STEP_FLAG | 012), (byte)0xFF});
+		int undefined = badMove(port, new byte[] {(byte)(WireProtocol.QUIT_BYTE + 1)});
+		boolean refused = offBoard == GameSession.BLACK && undefined == GameSession.BLACK;
+		System.out.println("malformed moves lose the game: " + refused);
+
+		ExecutorService pool = Executors.newFixedThreadPool(clients);
+		List<Future<Integer>> games = new ArrayList<Future<Integer>>();
+		long start = System.nanoTime();
+		for (int i = 0; i < clients; i++) {
+			final int index = i;
+			games.add(pool.submit(new Callable<Integer>() {
+				public Integer call() throws IOException {
+					return playThroughServer(port, index);
+				}
+			}));
+		}
+		int mismatches = 0;
+		int unfinished = 0;
+		for (Future<Integer> game : games) {
+			int r = game.get();
+			int local = r >> 4;
+			int remote = r & 15;
+			if (local == GameSession.NO_RESULT) {
+				unfinished++;
+			} else if (local != remote) {
+				mismatches++;
+			}
+		}
+		long millis = (System.nanoTime() - start) / 1000000;
+		pool.shutdown();
+		server.stop();
+		serving.join();
+		System.out.println(clients + " connections, " + clients / 2 + " games in " + millis + " ms");
+		System.out.println("unfinished " + unfinished + ", local and server results differ " + mismatches);
+		System.out.println(refused && mismatches == 0 && unfinished == 0 ? "PASSED" : "FAILED");
+	}
+}
@@ -0,0 +1,527 @@
+/* Rules.java */
+
+package player;
+
+/** The rules of Network computed directly on Positions, so that a search can
+*  copy a Position at every ply (copy-make) instead of changing one Board and
+*  undoing the change (make/undo). A Position copy is two longs and three
+*  ints, and nothing in it can get out of step with anything else.
+*
+*  Every method gives the same answer as the matching Board method called on
+*  a freshly built Board: isValid(), makeMove(), validMoves() (in the same
+*  order), isNetwork() and evaluatorFcn(). That includes isNetwork()'s habit
+*  of leaving a chip it reached by a dead end marked as visited for the rest
+*  of the call, so a Rules verdict always matches the referee's. Board
+*  methods called on a board whose search state was not cleared may differ.
+*
+*  Network detection keeps its visited mask in the Rules object, so each
+*  thread needs its own; the other methods are static.
+**/
+final class Rules {
+	static final int WHITE = Position.WHITE;
+	static final int BLACK = Position.BLACK;
+
+	// the directions of Board, in the order Board's lists hold them
+	private static final int[] DIRECTIONS = {
+		Board.SOUTHEAST, Board.SOUTHWEST, Board.NORTHEAST, Board.NORTHWEST,
+		Board.SOUTH, Board.NORTH, Board.EAST, Board.WEST
+	};
+	private static final int[] DX = {1, -1, 1, -1, 0, 0, 1, -1};
+	private static final int[] DY = {1, 1, -1, -1, 1, -1, 0, 0};
+
+	// the goal cells a color may not enter
+	private static final long LEFT_RIGHT = 0x8181818181818181L;
+	private static final long TOP_BOTTOM = 0xFF000000000000FFL;
+
+	// the 8 neighbors of each cell
+	private static final long[] NEIGHBORS = new long[64];
+
+	static {
+		for (int x = 0; x < 8; x++) {
+			for (int y = 0; y < 8; y++) {
+				long n = 0L;
+				for (int dx = -1; dx <= 1; dx++) {
+					for (int dy = -1; dy <= 1; dy++) {
+						int nx = x + dx;
+						int ny = y + dy;
+						if ((dx != 0 || dy != 0) && nx >= 0 && nx < 8 && ny >= 0 && ny < 8) {
+							n |= 1L << Position.bit(nx, ny);
+						}
+					}
+				}
+				NEIGHBORS[Position.bit(x, y)] = n;
+			}
+		}
+	}
+
+	private long visited;
+	// the chips seen at each depth of findNetwork(), packed as direction << 8 | bit
+	private final int[][] seenAt = new int[11][8];
+
+	/** Returns whether a move is legal for a player, as Board.isValid() does
+	*  for ADD and STEP moves.
+	*  @param p is the position
+	*  @param m is an ADD or STEP move
+	*  @param player is the mover
+	*  @return true if the move is legal
+	**/
+	static boolean isValid(Position p, Move m, int player) {
+		long own = player == WHITE ? p.white : p.black;
+		if (m.moveKind == Move.ADD) {
+			if (p.chipsLeft(player) == 0) {
+				return false;
+			}
+		} else if (m.moveKind == Move.STEP) {
+			long from = 1L << Position.bit(m.x2, m.y2);
+			if ((own & from) == 0) {
+				return false;
+			}
+			own &= ~from;
+		} else {
+			return false;
+		}
+		int to = Position.bit(m.x1, m.y1);
+		long target = 1L << to;
+		if (((p.white | p.black) & target) != 0 || (target & Position.CORNERS) != 0) {
+			return false;
+		}
+		if ((target & (player == BLACK ? LEFT_RIGHT : TOP_BOTTOM)) != 0) {
+			return false;
+		}
+		return !makesCluster(own, to);
+	}
+
+	/** Returns whether adding a chip would give its owner three or more
+	*  chips in a connected group.
+	*  @param own is the owner's chips, without any chip being moved
+	*  @param to is the bit of the cell the chip is added to
+	*  @return true if the group would be too big
+	**/
+	private static boolean makesCluster(long own, int to) {
+		long near = own & NEIGHBORS[to];
+		if (near == 0) {
+			return false;
+		}
+		if ((near & (near - 1)) != 0) {
+			return true;
+		}
+		return (own & NEIGHBORS[Long.numberOfTrailingZeros(near)]) != 0;
+	}
+
+	/** Writes the position after a legal move into out, which may be p
+	*  itself. The move switches the color to move.
+	*  @param p is the position before the move
+	*  @param m is a legal ADD or STEP move
+	*  @param player is the mover
+	*  @param out receives the position after the move
+	**/
+	static void play(Position p, Move m, int player, Position out) {
+		long to = 1L << Position.bit(m.x1, m.y1);
+		long change = to;
+		if (m.moveKind == Move.STEP) {
+			change |= 1L << Position.bit(m.x2, m.y2);
+		}
+		out.white = p.white;
+		out.black = p.black;
+		out.whiteChips = p.whiteChips;
+		out.blackChips = p.blackChips;
+		if (player == WHITE) {
+			out.white ^= change;
+			if (m.moveKind == Move.ADD) {
+				out.whiteChips--;
+			}
+		} else {
+			out.black ^= change;
+			if (m.moveKind == Move.ADD) {
+				out.blackChips--;
+			}
+		}
+		out.toMove = 1 - player;
+	}
+
+	/** Undoes play(p, m, player, p).
+	*  @param p is the position after the move
+	*  @param m is the move
+	*  @param player is the mover
+	**/
+	static void unplay(Position p, Move m, int player) {
+		play(p, m, player, p);
+		if (m.moveKind == Move.ADD) {
+			// play() took a second chip from the count
+			if (player == WHITE) {
+				p.whiteChips += 2;
+			} else {
+				p.blackChips += 2;
+			}
+		}
+		p.toMove = player;
+	}
+
+	/** Writes the legal moves of a player into a buffer of reusable moves,
+	*  in the order of Board.validMoves().
+	*  @param p is the position
+	*  @param player is the mover
+	*  @param buffer is a buffer from Board.newMoveBuffer()
+	*  @return the number of legal moves
+	**/
+	static int generateMoves(Position p, int player, Move[] buffer) {
+		long own = player == WHITE ? p.white : p.black;
+		long occupied = p.white | p.black;
+		long forbidden = Position.CORNERS | (player == BLACK ? LEFT_RIGHT : TOP_BOTTOM);
+		boolean step = p.chipsLeft(player) < 1;
+		int count = 0;
+		for (int i = 0; i < 8; i++) {
+			for (int j = 0; j < 8; j++) {
+				long from = 1L << Position.bit(i, j);
+				if (step && (own & from) != 0) {
+					long rest = own & ~from;
+					for (int k = 0; k < 8; k++) {
+						for (int l = 0; l < 8; l++) {
+							int to = Position.bit(k, l);
+							if (((occupied | forbidden) & (1L << to)) == 0 && !makesCluster(rest, to)) {
+								Move m = buffer[count++];
+								m.moveKind = Move.STEP;
+								m.x1 = k;
+								m.y1 = l;
+								m.x2 = i;
+								m.y2 = j;
+							}
+						}
+					}
+				} else if (!step && ((occupied | forbidden) & from) == 0
+						&& !makesCluster(own, Position.bit(i, j))) {
+					Move m = buffer[count++];
+					m.moveKind = Move.ADD;
+					m.x1 = i;
+					m.y1 = j;
+				}
+			}
+		}
+		return count;
+	}
+
+	/** Returns whether a player has a network, as Board.isNetwork() does on a
+	*  freshly built board.
+	*  @param p is the position
+	*  @param player is the player in question
+	*  @return true if the player has a network
+	**/
+	boolean isNetwork(Position p, int player) {
+		if (p.chipsLeft(player) > 4) {
+			return false;
+		}
+		long own = player == WHITE ? p.white : p.black;
+		long other = player == WHITE ? p.black : p.white;
+		visited = 0L;
+		for (int k = 1; k < 7; k++) {
+			int start = player == WHITE ? Position.bit(0, k) : Position.bit(k, 0);
+			if ((own & (1L << start)) != 0) {
+				break;
+			}
+			if (k == 6) {
+				return false;
+			}
+		}
+		for (int k = 1; k < 7; k++) {
+			int x = player == WHITE ? 7 : k;
+			int y = player == WHITE ? k : 7;
+			if ((own & (1L << Position.bit(x, y))) != 0
+					&& findNetwork(own, other, player, x, y, 1, player == WHITE ? Board.SOUTH : Board.WEST)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/** Follows Board.findNetwork() step by step on bitboards.
+	*  @param own is the player's chips
+	*  @param other is the opponent's chips
+	*  @param player is the player
+	*  @param x is the x coordinate of the current chip, 0 to 7
+	*  @param y is the y coordinate of the current chip, 0 to 7
+	*  @param counter is how many chips the network has so far
+	*  @param lastDirection is the direction the current chip was reached in
+	*  @return whether a network has been found
+	**/
+	private boolean findNetwork(long own, long other, int player, int x, int y, int counter, int lastDirection) {
+		if (counter > 10) {
+			return false;
+		}
+		int along = player == WHITE ? x : y;
+		if (counter < 6 && along == 0) {
+			return false;
+		}
+		if (counter > 1 && along == 7) {
+			return false;
+		}
+		if (counter == 10 && along != 0) {
+			return false;
+		}
+		if (counter >= 6 && along == 0) {
+			return true;
+		}
+
+		// the chips this chip can see
+		int[] seen = seenAt[counter];
+		int count = 0;
+		for (int d = 0; d < 8; d++) {
+			int cx = x + DX[d];
+			int cy = y + DY[d];
+			while (cx >= 0 && cx < 8 && cy >= 0 && cy < 8) {
+				long c = 1L << Position.bit(cx, cy);
+				if (((other | visited) & c) != 0) {
+					break;
+				}
+				if ((own & c) != 0) {
+					seen[count++] = DIRECTIONS[d] << 8 | Position.bit(cx, cy);
+					break;
+				}
+				cx += DX[d];
+				cy += DY[d];
+			}
+		}
+		if (count == 0) {
+			return false;
+		}
+
+		long here = 1L << Position.bit(x, y);
+		visited |= here;
+
+		int kept = 0;
+		for (int i = 0; i < count; i++) {
+			if (((visited & (1L << (seen[i] & 63))) == 0) && (seen[i] >> 8) != lastDirection) {
+				seen[kept++] = seen[i];
+			}
+		}
+		if (kept == 0) {
+			// Board leaves a dead end marked as visited
+			return false;
+		}
+		for (int i = 0; i < kept; i++) {
+			int b = seen[i] & 63;
+			if (findNetwork(own, other, player, b & 7, b >> 3, counter + 1, seen[i] >> 8)) {
+				return true;
+			}
+		}
+		visited &= ~here;
+		return false;
+	}
+
+	/** Rates a position for a player exactly as Board.evaluatorFcn() does on
+	*  a freshly built board, including NaN when neither side has a
+	*  connection.
+	*  @param p is the position
+	*  @param player is who the rating favors
+	*  @return a rating between -50 and 50, or NaN
+	**/
+	static double evaluate(Position p, int player) {
+		long own = player == WHITE ? p.white : p.black;
+		long other = player == WHITE ? p.black : p.white;
+		double heroCount = 0.0;
+		double enemyCount = 0.0;
+		double friendBorder = borderCount(own, player);
+		double foeBorder = borderCount(other, 1 - player);
+		for (int x = 1; x < 7; x++) {
+			for (int y = 1; y < 7; y++) {
+				long c = 1L << Position.bit(x, y);
+				if ((own & c) != 0) {
+					heroCount += rays(own, other, x, y, true);
+				} else if ((other & c) != 0) {
+					enemyCount += rays(other, own, x, y, false);
+				}
+			}
+		}
+		heroCount = heroCount * friendBorder;
+		enemyCount = enemyCount * foeBorder;
+		double result = (heroCount - enemyCount) / (heroCount + enemyCount);
+		return result * 50;
+	}
+
+	/** Counts the chips of a color a chip can see, as Board's basicSeerFcn()
+	*  (the first chip in each direction) or seerFcn() (every chip before the
+	*  first enemy chip in each direction) would list them.
+	**/
+	private static int rays(long own, long other, int x, int y, boolean firstOnly) {
+		int count = 0;
+		for (int d = 0; d < 8; d++) {
+			int cx = x + DX[d];
+			int cy = y + DY[d];
+			while (cx >= 0 && cx < 8 && cy >= 0 && cy < 8) {
+				long c = 1L << Position.bit(cx, cy);
+				if ((other & c) != 0) {
+					break;
+				}
+				if ((own & c) != 0) {
+					count++;
+					if (firstOnly) {
+						break;
+					}
+				}
+				cx += DX[d];
+				cy += DY[d];
+			}
+		}
+		return count;
+	}
+
+	/** Returns Board's borderCount(): 1 for at most two chips in a color's
+	*  goals, otherwise 2 divided by the number of goal chips.
+	**/
+	private static double borderCount(long own, int player) {
+		long goals = player == WHITE ? 0x0081818181818100L : 0x7E0000000000007EL;
+		int count = Long.bitCount(own & goals);
+		if (count <= 2) {
+			return 1.0;
+		}
+		return 2.0 / count;
+	}
+
+	/*  Test Code -- Reader Can Ignore  */
+
+	public static void main(String[] args) {
+		// positions from random games, checked against fresh Boards
+		java.util.Random random = new java.util.Random(39);
+		java.util.List<Position> positions = new java.util.ArrayList<Position>();
+		for (int game = 0; game < 300; game++) {
+			Board b = new Board();
+			int player = WHITE;
+			for (int ply = 0; ply < 60; ply++) {
+				positions.add(Position.of(b, player));
+				Move[] moves = b.validMoves(player);
+				int count = 0;
+				while (count < moves.length && moves[count] != null) {
+					count++;
+				}
+				Board fresh = new Board(b);
+				if (count == 0 || fresh.isNetwork(WHITE) || new Board(b).isNetwork(BLACK)) {
+					break;
+				}
+				b.makeMove(moves[random.nextInt(count)], player);
+				player = 1 - player;
+			}
+		}
+
+		Rules rules = new Rules();
+		Move[] buffer = Board.newMoveBuffer();
+		Move[] boardBuffer = Board.newMoveBuffer();
+		Position child = new Position();
+		int mismatches = 0;
+		int networks = 0;
+		for (Position p : positions) {
+			for (int player = BLACK; player <= WHITE; player++) {
+				boolean network = p.toBoard().isNetwork(player);
+				if (network) {
+					networks++;
+				}
+				if (rules.isNetwork(p, player) != network) {
+					mismatches++;
+					System.out.println("isNetwork differs for " + player + ": " + p);
+				}
+				if (Double.compare(evaluate(p, player), p.toBoard().evaluatorFcn(player)) != 0) {
+					mismatches++;
+					System.out.println("evaluate differs for " + player + ": " + p);
+				}
+				Board b = p.toBoard();
+				int count = generateMoves(p, player, buffer);
+				int boardCount = b.generateMoves(player, boardBuffer);
+				boolean same = count == boardCount;
+				for (int i = 0; same && i < count; i++) {
+					same = TranspositionTable.moveCode(buffer[i]) == TranspositionTable.moveCode(boardBuffer[i]);
+				}
+				// every ADD, and every STEP from a chip, legal or not
+				long chips = p.white | p.black;
+				for (int to = 0; same && to < 64; to++) {
+					Move add = new Move(to & 7, to >> 3);
+					same = isValid(p, add, player) == b.isValid(add, player);
+					for (int from = 0; same && from < 64; from++) {
+						if ((chips & (1L << from)) != 0) {
+							Move step = new Move(to & 7, to >> 3, from & 7, from >> 3);
+							same = isValid(p, step, player) == b.isValid(step, player);
+						}
+					}
+				}
+				for (int i = 0; same && i < count; i++) {
+					b = p.toBoard();
+					b.makeMove(buffer[i], player);
+					play(p, buffer[i], player, child);
+					same = child.equals(Position.of(b, 1 - player));
+					unplay(child, buffer[i], player);
+					same = same && child.white == p.white && child.black == p.black
+							&& child.whiteChips == p.whiteChips && child.blackChips == p.blackChips;
+				}
+				if (!same) {
+					mismatches++;
+					System.out.println("moves differ for " + player + ": " + p);
+				}
+			}
+		}
+		System.out.println(positions.size() + " positions, " + networks + " networks, "
+				+ mismatches + " mismatches");
+
+		// copy-make against make/undo: Board's leftover visited flags can
+		// change a score, so count agreement rather than require it
+		Searcher undo = new Searcher(WHITE, new HeapTranspositionTable(12));
+		Searcher copy = new Searcher(WHITE, new HeapTranspositionTable(12));
+		copy.setCopyMake(true);
+		int searched = 0;
+		int sameMove = 0;
+		int sameScore = 0;
+		long undoNanos = 0;
+		long copyNanos = 0;
+		for (int i = 0; i < positions.size(); i += 23) {
+			Position p = positions.get(i);
+			undo.table().clear();
+			copy.table().clear();
+			undo.load(p);
+			copy.load(p);
+			long start = System.nanoTime();
+			Best a = undo.search(p.toMove(), 2);
+			long middle = System.nanoTime();
+			Best c = copy.search(p.toMove(), 2);
+			copyNanos += System.nanoTime() - middle;
+			undoNanos += middle - start;
+			searched++;
+			if (String.valueOf(a.move).equals(String.valueOf(c.move))) {
+				sameMove++;
+			}
+			if (Double.compare(a.score, c.score) == 0) {
+				sameScore++;
+			}
+		}
+		System.out.println(searched + " depth-2 searches: same move " + sameMove + ", same score "
+				+ sameScore + "; make/undo " + undoNanos / 1000000 + " ms, copy-make "
+				+ copyNanos / 1000000 + " ms");
+
+		// copy-make searches allocate nothing once warm; positions with no
+		// best move are left out, since such a search lets go of out.move
+		// and the next one allocates a new Move
+		java.util.List<Position> open = new java.util.ArrayList<Position>();
+		Best out = new Best();
+		for (int i = 0; open.size() < 40; i += 97) {
+			Position p = positions.get(i % positions.size());
+			copy.load(p);
+			copy.search(p.toMove(), 3, out);
+			if (out.move != null) {
+				open.add(p);
+			}
+		}
+		com.sun.management.ThreadMXBean threads =
+				(com.sun.management.ThreadMXBean)java.lang.management.ManagementFactory.getThreadMXBean();
+		long allocated = Long.MAX_VALUE;
+		for (int round = 0; round < 5; round++) {
+			long before = threads.getCurrentThreadAllocatedBytes();
+			for (int i = 0; i < open.size(); i++) {
+				Position p = open.get(i);
+				copy.load(p);
+				copy.search(p.toMove(), 3, out);
+			}
+			// early rounds run before the JIT compiler has removed every
+			// allocation, so keep the best round
+			allocated = Math.min(allocated, threads.getCurrentThreadAllocatedBytes() - before);
+		}
+		System.out.println("copy-make allocated " + allocated + " bytes in 40 searches");
+
+		boolean ok = mismatches == 0 && networks > 0 && allocated == 0 && sameMove * 4 >= searched * 3;
+		System.out.println(ok ? "PASSED" : "FAILED");
+	}
+}
@@ -0,0 +1,30 @@
+/* SearchIterationEvent.java */
+
+package player;
+import jdk.jfr.*;
+
+/** A Flight Recorder event committed once per root search iteration inside
+*  chooseMove(). The event's duration is the time spent in that iteration and
+*  the split field is the time elapsed since chooseMove() was entered, so a
+*  recording shows where each move's time budget went.
+**/
+@Name("network.SearchIteration")
+@Label("Search Iteration")
+@Category({"Network", "Search"})
+@Description("One root gameTreeSearch() iteration")
+@Enabled(false)
+@StackTrace(false)
+class SearchIterationEvent extends Event {
+	@Label("Depth")
+	int depth;
+
+	@Label("Score")
+	double score;
+
+	@Label("Nodes")
+	long nodes;
+
+	@Label("Split Time")
+	@Timespan(Timespan.NANOSECONDS)
+	long split;
+}
@@ -0,0 +1,20 @@
+/* SearchListener.java */
+
+package player;
+
+/** Receives the progress of a MachinePlayer.chooseMoveAsync() search, once
+*  for every iteration that completes. Calls come from the search thread,
+*  so a listener should return quickly and hand anything slow to another
+*  thread.
+**/
+public interface SearchListener {
+	/** Reports a completed search iteration.
+	*  @param depth is the depth searched
+	*  @param score is the score of the best move, from the searching
+	*         player's side
+	*  @param pv is the principal variation, starting with the move the
+	*         player would make now; the array is the listener's to keep
+	*  @param nodes is the number of nodes searched for this move so far
+	**/
+	void improved(int depth, double score, Move[] pv, long nodes);
+}
@@ -0,0 +1,1028 @@
+/* Searcher.java */
+
+package player;
+
+/** The alpha-beta search used by MachinePlayer, with everything it works on
+*  kept in one object: a private copy of the board, its Zobrist hash, the
+*  node count and a stop flag. A Searcher never reads the board it was
+*  loaded from again, so it can run on another thread while that board
+*  changes, and stop() ends a running search from any thread within a node.
+*  Interrupting the searching thread ends it too, within INTERRUPT_NODES.
+*
+*  Every node stores its best move in the transposition table, and later
+*  searches try that move first. The table is the only state meant to
+*  outlive a search; it can be shared with other Searchers.
+*
+*  Scratch space is an arena of per-ply Frames, each holding a buffer of
+*  reusable moves and the index of the best one. Frames are made the first
+*  time a depth is searched and reused by every later search, so once the
+*  arena has grown to the depth searched, load() and search(toMove,
+*  maxDepth, out) allocate nothing.
+*
+*  With setCopyMake(true), each Frame also holds the Position at its ply:
+*  a child is written into the next Frame by Rules.play() and the parent is
+*  never changed, so there is nothing to undo. The Board is then only read
+*  once per search, to set up the root. The two modes agree wherever
+*  Board's network and evaluation functions do not depend on the visited
+*  flags earlier calls leave behind; see Rules.
+*
+*  Every node above the last ply looks for a move that completes a network
+*  first, with Threats, and stops there if it has one. Otherwise the moves
+*  to the cells the opponent threatens to complete a network on come next
+*  after the table's best move.
+*
+*  With setEvaluator(), leaves are scored by a NeuralEvaluator instead of
+*  Board.evaluatorFcn(). Each Frame then also holds the evaluator's
+*  accumulator for its ply, which searchChild() updates from the parent's
+*  for the move played, so a leaf costs one pass over the hidden layer.
+*
+*  With setSelectivity(), late moves are searched to reduced depth and
+*  hopeless moves near the horizon are skipped; see Selectivity.
+*
+*  A position that already occurred on the line being searched, or in the
+*  game history given to setHistory(), is scored as a draw. Only the STEP
+*  phase can repeat a position.
+**/
+class Searcher {
+	static final int WHITE = MachinePlayer.WHITE;
+	static final int BLACK = MachinePlayer.BLACK;
+
+	// a network is worth WIN divided by the depth it is found at
+	static final double WIN = 50.0;
+	// a repeated position is worth DRAW
+	static final double DRAW = 0.0;
+
+	// the half-width of the window a multi-PV line is first searched in
+	static final double ASPIRATION = 1.0;
+
+	// how often, in nodes, a search checks whether its thread was
+	// interrupted; a power of two
+	static final int INTERRUPT_NODES = 1024;
+
+	private Board board;
+	private long hash;
+	private int color;
+	private int oppColor;
+	private TranspositionTable table;
+
+	private long nodes;
+	private long deadline = Long.MAX_VALUE;
+	private long nodeLimit = Long.MAX_VALUE;
+	private volatile boolean stopped;
+
+	private Frame[] frames = new Frame[0];
+	private Move reply = new Move();
+	private boolean hasReply;
+
+	private boolean copyMake;
+	private final Rules rules = new Rules();
+	private Selectivity selectivity;
+	private NeuralEvaluator evaluator;
+	private final Threats threats = new Threats();
+	// the children of a node just above the leaves, rated a few at a time
+	// so that a cutoff wastes little
+	private static final int LEAF_BATCH = 8;
+	private final LeafBatch leaves = new LeafBatch(LEAF_BATCH);
+	private final Position[] leafPositions = new Position[LEAF_BATCH];
+	private int firstLeaf;
+	private boolean batchLeaves = true;
+	// plies cut from the line being searched by late move reductions
+	private int reduced;
+
+	// the game before the loaded position, and that game followed by the
+	// line being searched
+	private PositionHistory game;
+	private final PositionHistory history = new PositionHistory();
+
+	/** The scratch space of one ply of the search. */
+	private static class Frame {
+		Move[] moves = Board.newMoveBuffer();
+		int bestIndex;
+		Position position = new Position();
+		// the evaluator's first layer at this ply, if there is an evaluator
+		int[] accumulator;
+	}
+
+	/** Creates a searcher that scores positions for one color.
+	*  @param color is the color the scores favor
+	*  @param table is the transposition table to use, possibly shared
+	**/
+	Searcher(int color, TranspositionTable table) {
+		this.color = color;
+		this.oppColor = 1 - color;
+		this.table = table;
+		this.board = new Board();
+		for (int i = 0; i < LEAF_BATCH; i++) {
+			leafPositions[i] = new Position();
+		}
+	}
+
+	/** Copies a board into this searcher, clears the stop flag and removes
+	*  any deadline. Only this call reads the given board.
+	*  @param b is the board to search
+	**/
+	void load(Board b) {
+		board.copyFrom(b);
+		hash = Zobrist.hash(board);
+		if (game != null) {
+			history.copyFrom(game);
+		} else {
+			history.clear();
+		}
+		stopped = false;
+		deadline = Long.MAX_VALUE;
+		nodeLimit = Long.MAX_VALUE;
+	}
+
+	/** Loads a position and makes its side to move the color the scores
+	*  favor. Otherwise the same as load(Board).
+	*  @param p is the position to search
+	**/
+	void load(Position p) {
+		color = p.toMove();
+		oppColor = 1 - color;
+		p.copyTo(board);
+		hash = Zobrist.hash(board);
+		history.clear();
+		stopped = false;
+		deadline = Long.MAX_VALUE;
+		nodeLimit = Long.MAX_VALUE;
+	}
+
+	/** Sets the evaluator that scores leaves.
+	*  @param evaluator is the network to use, or null for
+	*         Board.evaluatorFcn(), the default
+	**/
+	void setEvaluator(NeuralEvaluator evaluator) {
+		this.evaluator = evaluator;
+		for (Frame frame : frames) {
+			frame.accumulator = evaluator == null ? null : evaluator.newAccumulator();
+		}
+	}
+
+	/** Turns selective search on or off.
+	*  @param selectivity is the reductions and pruning to use, or null to
+	*         search every move to full depth, the default
+	**/
+	void setSelectivity(Selectivity selectivity) {
+		this.selectivity = selectivity;
+	}
+
+	/** Gives the positions of the game played so far, so that searches
+	*  score returning to one of them as a draw. load(Board) reads the
+	*  history each time it is called; its latest position should be the
+	*  board loaded.
+	*  @param game is the game history, or null for none
+	**/
+	void setHistory(PositionHistory game) {
+		this.game = game;
+	}
+
+	/** Makes searches stop by themselves at a given time, as if stop() were
+	*  called then.
+	*  @param nanoTime is a System.nanoTime() value
+	**/
+	void setDeadline(long nanoTime) {
+		deadline = nanoTime;
+	}
+
+	/** Makes searches stop by themselves once they have visited a number of
+	*  nodes.
+	*  @param limit is the most nodes a search may visit
+	**/
+	void setNodeLimit(long limit) {
+		nodeLimit = limit;
+	}
+
+	/** Chooses between copy-make, where every ply searches its own copy of
+	*  the position, and make/undo on one Board, the default.
+	*  @param copyMake is true for copy-make
+	**/
+	void setCopyMake(boolean copyMake) {
+		this.copyMake = copyMake;
+	}
+
+	/** Chooses whether copy-make searches rate the children of a node just
+	*  above the leaves in batches, with a LeafBatch, or one at a time. The
+	*  ratings, and so the search, are the same either way.
+	*  @param batchLeaves is true for batches, the default
+	**/
+	void setBatchLeaves(boolean batchLeaves) {
+		this.batchLeaves = batchLeaves;
+	}
+
+	/** Plays a move on the searcher's board, as when pondering on a
+	*  predicted reply.
+	*  @param m is a legal move
+	*  @param player is the mover's color
+	**/
+	void play(Move m, int player) {
+		board.makeMove(m, player);
+		hash ^= Zobrist.move(m, player);
+		history.push(PositionHistory.key(hash, 1 - player), m.moveKind == Move.ADD);
+	}
+
+	/** Undoes a move made by play().
+	*  @param m is the move
+	*  @param player is the mover's color
+	**/
+	void unplay(Move m, int player) {
+		history.pop();
+		board.unmakeMove(m, player);
+		hash ^= Zobrist.move(m, player);
+	}
+
+	/** Searches the loaded board.
+	*  @param toMove is the color to move at the root
+	*  @param maxDepth is the deepest the search can look
+	*  @return the best move and its score, or null if stop() was called or
+	*          a deadline or node limit set since the last load() was reached
+	**/
+	Best search(int toMove, int maxDepth) {
+		Best best = new Best();
+		return search(toMove, maxDepth, best) ? best : null;
+	}
+
+	/** Searches the loaded board without allocating, once the frame arena
+	*  has grown to maxDepth.
+	*  @param toMove is the color to move at the root
+	*  @param maxDepth is the deepest the search can look
+	*  @param out receives the best move and its score; its move is reused
+	*         if it is not null, and set to null if no move was best
+	*  @return true, or false if stop() was called or a deadline or node
+	*          limit was reached, leaving out unchanged
+	**/
+	boolean search(int toMove, int maxDepth, Best out) {
+		int base = prepare(toMove, maxDepth);
+		double score = gameTreeSearch(toMove, -WIN, WIN, 1, maxDepth, true);
+		history.truncate(base);
+		if (stopped) {
+			return false;
+		}
+		out.score = score;
+		Frame root = frames[1];
+		if (root.bestIndex < 0) {
+			out.move = null;
+		} else {
+			if (out.move == null) {
+				out.move = new Move();
+			}
+			copy(root.moves[root.bestIndex], out.move);
+		}
+		return true;
+	}
+
+	/** Searches the loaded board for its best few root moves, one ply deeper
+	*  at a time up to maxDepth. All root moves are searched in one pass per
+	*  depth: a move only has to beat the worst of the lines kept so far, so
+	*  the window for it starts there, and a move that fails low below it is
+	*  not searched further. A move kept at the last depth is first searched
+	*  in a narrow window around its last score, and again in a wider one if
+	*  its score falls outside. The score of every line returned is exact in
+	*  copy-make mode. With make/undo, Board's network search can leave
+	*  marks that depend on what was searched before, so a score can depend
+	*  on the order of the search, as it can for search(). Moves scored NaN
+	*  are never kept.
+	*  @param toMove is the color to move at the root, which must be the
+	*         color the scores favor
+	*  @param maxDepth is the deepest the search can look
+	*  @param count is the most lines to return
+	*  @return the lines of the deepest completed depth, best first, or null
+	*          if the search was stopped before any depth completed
+	*  @throws IllegalArgumentException if toMove is not the searcher's color
+	**/
+	PvLine[] searchLines(int toMove, int maxDepth, int count) {
+		if (toMove != color) {
+			// the root keeps the lines that score best for color
+			throw new IllegalArgumentException("searchLines for " + toMove + " by a searcher for " + color);
+		}
+		int base = prepare(toMove, maxDepth);
+		Frame root = frames[1];
+		Position position = copyMake ? root.position : null;
+		int n = generateMoves(position, toMove, root.moves);
+		double[] scores = new double[n];
+		java.util.Arrays.fill(scores, Double.NaN);
+		PvLine[] lines = null;
+		for (int depth = 1; depth <= maxDepth; depth++) {
+			PvLine[] found = searchLines(position, toMove, depth, count, n, scores);
+			if (found == null) {
+				break;
+			}
+			lines = found;
+		}
+		history.truncate(base);
+		return lines;
+	}
+
+	/** Searches every root move to one depth for searchLines().
+	*  @param position is the root position, or null for make/undo
+	*  @param toMove is the color to move at the root
+	*  @param maxDepth is the depth to search to
+	*  @param count is the most lines to keep
+	*  @param n is the number of root moves
+	*  @param scores holds each root move's exact score from the last depth,
+	*         or NaN if it was not kept; updated for this depth
+	*  @return the lines kept, best first, or null if the search was stopped
+	**/
+	private PvLine[] searchLines(Position position, int toMove, int maxDepth, int count, int n, double[] scores) {
+		Move[] moves = frames[1].moves;
+		sortByScore(moves, scores, n);
+		PvLine[] kept = new PvLine[count];
+		int found = 0;
+		for (int i = 0; i < n; i++) {
+			Move m = moves[i];
+			double lower = found == count ? kept[count - 1].score() : -WIN;
+			double alpha = lower;
+			double beta = WIN;
+			if (!Double.isNaN(scores[i])) {
+				alpha = Math.max(lower, scores[i] - ASPIRATION);
+				beta = Math.min(WIN, scores[i] + ASPIRATION);
+			}
+			double score = searchChild(position, m, toMove, alpha, beta, 1, maxDepth, i == 0);
+			if (!stopped && score >= beta && beta < WIN) {
+				score = searchChild(position, m, toMove, alpha, WIN, 1, maxDepth, false);
+			}
+			if (!stopped && score <= alpha && alpha > lower) {
+				score = searchChild(position, m, toMove, lower, WIN, 1, maxDepth, false);
+			}
+			if (stopped) {
+				return null;
+			}
+			scores[i] = Double.NaN;
+			if (score > lower) {
+				scores[i] = score;
+				int at = Math.min(found, count - 1);
+				while (at > 0 && kept[at - 1].score() < score) {
+					kept[at] = kept[at - 1];
+					at--;
+				}
+				kept[at] = new PvLine(principalVariation(toMove, m, maxDepth), score, maxDepth);
+				found = Math.min(found + 1, count);
+			}
+		}
+		PvLine[] lines = new PvLine[found];
+		System.arraycopy(kept, 0, lines, 0, found);
+		return lines;
+	}
+
+	/** Orders root moves by their scores, best first, with the moves that
+	*  have none (NaN) after them in their current order.
+	**/
+	private static void sortByScore(Move[] moves, double[] scores, int n) {
+		for (int i = 1; i < n; i++) {
+			Move m = moves[i];
+			double score = scores[i];
+			int j = i;
+			while (j > 0 && !Double.isNaN(score) && (Double.isNaN(scores[j - 1]) || scores[j - 1] < score)) {
+				moves[j] = moves[j - 1];
+				scores[j] = scores[j - 1];
+				j--;
+			}
+			moves[j] = m;
+			scores[j] = score;
+		}
+	}
+
+	/** Readies the frames, the history and the counters for a search from
+	*  the loaded board.
+	*  @param toMove is the color to move at the root
+	*  @param maxDepth is the deepest the search can look
+	*  @return the history's size before the root was pushed
+	**/
+	private int prepare(int toMove, int maxDepth) {
+		nodes = 0;
+		reduced = 0;
+		hasReply = false;
+		if (frames.length < maxDepth + 2) {
+			Frame[] grown = new Frame[maxDepth + 2];
+			System.arraycopy(frames, 0, grown, 0, frames.length);
+			for (int i = frames.length; i < grown.length; i++) {
+				grown[i] = new Frame();
+				if (evaluator != null) {
+					grown[i].accumulator = evaluator.newAccumulator();
+				}
+			}
+			frames = grown;
+		}
+		if (copyMake || evaluator != null) {
+			frames[1].position.setFrom(board, toMove);
+		}
+		if (evaluator != null) {
+			evaluator.refresh(frames[1].position, frames[1].accumulator);
+		}
+		int base = history.size();
+		long rootKey = PositionHistory.key(hash, toMove);
+		if (history.top() != rootKey) {
+			history.push(rootKey, true);
+		}
+		return base;
+	}
+
+	/** Asks a running search to return as soon as possible. The search
+	*  checks the flag at every node and after every move it tries.
+	**/
+	void stop() {
+		stopped = true;
+	}
+
+	/** Returns whether stop() has been called since the last load().
+	*  @return the stop flag
+	**/
+	boolean stopped() {
+		return stopped;
+	}
+
+	/** Returns the nodes visited by the last search.
+	*  @return the node count
+	**/
+	long nodes() {
+		return nodes;
+	}
+
+	/** Returns the reply the last search expects to the best root move.
+	*  @return a new Move holding the second move of the principal
+	*          variation, or null
+	**/
+	Move reply() {
+		if (!hasReply) {
+			return null;
+		}
+		Move m = new Move();
+		copy(reply, m);
+		return m;
+	}
+
+	/** Returns the principal variation of the last search: its best move,
+	*  then the best reply to each move that the table holds, until the
+	*  table has none or a network is made. The board is left as it was.
+	*  @param toMove is the color that moved at the root
+	*  @param best is the best move the search found
+	*  @param maxLength is the most moves to return
+	*  @return new Moves, starting with a copy of best
+	**/
+	Move[] principalVariation(int toMove, Move best, int maxLength) {
+		Move[] line = new Move[maxLength];
+		Move[] moves = Board.newMoveBuffer();
+		int length = 0;
+		int player = toMove;
+		Move next = best;
+		while (next != null && length < maxLength) {
+			Move m = new Move();
+			copy(next, m);
+			line[length++] = m;
+			board.makeMove(m, player);
+			hash ^= Zobrist.move(m, player);
+			board.clearSearchState();
+			if (board.isNetwork(WHITE) || board.isNetwork(BLACK)) {
+				break;
+			}
+			player = 1 - player;
+			next = null;
+			long entry = table.probe(hash ^ (player == WHITE ? Zobrist.WHITE_TO_MOVE : 0L));
+			if (entry != TranspositionTable.MISS) {
+				int count = generateMoves(null, player, moves);
+				for (int i = 0; i < count; i++) {
+					if (TranspositionTable.moveCode(moves[i]) == TranspositionTable.move(entry)) {
+						next = moves[i];
+						break;
+					}
+				}
+			}
+		}
+		for (int i = length - 1; i >= 0; i--) {
+			int mover = i % 2 == 0 ? toMove : 1 - toMove;
+			board.unmakeMove(line[i], mover);
+			hash ^= Zobrist.move(line[i], mover);
+		}
+		Move[] pv = new Move[length];
+		System.arraycopy(line, 0, pv, 0, length);
+		return pv;
+	}
+
+	/** Returns the transposition table this searcher uses.
+	*  @return the table
+	**/
+	TranspositionTable table() {
+		return table;
+	}
+
+	/** This function uses alpha beta minimax search to find the best move.
+	* Search goes down at most maxDepth moves and finds the best move based
+	* on ratings of the hypothetical board built. The highest and lowest
+	* scores are given to boards that have a network for a certain player.
+	* When a network hasn't been made, this function calls the evaluator
+	* function to get a score. The best move is left in the ply's Frame.
+	* @param currPlayer is whose valid moves we are analyzing
+	* @param alpha is the highest score we have found
+	* @param beta is the lowest score we have found
+	* @param depth is the current depth of searching we are at, 1 at the root
+	* @param maxDepth is the deepest this function can look
+	* @param pv is whether every move leading here was searched first
+	* @return the score the best move has earned
+	**/
+	private double gameTreeSearch(int currPlayer, double alpha, double beta, int depth, int maxDepth, boolean pv) {
+		Frame frame = frames[depth];
+		frame.bestIndex = -1;
+
+		nodes++;
+		if (stopped) {
+			return 0.0;
+		}
+		if (nodes > nodeLimit || (deadline != Long.MAX_VALUE && System.nanoTime() > deadline)
+				|| (nodes & INTERRUPT_NODES - 1) == 0 && Thread.currentThread().isInterrupted()) {
+			stopped = true;
+			return 0.0;
+		}
+		if (depth > 1 && history.repetitions() > 0) {
+			return DRAW;
+		}
+		Position position = copyMake ? frame.position : null;
+		if (position == null) {
+			board.clearSearchState();
+		}
+
+		// Base cases
+		// if both have networks, other player wins
+		if (isNetwork(position, currPlayer) && isNetwork(position, (currPlayer + 1) % 2)) {
+			if (currPlayer == color) {
+				return -WIN / depth;
+			} else {
+				return WIN / depth;
+			}
+		}
+
+		// if machine player wins
+		if (isNetwork(position, color)) {
+			if (depth == 1) {
+				return 100.0;
+			}
+			return WIN / depth;
+		}
+		// if opponent wins
+		if (isNetwork(position, oppColor)) {
+			return -WIN / depth;
+		}
+		// if max depth reached
+		// a reduced line is rated as if it had been searched to full depth
+		if (depth > maxDepth) {
+			if (evaluator != null) {
+				return evaluator.evaluate(frame.accumulator, color) / (depth + reduced);
+			}
+			if (position != null) {
+				return Rules.evaluate(position, color) / (depth + reduced);
+			}
+			return board.evaluatorFcn(color) / (depth + reduced);
+		}
+
+		// set worstcase scores
+		double bestScore;
+		if (currPlayer == color) {
+			bestScore = alpha;
+		} else {
+			bestScore = beta;
+		}
+
+		// fill the frame with valid moves; above the ply just over the leaves
+		// take a win in one at once, and try blocks first
+		Move[] moves = frame.moves;
+		int count = depth < maxDepth ? scanThreats(position, currPlayer, depth)
+				: generateMoves(position, currPlayer, moves);
+		long key = hash ^ (currPlayer == WHITE ? Zobrist.WHITE_TO_MOVE : 0L);
+		if (count < 0) {
+			frame.bestIndex = 0;
+			double score = currPlayer == color ? WIN / (depth + 1) : -WIN / (depth + 1);
+			table.store(key, TranspositionTable.pack(TranspositionTable.moveCode(moves[0]),
+					maxDepth - depth + 1, TranspositionTable.EXACT, (float)score));
+			return score;
+		}
+		long entry = table.probe(key);
+		if (entry != TranspositionTable.MISS) {
+			promote(moves, count, TranspositionTable.move(entry));
+		}
+
+		// selective search: threatened is 1 once the opponent is known to
+		// have a network-completing reply, 0 once known not to
+		int pliesLeft = maxDepth - depth + 1;
+		boolean selective = selectivity != null && depth > 1;
+		double margin = selective ? selectivity.futilityMargin(pliesLeft) : 0.0;
+		boolean futile = false;
+		if (margin > 0.0) {
+			double eval = staticEval(position, depth);
+			futile = currPlayer == color ? (eval + margin) / (maxDepth + 1) <= alpha
+					: (eval - margin) / (maxDepth + 1) >= beta;
+		}
+		int threatened = -1;
+
+		// every child is a leaf; rate them a batch at a time
+		boolean batch = batchLeaves && position != null && evaluator == null && depth == maxDepth;
+		int rated = 0;
+
+		// search through moves
+		for (int i = 0; i < count; i++) {
+			Move m = moves[i];
+			int reduction = 0;
+			boolean prune = false;
+			if (selective && i > 0) {
+				reduction = pv ? 0 : selectivity.reduction(pliesLeft, i);
+				prune = futile;
+				if (reduction > 0 || prune) {
+					if (threatened < 0) {
+						threatened = threatens(position, 1 - currPlayer, depth) ? 1 : 0;
+					}
+					if (threatened == 1 || completesNetwork(position, m, currPlayer, depth)) {
+						reduction = 0;
+						prune = false;
+					}
+				}
+			}
+			if (prune) {
+				continue;
+			}
+			reduced += reduction;
+			if (batch && i >= rated) {
+				rated = rateLeaves(position, moves, i, count, currPlayer);
+			}
+			double reply = batch ? leaf(m, currPlayer, depth, i)
+					: searchChild(position, m, currPlayer, alpha, beta, depth, maxDepth - reduction, pv && i == 0);
+			reduced -= reduction;
+			if (reduction > 0 && !stopped && (currPlayer == color ? reply > alpha : reply < beta)) {
+				// the reduced search says the move is good; make sure
+				reply = searchChild(position, m, currPlayer, alpha, beta, depth, maxDepth, false);
+			}
+			if (stopped) {
+				return bestScore;
+			}
+			if ((currPlayer == color) && (reply > bestScore)) {
+				frame.bestIndex = i;
+				bestScore = reply;
+				alpha = reply;
+				if (depth == 1) {
+					keepReply();
+				}
+			} else if ((currPlayer == oppColor) && (reply < bestScore)) {
+				frame.bestIndex = i;
+				bestScore = reply;
+				beta = reply;
+				if (depth == 1) {
+					keepReply();
+				}
+			}
+
+			// alpha beta pruning
+			if (alpha >= beta) {
+				break;
+			}
+		}
+		if (frame.bestIndex >= 0) {
+			int bound = alpha >= beta
+					? (currPlayer == color ? TranspositionTable.LOWER : TranspositionTable.UPPER)
+					: TranspositionTable.EXACT;
+			table.store(key, TranspositionTable.pack(TranspositionTable.moveCode(moves[frame.bestIndex]),
+					maxDepth - depth + 1, bound, (float)bestScore));
+		}
+		return bestScore;
+	}
+
+	/** Plays a move, searches the position after it and takes it back.
+	*  @param position is the ply's position, or null for make/undo
+	*  @param m is the move
+	*  @param currPlayer is the mover
+	*  @param alpha is the highest score we have found
+	*  @param beta is the lowest score we have found
+	*  @param depth is the depth of the node the move is played at
+	*  @param maxDepth is the deepest the child's search can look
+	*  @param pv is whether the child is on the principal variation
+	*  @return the child's score
+	**/
+	private double searchChild(Position position, Move m, int currPlayer, double alpha, double beta,
+			int depth, int maxDepth, boolean pv) {
+		double reply;
+		if (evaluator != null) {
+			evaluator.play(frames[depth].accumulator, m, currPlayer, frames[depth + 1].accumulator);
+		}
+		if (position != null) {
+			Rules.play(position, m, currPlayer, frames[depth + 1].position);
+			hash ^= Zobrist.move(m, currPlayer);
+			history.push(PositionHistory.key(hash, 1 - currPlayer), m.moveKind == Move.ADD);
+			reply = gameTreeSearch(1 - currPlayer, alpha, beta, depth + 1, maxDepth, pv);
+			history.pop();
+			hash ^= Zobrist.move(m, currPlayer);
+		} else {
+			play(m, currPlayer);
+			reply = gameTreeSearch(1 - currPlayer, alpha, beta, depth + 1, maxDepth, pv);
+			unplay(m, currPlayer);
+		}
+		return reply;
+	}
+
+	/** Plays the next batch of a node's moves into leaves and rates them.
+	*  @param position is the node's position
+	*  @param moves is the node's move buffer
+	*  @param first is the index of the first move to play
+	*  @param count is the number of moves
+	*  @param currPlayer is the mover
+	*  @return the index after the last move played
+	**/
+	private int rateLeaves(Position position, Move[] moves, int first, int count, int currPlayer) {
+		int end = Math.min(first + LEAF_BATCH, count);
+		leaves.clear();
+		for (int i = first; i < end; i++) {
+			Position child = leafPositions[i - first];
+			Rules.play(position, moves[i], currPlayer, child);
+			leaves.add(child);
+		}
+		leaves.evaluate(color);
+		firstLeaf = first;
+		return end;
+	}
+
+	/** Scores a leaf played by rateLeaves() as gameTreeSearch() would.
+	*  @param m is the move that made the leaf
+	*  @param currPlayer is the mover
+	*  @param depth is the depth of the node the move is played at
+	*  @param i is the move's index at the node
+	*  @return the leaf's score
+	**/
+	private double leaf(Move m, int currPlayer, int depth, int i) {
+		frames[depth + 1].bestIndex = -1;
+		nodes++;
+		if (stopped) {
+			return 0.0;
+		}
+		if (nodes > nodeLimit || (deadline != Long.MAX_VALUE && System.nanoTime() > deadline)
+				|| (nodes & INTERRUPT_NODES - 1) == 0 && Thread.currentThread().isInterrupted()) {
+			stopped = true;
+			return 0.0;
+		}
+		long key = PositionHistory.key(hash ^ Zobrist.move(m, currPlayer), 1 - currPlayer);
+		history.push(key, m.moveKind == Move.ADD);
+		boolean repeated = history.repetitions() > 0;
+		history.pop();
+		if (repeated) {
+			return DRAW;
+		}
+		Position child = leafPositions[i - firstLeaf];
+		int nextPlayer = 1 - currPlayer;
+		depth++;
+		if (rules.isNetwork(child, nextPlayer) && rules.isNetwork(child, currPlayer)) {
+			return nextPlayer == color ? -WIN / depth : WIN / depth;
+		}
+		if (rules.isNetwork(child, color)) {
+			return WIN / depth;
+		}
+		if (rules.isNetwork(child, oppColor)) {
+			return -WIN / depth;
+		}
+		return leaves.rating(i - firstLeaf) / (depth + reduced);
+	}
+
+	/** Returns the evaluator's rating of a ply's position for the color the
+	*  scores favor, not yet divided by depth.
+	*  @param position is the ply's position, or null for make/undo
+	*  @param depth is the depth of the ply
+	*  @return the rating, possibly NaN
+	**/
+	private double staticEval(Position position, int depth) {
+		if (evaluator != null) {
+			return evaluator.evaluate(frames[depth].accumulator, color);
+		}
+		if (position != null) {
+			return Rules.evaluate(position, color);
+		}
+		board.clearSearchState();
+		return board.evaluatorFcn(color);
+	}
+
+	/** Returns whether a move would give its mover a network. The child
+	*  Frame's position is used as scratch space.
+	*  @param position is the ply's position, or null for make/undo
+	*  @param m is a legal move
+	*  @param player is the mover
+	*  @param depth is the depth of the ply
+	*  @return true if the mover has a network after the move
+	**/
+	private boolean completesNetwork(Position position, Move m, int player, int depth) {
+		if (position != null) {
+			Position after = frames[depth + 1].position;
+			Rules.play(position, m, player, after);
+			return rules.isNetwork(after, player);
+		}
+		board.makeMove(m, player);
+		board.clearSearchState();
+		boolean network = board.isNetwork(player);
+		board.unmakeMove(m, player);
+		return network;
+	}
+
+	/** Returns whether a player could complete a network if it were to move
+	*  at a ply. The child Frame's moves are used as scratch space.
+	*  @param position is the ply's position, or null for make/undo
+	*  @param player is the player asked about
+	*  @param depth is the depth of the ply
+	*  @return true if one of the player's moves gives it a network
+	**/
+	private boolean threatens(Position position, int player, int depth) {
+		Position here = position;
+		if (here == null) {
+			here = frames[depth].position;
+			here.setFrom(board, 1 - player);
+		}
+		return threats.hasWin(here, player, frames[depth + 1].moves);
+	}
+
+	/** Returns whether a player has a network, on the ply's position in
+	*  copy-make mode and on the board otherwise.
+	*  @param position is the ply's position, or null for make/undo
+	*  @param player is the player in question
+	*  @return true if the player has a network
+	**/
+	private boolean isNetwork(Position position, int player) {
+		if (position != null) {
+			return rules.isNetwork(position, player);
+		}
+		return board.isNetwork(player);
+	}
+
+	/** Remembers the best move of the root's child just searched as the
+	*  predicted reply.
+	**/
+	private void keepReply() {
+		Frame child = frames[2];
+		hasReply = child.bestIndex >= 0;
+		if (hasReply) {
+			copy(child.moves[child.bestIndex], reply);
+		}
+	}
+
+	/** Fills a ply's Frame with the valid moves of the player to move.
+	*  @param position is the ply's position, or null for make/undo
+	*  @param player is the player to move
+	*  @param moves is the Frame's move buffer
+	*  @return the number of moves
+	**/
+	private int generateMoves(Position position, int player, Move[] moves) {
+		if (position != null) {
+			return Rules.generateMoves(position, player, moves);
+		}
+		board.clearSearchState();
+		return board.generateMoves(player, moves);
+	}
+
+	/** Fills a ply's Frame with the valid moves of the player to move, with
+	*  a move that completes a network first if there is one, or else the
+	*  moves to the cells where the opponent could complete one. The
+	*  child Frame's moves are used as scratch space.
+	*  @param position is the ply's position, or null for make/undo
+	*  @param player is the player to move
+	*  @param depth is the depth of the ply
+	*  @return the number of moves, or -1 if the first completes a network
+	**/
+	private int scanThreats(Position position, int player, int depth) {
+		Position here = position;
+		if (here == null) {
+			here = frames[depth].position;
+			here.setFrom(board, player);
+		}
+		Move[] moves = frames[depth].moves;
+		if (threats.find(here, player, moves) > 0) {
+			return -1;
+		}
+		// the scan leaves the valid moves in the frame if it made them
+		int count = threats.legalMoves();
+		if (count == 0) {
+			count = generateMoves(position, player, moves);
+		}
+		Move[] replies = frames[depth + 1].moves;
+		int blocks = threats.find(here, 1 - player, replies);
+		if (blocks > 0) {
+			orderBlocks(moves, count, Threats.targets(replies, blocks));
+		}
+		return count;
+	}
+
+	/** Moves the moves to a set of cells to the front of a move buffer,
+	*  keeping their order.
+	*  @param moves is the buffer from generateMoves()
+	*  @param count is the number of valid moves in it
+	*  @param cells is a mask of the target cells
+	**/
+	private static void orderBlocks(Move[] moves, int count, long cells) {
+		int front = 0;
+		for (int i = 0; i < count; i++) {
+			Move m = moves[i];
+			if ((cells & (1L << Position.bit(m.x1, m.y1))) != 0) {
+				System.arraycopy(moves, front, moves, front + 1, i - front);
+				moves[front++] = m;
+			}
+		}
+	}
+
+	/** Moves the move with a given code to the front of a move buffer.
+	*  @param moves is the buffer from generateMoves()
+	*  @param count is the number of valid moves in it
+	*  @param code is the code of the move to try first
+	**/
+	private static void promote(Move[] moves, int count, int code) {
+		for (int i = 0; i < count; i++) {
+			if (TranspositionTable.moveCode(moves[i]) == code) {
+				Move m = moves[i];
+				System.arraycopy(moves, 0, moves, 1, i);
+				moves[0] = m;
+				return;
+			}
+		}
+	}
+
+	/** Copies every field of a move into another.
+	*  @param from is the move copied
+	*  @param to receives the copy
+	**/
+	static void copy(Move from, Move to) {
+		to.moveKind = from.moveKind;
+		to.x1 = from.x1;
+		to.y1 = from.y1;
+		to.x2 = from.x2;
+		to.y2 = from.y2;
+	}
+
+	/*  Test Code -- Reader Can Ignore  */
+
+	/** Starts a search on another thread, stops it after a while and
+	*  returns how long it took to return.
+	*  @param trial picks how long to let the search run
+	**/
+	private static long stopLatency(final Searcher s, Position p, int trial) throws InterruptedException {
+		s.load(p.toBoard());
+		final long[] returned = new long[1];
+		Thread t = new Thread(new Runnable() {
+			public void run() {
+				s.search(WHITE, 6);
+				returned[0] = System.nanoTime();
+			}
+		});
+		t.start();
+		// stop at different points of the tree
+		Thread.sleep(5 + (trial & 31));
+		long stop = System.nanoTime();
+		s.stop();
+		t.join();
+		return returned[0] - stop;
+	}
+
+	public static void main(String[] args) throws Exception {
+		// a mid-game STEP position with plenty of moves
+		Position p = Position.parse("8/5W2/1W1WBWB1/1W1W4/1BB1BWB1/1WW1W3/1BB1B1B1/8 w 0 0");
+		final Searcher s = new Searcher(WHITE, new HeapTranspositionTable(16));
+
+		// let the JIT compiler finish first, so it does not compete with the
+		// search thread for the CPU. The warm-up runs the same trials, so
+		// the compiled code has seen every branch the timed ones take
+		long warm = System.nanoTime();
+		for (int trial = 0; System.nanoTime() - warm < 5000000000L; trial++) {
+			stopLatency(s, p, trial);
+		}
+		long[] latency = new long[100];
+		for (int trial = 0; trial < latency.length; trial++) {
+			latency[trial] = stopLatency(s, p, trial);
+		}
+		java.util.Arrays.sort(latency);
+		long median = latency[latency.length / 2];
+		long p90 = latency[latency.length * 9 / 10];
+		System.out.println("stop latency: median " + median / 1000 + " us, 90% "
+				+ p90 / 1000 + " us, max "
+				+ latency[latency.length - 1] / 1000 + " us");
+
+		// the same search twice: the second starts from a warm table
+		Searcher cold = new Searcher(WHITE, new HeapTranspositionTable(16));
+		cold.load(p.toBoard());
+		Best first = cold.search(WHITE, 2);
+		long coldNodes = cold.nodes();
+		cold.load(p.toBoard());
+		Best second = cold.search(WHITE, 2);
+		System.out.println("cold " + coldNodes + " nodes, warm " + cold.nodes() + " nodes, "
+				+ first.move + " " + first.score + " / " + second.move + " " + second.score);
+		// after warm-up, loading and searching must not allocate
+		com.sun.management.ThreadMXBean threads =
+				(com.sun.management.ThreadMXBean)java.lang.management.ManagementFactory.getThreadMXBean();
+		Board[] boards = {Position.parse("8/2W5/1B2B3/3W1W2/1W2B3/5B2/3W4/8 w 5 6").toBoard(), p.toBoard()};
+		Searcher arena = new Searcher(WHITE, new HeapTranspositionTable(16));
+		Best out = new Best();
+		long searchNodes = 0;
+		long allocated = 0;
+		for (int round = 0; round < 3; round++) {
+			long before = threads.getCurrentThreadAllocatedBytes();
+			searchNodes = 0;
+			for (int i = 0; i < 40; i++) {
+				arena.load(boards[i & 1]);
+				arena.search(WHITE, 3, out);
+				searchNodes += arena.nodes();
+			}
+			// the first rounds are warm-up
+			allocated = threads.getCurrentThreadAllocatedBytes() - before;
+		}
+		System.out.println("allocated " + allocated + " bytes in 40 searches of " + searchNodes + " nodes");
+
+		boolean ok = p90 < 1000000 && first.score == second.score && allocated == 0;
+		System.out.println(ok ? "PASSED" : "FAILED");
+	}
+}
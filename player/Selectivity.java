@@ -0,0 +1,246 @@
+/* Selectivity.java */
+
+package player;
+
+/** The settings of Searcher's selective search, which cuts the work spent
+*  on moves that ordering puts late and that are unlikely to matter:
+*
+*    late move reductions  at a node off the principal variation with at
+*          least minReductionDepth plies left, every move after the first
+*          fullDepthMoves is searched reduction(plies left, move index)
+*          plies shallower. A reduced move that beats the window is searched
+*          again to full depth.
+*    futility pruning      at a node with futilityMargin(plies left) > 0,
+*          once one move has been searched, the remaining moves are skipped
+*          if the node's static evaluation, moved towards the mover by the
+*          margin, still cannot reach the window.
+*
+*  Neither applies to a move that completes a network for the mover, nor to
+*  any move at a node where the opponent has a network-completing reply,
+*  since every move there has to be checked as a possible block.
+*
+*  The reduction table starts out as the usual logarithmic one,
+*  floor(BASE + ln(plies left) * ln(move index + 1) / DIVISOR), rounded up
+*  to an even number of plies, and can be overwritten entry by entry. The
+*  evaluator favors whoever moved last, so an odd reduction would rate a
+*  reduced line from the wrong side of the horizon. A Selectivity is read
+*  by searches, so it should not be changed while a search that uses it is
+*  running.
+**/
+class Selectivity {
+	// the largest plies left and move index the reduction table covers
+	static final int TABLE_DEPTH = 16;
+	static final int TABLE_MOVES = 64;
+
+	static final double BASE = 0.5;
+	static final double DIVISOR = 2.25;
+
+	private int minReductionDepth = 3;
+	private int fullDepthMoves = 3;
+	private final int[][] reductions = new int[TABLE_DEPTH][TABLE_MOVES];
+	// static evaluation margins by plies left, before dividing by depth
+	private double[] futilityMargins = {0.0, 25.0};
+
+	/** Creates the default settings: reductions from the logarithmic
+	*  formula, and futility pruning one ply from the horizon.
+	**/
+	Selectivity() {
+		this(BASE, DIVISOR);
+	}
+
+	/** Creates settings with a reduction table from the logarithmic formula.
+	*  @param base is added before rounding down
+	*  @param divisor divides the product of the logarithms
+	**/
+	Selectivity(double base, double divisor) {
+		for (int d = 1; d < TABLE_DEPTH; d++) {
+			for (int i = 1; i < TABLE_MOVES; i++) {
+				int r = (int)Math.floor(base + Math.log(d) * Math.log(i + 1) / divisor);
+				reductions[d][i] = r + (r & 1);
+			}
+		}
+	}
+
+	/** Sets when late move reductions apply.
+	*  @param minDepth is the fewest plies left at a node that is reduced
+	*  @param fullMoves is how many moves of a node are never reduced
+	**/
+	void setReductionLimits(int minDepth, int fullMoves) {
+		minReductionDepth = minDepth;
+		fullDepthMoves = fullMoves;
+	}
+
+	/** Overwrites one entry of the reduction table.
+	*  @param pliesLeft is the plies left at the node, 1 to TABLE_DEPTH - 1
+	*  @param moveIndex is the move's place in the node's ordering, from 0
+	*  @param plies is how many plies shallower to search it
+	**/
+	void setReduction(int pliesLeft, int moveIndex, int plies) {
+		reductions[pliesLeft][moveIndex] = plies;
+	}
+
+	/** Sets the futility margins.
+	*  @param margins are the margins by plies left, in evaluator units; 0
+	*         or a missing entry turns futility pruning off at that depth
+	**/
+	void setFutilityMargins(double[] margins) {
+		futilityMargins = margins.clone();
+	}
+
+	/** Returns how many plies shallower a late move is searched.
+	*  @param pliesLeft is the plies left at the node
+	*  @param moveIndex is the move's place in the node's ordering, from 0
+	*  @return the reduction, 0 if the move is searched to full depth
+	**/
+	int reduction(int pliesLeft, int moveIndex) {
+		if (pliesLeft < minReductionDepth || moveIndex < fullDepthMoves) {
+			return 0;
+		}
+		int r = reductions[Math.min(pliesLeft, TABLE_DEPTH - 1)][Math.min(moveIndex, TABLE_MOVES - 1)];
+		// always leave at least the move itself to search, and keep the
+		// reduction even
+		return Math.max(0, Math.min(r, (pliesLeft - 1) & ~1));
+	}
+
+	/** Returns the futility margin at a depth.
+	*  @param pliesLeft is the plies left at the node
+	*  @return the margin in evaluator units, or 0 for no futility pruning
+	**/
+	double futilityMargin(int pliesLeft) {
+		return pliesLeft < futilityMargins.length ? futilityMargins[pliesLeft] : 0.0;
+	}
+
+	/*  Test Code -- Reader Can Ignore  */
+
+	/** A player that deepens one ply at a time until a fixed time per move
+	*  runs out, after a few random opening moves.
+	**/
+	private static class FixedTimePlayer extends Player {
+		private Board board = new Board();
+		private PositionHistory history = new PositionHistory();
+		private long hash;
+		private Searcher searcher;
+		private int color;
+		private long nanosPerMove;
+		private java.util.Random random;
+		private int randomMoves;
+
+		FixedTimePlayer(int color, Selectivity selectivity, long nanosPerMove, long seed, int randomMoves) {
+			this.color = color;
+			this.nanosPerMove = nanosPerMove;
+			this.random = new java.util.Random(seed);
+			this.randomMoves = randomMoves;
+			searcher = new Searcher(color, new HeapTranspositionTable(16));
+			searcher.setSelectivity(selectivity);
+			searcher.setHistory(history);
+			history.push(PositionHistory.key(0L, Position.WHITE), true);
+		}
+
+		public Move chooseMove() {
+			Move m = null;
+			if (randomMoves-- > 0) {
+				Move[] moves = board.validMoves(color);
+				int count = 0;
+				while (count < moves.length && moves[count] != null) {
+					count++;
+				}
+				m = moves[random.nextInt(count)];
+			} else {
+				long deadline = System.nanoTime() + nanosPerMove;
+				for (int depth = 1; depth <= 32 && System.nanoTime() < deadline; depth++) {
+					searcher.load(board);
+					searcher.setDeadline(depth == 1 ? Long.MAX_VALUE : deadline);
+					Best best = searcher.search(color, depth);
+					if (best == null) {
+						break;
+					}
+					if (best.move != null) {
+						m = best.move;
+					}
+				}
+				if (m == null) {
+					board.clearSearchState();
+					m = board.validMoves(color)[0];
+				}
+			}
+			record(m, color);
+			return m;
+		}
+
+		public boolean opponentMove(Move m) {
+			if (!board.isValid(m, 1 - color)) {
+				return false;
+			}
+			record(m, 1 - color);
+			return true;
+		}
+
+		public boolean forceMove(Move m) {
+			return false;
+		}
+
+		private void record(Move m, int player) {
+			board.makeMove(m, player);
+			hash ^= Zobrist.move(m, player);
+			history.push(PositionHistory.key(hash, 1 - player), m.moveKind == Move.ADD);
+		}
+	}
+
+	public static void main(String[] args) {
+		int openings = args.length > 0 ? Integer.parseInt(args[0]) : 30;
+		long millis = args.length > 1 ? Long.parseLong(args[1]) : 50;
+
+		// the same position searched with and without selectivity
+		Position p = Position.parse("8/5W2/1W1WBWB1/1W1W4/1BB1BWB1/1WW1W3/1BB1B1B1/8 w 0 0");
+		long[] searched = new long[2];
+		String[] found = new String[2];
+		for (int on = 0; on < 2; on++) {
+			Searcher s = new Searcher(p.toMove(), new HeapTranspositionTable(16));
+			s.setSelectivity(on == 1 ? new Selectivity() : null);
+			long nodes = 0;
+			Best b = null;
+			for (int depth = 1; depth <= 5; depth++) {
+				s.load(p);
+				b = s.search(p.toMove(), depth);
+				nodes += s.nodes();
+			}
+			System.out.println((on == 1 ? "selective: " : "full width: ") + b.move + " " + b.score
+					+ " in " + nodes + " nodes");
+			searched[on] = nodes;
+			found[on] = String.valueOf(b.move);
+		}
+
+		// self-play at a fixed time per move: each opening is played twice,
+		// with the selective player taking each color once
+		double points = 0;
+		int[] results = new int[3];
+		for (int g = 0; g < 2 * openings; g++) {
+			int selectiveColor = g & 1;
+			long seed = g / 2;
+			Player[] players = new Player[2];
+			for (int c = Position.BLACK; c <= Position.WHITE; c++) {
+				players[c] = new FixedTimePlayer(c, c == selectiveColor ? new Selectivity() : null,
+						millis * 1000000L, seed * 2 + c, 4);
+			}
+			GameSession session = new GameSession(players[Position.WHITE], players[Position.BLACK]);
+			session.setDrawRules(3, 100);
+			session.play(400);
+			if (session.winner() == selectiveColor) {
+				points += 1.0;
+				results[0]++;
+			} else if (session.winner() == GameSession.NO_RESULT) {
+				points += 0.5;
+				results[1]++;
+			} else {
+				results[2]++;
+			}
+		}
+		double score = points / (2 * openings);
+		double elo = -400.0 * Math.log10(1.0 / Math.max(0.001, Math.min(0.999, score)) - 1.0);
+		System.out.println("selective vs full width at " + millis + " ms a move: +" + results[0] + " ="
+				+ results[1] + " -" + results[2] + ", score " + score + ", Elo " + Math.round(elo));
+		// the Elo is reported, not checked: it is too noisy to pass or fail on
+		boolean ok = searched[1] < searched[0] && found[1].equals(found[0]);
+		System.out.println(ok ? "PASSED" : "FAILED");
+	}
+}
@@ -0,0 +1,48 @@
+/* ServedGame.java */
+
+package player;
+import java.util.concurrent.CompletableFuture;
+
+/** A handle on a game running on a GameServer: its session, its eventual
+*  result and the latency of its searches.
+**/
+public class ServedGame {
+	private GameSession session;
+	private CompletableFuture<Integer> result;
+	private LatencyRecorder latency;
+
+	/** Creates a handle.
+	*  @param session is the running session
+	*  @param result completes with the winner when the game ends
+	*  @param latency records the game's search latencies
+	**/
+	ServedGame(GameSession session, CompletableFuture<Integer> result, LatencyRecorder latency) {
+		this.session = session;
+		this.result = result;
+		this.latency = latency;
+	}
+
+	/** Returns the game's session. It must not be stepped by the caller.
+	*  @return the session
+	**/
+	public GameSession session() {
+		return session;
+	}
+
+	/** Returns a future that completes with the winner's color, or
+	*  GameSession.NO_RESULT, and completes exceptionally if a search was
+	*  rejected or a player failed.
+	*  @return the result future
+	**/
+	public CompletableFuture<Integer> result() {
+		return result;
+	}
+
+	/** Returns the latencies of this game's compute-pool searches, from the
+	*  moment a search was requested to the moment its move came back.
+	*  @return the game's latency recorder
+	**/
+	public LatencyRecorder latency() {
+		return latency;
+	}
+}
@@ -0,0 +1,110 @@
+/* SessionStressTest.java */
+
+package player;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/** A stress test for running many GameSessions in one JVM. It plays
+*  thousands of seeded games concurrently, some of which end with a QUIT,
+*  then replays every game on one thread and checks that each concurrent game
+*  made exactly the same moves and had the same result. A difference means
+*  state leaked between sessions.
+*
+*  Test Code -- Reader Can Ignore
+*
+*  Usage: java player.SessionStressTest [sessions] [threads]
+**/
+class SessionStressTest {
+	static final int MAX_MOVES = 200;
+
+	/** Builds the session with the given number. Every fourth session has a
+	*  depth-1 MachinePlayer as black, and every third white player quits
+	*  partway through its game.
+	*  @param n is the session number, also used as its seed
+	*  @return the new session
+	**/
+	static GameSession newSession(int n) {
+		int quitAfter = (n % 3 == 0) ? 3 + n % 7 : -1;
+		Player white = new RandomPlayer(WHITE_COLOR, n, quitAfter);
+		Player black;
+		if (n % 4 == 0) {
+			black = new MachinePlayer(BLACK_COLOR, 1);
+		} else {
+			black = new RandomPlayer(BLACK_COLOR, ~n);
+		}
+		return new GameSession(white, black);
+	}
+
+	static final int WHITE_COLOR = GameSession.WHITE;
+	static final int BLACK_COLOR = GameSession.BLACK;
+
+	/** Returns whether two sessions played the same game.
+	*  @param a is one session
+	*  @param b is the other
+	*  @return true if the move lists and results match
+	**/
+	static boolean sameGame(GameSession a, GameSession b) {
+		if (a.winner() != b.winner() || a.movesPlayed() != b.movesPlayed()) {
+			return false;
+		}
+		for (int i = 0; i < a.movesPlayed(); i++) {
+			if (!String.valueOf(a.move(i)).equals(String.valueOf(b.move(i)))) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	public static void main(String[] args) throws Exception {
+		int sessions = args.length > 0 ? Integer.parseInt(args[0]) : 4000;
+		int threads = args.length > 1 ? Integer.parseInt(args[1])
+			: Runtime.getRuntime().availableProcessors() * 4;
+
+		final GameSession[] played = new GameSession[sessions];
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		final AtomicInteger quits = new AtomicInteger();
+		final AtomicInteger failures = new AtomicInteger();
+		long start = System.nanoTime();
+		for (int i = 0; i < sessions; i++) {
+			final int n = i;
+			pool.execute(new Runnable() {
+				public void run() {
+					try {
+						GameSession s = newSession(n);
+						// interleave sessions one move at a time to mix threads
+						while (s.movesPlayed() < MAX_MOVES && s.step()) {
+							Thread.yield();
+						}
+						Move last = s.move(s.movesPlayed() - 1);
+						if (last.moveKind == Move.QUIT) {
+							quits.incrementAndGet();
+						}
+						played[n] = s;
+					} catch (RuntimeException e) {
+						failures.incrementAndGet();
+						System.out.println("session " + n + " failed: " + e);
+					}
+				}
+			});
+		}
+		pool.shutdown();
+		pool.awaitTermination(1, TimeUnit.HOURS);
+		long elapsed = (System.nanoTime() - start) / 1000000;
+
+		int mismatches = failures.get();
+		for (int i = 0; i < sessions; i++) {
+			if (played[i] == null) {
+				continue;
+			}
+			GameSession replay = newSession(i);
+			replay.play(MAX_MOVES);
+			if (!sameGame(played[i], replay)) {
+				mismatches++;
+				System.out.println("session " + i + " differs from its replay");
+			}
+		}
+		System.out.println(sessions + " sessions on " + threads + " threads in " + elapsed
+			+ " ms, " + quits.get() + " ended by QUIT, " + mismatches + " mismatches");
+		System.out.println(mismatches == 0 ? "PASSED" : "FAILED");
+	}
+}
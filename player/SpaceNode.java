@@ -9,7 +9,7 @@ import list.*;
 **/
 public class SpaceNode{
 	int item = Board.EMPTY;
-	SList coordList = new SList();
+	CoordList coordList = new CoordList();
 	boolean visited;
 
 	// Test Code -- Grader Can Ignore 
@@ -0,0 +1,235 @@
+/* Symmetry.java */
+
+package player;
+
+/** The symmetries of the Network board. A transform is a number from 0 to 7
+*  whose bits say what is done to a cell (x, y): bit 2 (TRANSPOSE) swaps x and
+*  y first, then bit 0 (FLIP_X) maps x to 7 - x and bit 1 (FLIP_Y) maps y to
+*  7 - y.
+*
+*  Transforms 0 to 3 map each color's goals onto its own goals, so they turn
+*  a legal position into a legal position with the same evaluation. Transforms
+*  4 to 7 turn white's goals into black's, so they are only symmetries when
+*  the colors are swapped as well; this class swaps them, together with the
+*  color to move and the chip counts. Scores taken from the point of view of
+*  the color to move are unchanged by every transform.
+*
+*  canonicalize() picks one representative of a position's class, so tables
+*  keyed by the canonical key share entries between symmetric positions.
+*  Moves found in the canonical position are mapped back with
+*  transform(m, inverse(t)).
+**/
+public class Symmetry {
+	static final int IDENTITY = 0;
+	static final int FLIP_X = 1;
+	static final int FLIP_Y = 2;
+	static final int TRANSPOSE = 4;
+	static final int COUNT = 8;
+
+	/** Returns the transform that undoes t.
+	*  @param t is a transform
+	*  @return the inverse of t
+	**/
+	static int inverse(int t) {
+		if ((t & TRANSPOSE) == 0) {
+			return t;
+		}
+		// flips done after a transpose are undone by the other flip before it
+		return TRANSPOSE | ((t & FLIP_X) << 1) | ((t & FLIP_Y) >> 1);
+	}
+
+	/** Returns whether a transform swaps the colors.
+	*  @param t is a transform
+	*  @return true for transforms 4 to 7
+	**/
+	static boolean swapsColors(int t) {
+		return (t & TRANSPOSE) != 0;
+	}
+
+	/** Returns the x coordinate a cell moves to.
+	*  @param t is the transform
+	*  @param x is the x coordinate of the cell
+	*  @param y is the y coordinate of the cell
+	*  @return the new x coordinate
+	**/
+	static int x(int t, int x, int y) {
+		int nx = (t & TRANSPOSE) != 0 ? y : x;
+		return (t & FLIP_X) != 0 ? 7 - nx : nx;
+	}
+
+	/** Returns the y coordinate a cell moves to.
+	*  @param t is the transform
+	*  @param x is the x coordinate of the cell
+	*  @param y is the y coordinate of the cell
+	*  @return the new y coordinate
+	**/
+	static int y(int t, int x, int y) {
+		int ny = (t & TRANSPOSE) != 0 ? x : y;
+		return (t & FLIP_Y) != 0 ? 7 - ny : ny;
+	}
+
+	/** Applies a transform to a cell mask laid out as in Position.
+	*  @param t is the transform
+	*  @param mask is the mask to transform
+	*  @return the transformed mask
+	**/
+	static long mask(int t, long mask) {
+		if ((t & TRANSPOSE) != 0) {
+			mask = transpose(mask);
+		}
+		if ((t & FLIP_X) != 0) {
+			mask = flipX(mask);
+		}
+		if ((t & FLIP_Y) != 0) {
+			mask = Long.reverseBytes(mask);
+		}
+		return mask;
+	}
+
+	/** Mirrors a mask left to right by reversing the bits of every row.
+	*  @param m is the mask
+	*  @return the mirrored mask
+	**/
+	private static long flipX(long m) {
+		m = ((m >>> 1) & 0x5555555555555555L) | ((m & 0x5555555555555555L) << 1);
+		m = ((m >>> 2) & 0x3333333333333333L) | ((m & 0x3333333333333333L) << 2);
+		m = ((m >>> 4) & 0x0F0F0F0F0F0F0F0FL) | ((m & 0x0F0F0F0F0F0F0F0FL) << 4);
+		return m;
+	}
+
+	/** Swaps rows and columns of a mask with three delta swaps.
+	*  @param m is the mask
+	*  @return the transposed mask
+	**/
+	private static long transpose(long m) {
+		long t;
+		t = 0x0F0F0F0F00000000L & (m ^ (m << 28));
+		m ^= t ^ (t >>> 28);
+		t = 0x3333000033330000L & (m ^ (m << 14));
+		m ^= t ^ (t >>> 14);
+		t = 0x5500550055005500L & (m ^ (m << 7));
+		m ^= t ^ (t >>> 7);
+		return m;
+	}
+
+	/** Writes the image of a position under a transform into out. p and out
+	*  may be the same object.
+	*  @param t is the transform
+	*  @param p is the position to transform
+	*  @param out receives the transformed position
+	**/
+	static void transform(int t, Position p, Position out) {
+		long w = mask(t, p.white);
+		long k = mask(t, p.black);
+		if (swapsColors(t)) {
+			int chips = p.whiteChips;
+			out.white = k;
+			out.black = w;
+			out.whiteChips = p.blackChips;
+			out.blackChips = chips;
+			out.toMove = 1 - p.toMove;
+		} else {
+			out.white = w;
+			out.black = k;
+			out.whiteChips = p.whiteChips;
+			out.blackChips = p.blackChips;
+			out.toMove = p.toMove;
+		}
+	}
+
+	/** Returns the image of a move under a transform.
+	*  @param m is the move
+	*  @param t is the transform
+	*  @return a new, transformed Move
+	**/
+	static Move transform(Move m, int t) {
+		switch (m.moveKind) {
+		case Move.ADD:
+			return new Move(x(t, m.x1, m.y1), y(t, m.x1, m.y1));
+		case Move.STEP:
+			return new Move(x(t, m.x1, m.y1), y(t, m.x1, m.y1), x(t, m.x2, m.y2), y(t, m.x2, m.y2));
+		default:
+			return new Move();
+		}
+	}
+
+	/** Finds the canonical representative of a position's symmetry class: the
+	*  image with the smallest (color to move, white mask, black mask), all
+	*  compared as unsigned numbers.
+	*  @param p is the position
+	*  @param out receives the canonical position; it may not be p
+	*  @param swapColors is whether color-swapping transforms are allowed, in
+	*         which case tables must store scores from the point of view of
+	*         the color to move
+	*  @return the transform that maps p to out
+	**/
+	static int canonicalize(Position p, Position out, boolean swapColors) {
+		int count = swapColors ? COUNT : TRANSPOSE;
+		int best = IDENTITY;
+		out.copyFrom(p);
+		for (int t = 1; t < count; t++) {
+			long w = mask(t, p.white);
+			long k = mask(t, p.black);
+			int side = p.toMove;
+			if (swapsColors(t)) {
+				long tmp = w;
+				w = k;
+				k = tmp;
+				side = 1 - side;
+			}
+			int c = Integer.compare(side, out.toMove);
+			if (c == 0) {
+				c = Long.compareUnsigned(w, out.white);
+			}
+			if (c == 0) {
+				c = Long.compareUnsigned(k, out.black);
+			}
+			if (c < 0) {
+				best = t;
+				transform(t, p, out);
+			}
+		}
+		return best;
+	}
+
+	/** Returns a 64-bit key shared by all positions in p's symmetry class.
+	*  @param p is the position
+	*  @param swapColors is whether color-swapping transforms are allowed
+	*  @return the canonical key
+	**/
+	static long canonicalKey(Position p, boolean swapColors) {
+		Position c = new Position();
+		canonicalize(p, c, swapColors);
+		return c.key();
+	}
+
+	// Test Code -- Reader Can Ignore
+	public static void main(String[] args) {
+		java.util.Random r = new java.util.Random(61);
+		boolean ok = true;
+		for (int t = 0; t < COUNT; t++) {
+			for (int n = 0; n < 1000; n++) {
+				long m = r.nextLong();
+				long expect = 0L;
+				for (int i = 0; i < 64; i++) {
+					if ((m & (1L << i)) != 0) {
+						expect |= 1L << Position.bit(x(t, i & 7, i >> 3), y(t, i & 7, i >> 3));
+					}
+				}
+				ok &= mask(t, m) == expect;
+				ok &= mask(inverse(t), mask(t, m)) == m;
+			}
+		}
+		System.out.println("Mask transforms match cell transforms: " + ok);
+
+		Position p = Position.parse("6B1/W1B1B1W1/2B1WB2/6W1/2B2BW1/4WB2/4W1WW/8 b 1 2");
+		Position q = new Position();
+		for (int t = 0; t < COUNT; t++) {
+			transform(t, p, q);
+			Board b = q.toBoard();
+			int winner = swapsColors(t) ? Position.BLACK : Position.WHITE;
+			System.out.println("transform " + t + ": " + q + "  network for winner: "
+				+ b.isNetwork(winner) + "  canonical key: " + Long.toHexString(canonicalKey(q, true)));
+		}
+	}
+}
@@ -0,0 +1,364 @@
+/* Threats.java */
+
+package player;
+
+/** Finds the moves that would complete a network for a player: the wins in
+*  one, and for the other player the threats that must be blocked.
+*
+*  Trying every legal move with a full network search is what makes this
+*  slow, so one pass over the player's connection graph first splits the
+*  player's chips into connected groups. A new chip joins the groups of the
+*  chips it can see, and a network is only possible if the joined group
+*  has at least six chips and reaches both goals. Only moves that pass
+*  this test are checked with Rules.isNetwork(). A STEP move also lifts a
+*  chip, which can open lines between the others, so the groups are redone
+*  for each chip that steps. If lifting the chip alone leaves a network,
+*  every target is checked.
+*
+*  The new chip need not be part of the network it makes. Board's
+*  network search leaves a chip with nowhere to go marked as visited, so
+*  that chip blocks every later path in the same call. A new chip that
+*  such a chip can see gives it somewhere to go, so the mark is cleared
+*  again, and that can turn up a network the new chip is not part of.
+*
+*  A move that gives both players a network loses, so it is not a win.
+*
+*  The answers are those of Rules, so they match Board.isNetwork() on a
+*  freshly built board. The position must not already have a network for
+*  the player. A Threats object keeps scratch state, so each thread needs
+*  its own.
+**/
+final class Threats {
+	// a color's two goals
+	private static final long LEFT = 0x0001010101010100L;
+	private static final long RIGHT = LEFT << 7;
+	private static final long TOP = 0x7EL;
+	private static final long BOTTOM = TOP << 56;
+
+	private static final int[] DX = {1, -1, 1, -1, 0, 0, 1, -1};
+	private static final int[] DY = {1, 1, -1, -1, 1, -1, 0, 0};
+
+	private final Rules rules = new Rules();
+	private final Position after = new Position();
+	private int legalMoves;
+
+	// the connected group of each of the player's chips, by bit
+	private final long[] group = new long[64];
+
+	/** Writes the moves that give a player a network into the front of a
+	*  move buffer, in the order of Board.validMoves(). The rest of the
+	*  buffer holds the player's other legal moves, in that order too.
+	*  @param p is the position, with no network for player
+	*  @param player is the player asked about
+	*  @param buffer is a buffer from Board.newMoveBuffer()
+	*  @return the number of winning moves
+	**/
+	int find(Position p, int player, Move[] buffer) {
+		return scan(p, player, buffer, Integer.MAX_VALUE);
+	}
+
+	/** Returns whether a player has a move that gives it a network.
+	*  @param p is the position, with no network for player
+	*  @param player is the player asked about
+	*  @param buffer is a buffer from Board.newMoveBuffer(), used as scratch
+	*  @return true if the player can win in one move
+	**/
+	boolean hasWin(Position p, int player, Move[] buffer) {
+		return scan(p, player, buffer, 1) > 0;
+	}
+
+	/** Returns how many legal moves the last find() or hasWin() generated.
+	*  After find(), or after hasWin() returned false, that is every legal
+	*  move of the player, in the order of Board.validMoves() with the
+	*  winning moves moved to the front.
+	*  @return the number of legal moves, 0 if none were generated because
+	*          the player has too many chips left to win
+	**/
+	int legalMoves() {
+		return legalMoves;
+	}
+
+	/** Returns the cells the winning moves of the last find() move to.
+	*  @param buffer is the buffer given to find()
+	*  @param wins is the number find() returned
+	*  @return a mask with the bit of each target cell set
+	**/
+	static long targets(Move[] buffer, int wins) {
+		long cells = 0L;
+		for (int i = 0; i < wins; i++) {
+			cells |= 1L << Position.bit(buffer[i].x1, buffer[i].y1);
+		}
+		return cells;
+	}
+
+	/** Does the work of find() and hasWin().
+	*  @param limit is how many winning moves to find before stopping
+	**/
+	private int scan(Position p, int player, Move[] buffer, int limit) {
+		legalMoves = 0;
+		// a network needs six chips on the board after the move
+		if (p.chipsLeft(player) > 5) {
+			return 0;
+		}
+		long own = player == Position.WHITE ? p.white : p.black;
+		long other = player == Position.WHITE ? p.black : p.white;
+		long goalA = player == Position.WHITE ? LEFT : TOP;
+		long goalB = player == Position.WHITE ? RIGHT : BOTTOM;
+		int count = Rules.generateMoves(p, player, buffer);
+		legalMoves = count;
+
+		int found = 0;
+		int source = -1;
+		long chips = own;
+		boolean anyTarget = false;
+		for (int i = 0; i < count; i++) {
+			Move m = buffer[i];
+			if (m.moveKind == Move.STEP && Position.bit(m.x2, m.y2) != source) {
+				source = Position.bit(m.x2, m.y2);
+				chips = own & ~(1L << source);
+				anyTarget = liftedNetwork(p, player, chips);
+				see(chips, other);
+			} else if (m.moveKind == Move.ADD && i == 0) {
+				see(own, other);
+			}
+			if (!anyTarget) {
+				long to = 1L << Position.bit(m.x1, m.y1);
+				long joined = to;
+				for (long seen = sight(m.x1, m.y1, chips, other); seen != 0; seen &= seen - 1) {
+					joined |= group[Long.numberOfTrailingZeros(seen)];
+				}
+				if (Long.bitCount(joined) < 6 || (joined & goalA) == 0 || (joined & goalB) == 0) {
+					continue;
+				}
+			}
+			Rules.play(p, m, player, after);
+			if (rules.isNetwork(after, player) && !rules.isNetwork(after, 1 - player)) {
+				// shift the moves between the winners up one, so that both
+				// keep the order they were generated in
+				System.arraycopy(buffer, found, buffer, found + 1, i - found);
+				buffer[found] = m;
+				found++;
+				if (found == limit) {
+					return found;
+				}
+			}
+		}
+		return found;
+	}
+
+	/** Returns whether a player has a network with one chip lifted off the
+	*  board.
+	*  @param p is the position
+	*  @param player is the player
+	*  @param chips is the player's chips without the lifted one
+	**/
+	private boolean liftedNetwork(Position p, int player, long chips) {
+		after.copyFrom(p);
+		if (player == Position.WHITE) {
+			after.white = chips;
+		} else {
+			after.black = chips;
+		}
+		return rules.isNetwork(after, player);
+	}
+
+	/** Splits a player's chips into connected groups.
+	*  @param own is the player's chips
+	*  @param other is the opponent's chips
+	**/
+	private void see(long own, long other) {
+		for (long rest = own; rest != 0; rest &= rest - 1) {
+			group[Long.numberOfTrailingZeros(rest)] = 0L;
+		}
+		for (long rest = own; rest != 0; rest &= rest - 1) {
+			int b = Long.numberOfTrailingZeros(rest);
+			if (group[b] != 0) {
+				continue;
+			}
+			// flood the group from this chip
+			long members = 1L << b;
+			long frontier = members;
+			while (frontier != 0) {
+				int c = Long.numberOfTrailingZeros(frontier);
+				frontier &= frontier - 1;
+				long next = sight(c & 7, c >> 3, own, other) & ~members;
+				members |= next;
+				frontier |= next;
+			}
+			for (long m = members; m != 0; m &= m - 1) {
+				group[Long.numberOfTrailingZeros(m)] = members;
+			}
+		}
+	}
+
+	/** Returns the chips of a player a cell can see: the first chip in each
+	*  direction, if it is the player's.
+	*  @param x is the cell's x coordinate
+	*  @param y is the cell's y coordinate
+	*  @param own is the player's chips
+	*  @param other is the opponent's chips
+	*  @return a mask of the chips seen
+	**/
+	private static long sight(int x, int y, long own, long other) {
+		long occupied = own | other;
+		long seen = 0L;
+		for (int d = 0; d < 8; d++) {
+			int cx = x + DX[d];
+			int cy = y + DY[d];
+			while (cx >= 0 && cx < 8 && cy >= 0 && cy < 8) {
+				long c = 1L << Position.bit(cx, cy);
+				if ((occupied & c) != 0) {
+					seen |= own & c;
+					break;
+				}
+				cx += DX[d];
+				cy += DY[d];
+			}
+		}
+		return seen;
+	}
+
+	/*  Test Code -- Reader Can Ignore  */
+
+	public static void main(String[] args) {
+		// positions from random games that reach the STEP phase
+		java.util.Random random = new java.util.Random(42);
+		java.util.List<Position> positions = new java.util.ArrayList<Position>();
+		Rules rules = new Rules();
+		Move[] buffer = Board.newMoveBuffer();
+		while (positions.size() < 4000) {
+			Position p = new Position();
+			int player = Position.WHITE;
+			for (int ply = 0; ply < 60; ply++) {
+				if (rules.isNetwork(p, Position.WHITE) || rules.isNetwork(p, Position.BLACK)) {
+					break;
+				}
+				if (ply >= 10) {
+					positions.add(new Position(p.white, p.black, player, p.whiteChips, p.blackChips));
+				}
+				int count = Rules.generateMoves(p, player, buffer);
+				if (count == 0) {
+					break;
+				}
+				Rules.play(p, buffer[random.nextInt(count)], player, p);
+				player = 1 - player;
+			}
+		}
+
+		// the same moves, in the same order, as trying every legal move, with
+		// the other moves behind them in the order they were generated
+		Threats threats = new Threats();
+		Move[] all = Board.newMoveBuffer();
+		Position after = new Position();
+		int mismatches = 0;
+		int threatened = 0;
+		for (Position p : positions) {
+			for (int player = Position.BLACK; player <= Position.WHITE; player++) {
+				int wins = threats.find(p, player, buffer);
+				int count = Rules.generateMoves(p, player, all);
+				boolean generated = threats.legalMoves() == count;
+				int expected = 0;
+				int others = 0;
+				boolean same = true;
+				for (int i = 0; i < count; i++) {
+					Rules.play(p, all[i], player, after);
+					if (rules.isNetwork(after, player) && !rules.isNetwork(after, 1 - player)) {
+						same = same && expected < wins
+								&& TranspositionTable.moveCode(all[i]) == TranspositionTable.moveCode(buffer[expected]);
+						expected++;
+					} else if (generated) {
+						same = same && wins + others < count && TranspositionTable.moveCode(all[i])
+								== TranspositionTable.moveCode(buffer[wins + others]);
+						others++;
+					}
+				}
+				if (wins > 0) {
+					threatened++;
+				}
+				if (!same || expected != wins || threats.hasWin(p, player, buffer) != (wins > 0)) {
+					mismatches++;
+					System.out.println("differs for " + player + ": " + p);
+				}
+			}
+		}
+		System.out.println(positions.size() + " positions, " + threatened + " with wins in one, "
+				+ mismatches + " mismatches");
+
+		// against the loop MachinePlayer.chooseMove() used to run: every
+		// opponent move made, checked for a network and undone on a Board.
+		// Random games leave threats everywhere, so time positions from
+		// games against a depth-1 machine player as well
+		long[][] timing = new long[2][];
+		timing[0] = time(positions, threats, buffer);
+		positions.clear();
+		for (int g = 0; positions.size() < 4000; g++) {
+			GameSession session = (g & 1) == 0
+					? new GameSession(new MachinePlayer(Position.WHITE, 1), new RandomPlayer(Position.BLACK, g))
+					: new GameSession(new RandomPlayer(Position.WHITE, g), new MachinePlayer(Position.BLACK, 1));
+			while (session.step()) {
+				positions.add(session.position());
+			}
+		}
+		timing[1] = time(positions, threats, buffer);
+		boolean faster = true;
+		for (int set = 0; set < 2; set++) {
+			long[] t = timing[set];
+			System.out.println((set == 0 ? "random games: " : "machine games: ")
+					+ "move loop " + t[0] / 1000 / t[4] + " us a position, " + t[2]
+					+ " wins; threat scan " + t[1] / 1000 / t[4] + " us a position, "
+					+ t[3] + " wins");
+			faster = faster && t[1] < t[0] && t[2] == t[3];
+		}
+
+		boolean ok = mismatches == 0 && threatened > 0 && faster;
+		System.out.println(ok ? "PASSED" : "FAILED");
+	}
+
+	/** Times the old move loop and find() on the side to move of each
+	*  position.
+	*  @return the loop's time, find()'s time, the wins each found and the
+	*          number of positions
+	**/
+	private static long[] time(java.util.List<Position> positions, Threats threats, Move[] buffer) {
+		Board[] boards = new Board[positions.size()];
+		for (int i = 0; i < boards.length; i++) {
+			boards[i] = positions.get(i).toBoard();
+		}
+		long loopNanos = 0;
+		long scanNanos = 0;
+		int loopWins = 0;
+		int scanWins = 0;
+		for (int round = 0; round < 3; round++) {
+			loopWins = 0;
+			scanWins = 0;
+			long start = System.nanoTime();
+			for (int i = 0; i < boards.length; i++) {
+				int player = positions.get(i).toMove();
+				Board b = boards[i];
+				Move[] moves = b.validMoves(player);
+				for (Move m : moves) {
+					if (m != null) {
+						b.makeMove(m, player);
+						if (b.isNetwork(player)) {
+							b.clearSearchState();
+							if (!b.isNetwork(1 - player)) {
+								loopWins++;
+							}
+						}
+						b.clearSearchState();
+						b.unmakeMove(m, player);
+					}
+				}
+			}
+			long middle = System.nanoTime();
+			for (int i = 0; i < boards.length; i++) {
+				Position p = positions.get(i);
+				scanWins += threats.find(p, p.toMove(), buffer);
+			}
+			// the first round warms up the JIT compiler
+			loopNanos = middle - start;
+			scanNanos = System.nanoTime() - middle;
+		}
+		return new long[] {loopNanos, scanNanos, loopWins, scanWins, boards.length};
+	}
+}
@@ -0,0 +1,47 @@
+/* TimeDecisionEvent.java */
+
+package player;
+import jdk.jfr.*;
+
+/** A Flight Recorder event committed each time the TimeManager decides
+*  whether chooseMove() searches one ply deeper. Together with the
+*  SearchIteration events it shows why each move took the time it did.
+**/
+@Name("network.TimeDecision")
+@Label("Time Decision")
+@Category({"Network", "Search"})
+@Description("Whether chooseMove() starts another search iteration")
+@Enabled(false)
+@StackTrace(false)
+class TimeDecisionEvent extends Event {
+	@Label("Completed Depth")
+	int depth;
+
+	@Label("Elapsed")
+	@Timespan(Timespan.NANOSECONDS)
+	long elapsed;
+
+	@Label("Soft Budget")
+	@Timespan(Timespan.NANOSECONDS)
+	long soft;
+
+	@Label("Hard Budget")
+	@Timespan(Timespan.NANOSECONDS)
+	long hard;
+
+	@Label("Predicted Finish")
+	@Timespan(Timespan.NANOSECONDS)
+	long predicted;
+
+	@Label("Branching Factor")
+	double branching;
+
+	@Label("Stable Iterations")
+	int stable;
+
+	@Label("Deepen")
+	boolean deepen;
+
+	@Label("Reason")
+	String reason;
+}
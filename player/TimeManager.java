@@ -0,0 +1,217 @@
+/* TimeManager.java */
+
+package player;
+
+/** Decides how long MachinePlayer searches for each move. The readme allows
+*  five seconds per chooseMove(); SAFETY of that is kept back for garbage
+*  collection, JIT compilation and the referee, and the rest is split into
+*  two budgets when the move starts. A shorter limit, such as WarmUp's
+*  scratch games use, keeps back the same share.
+*
+*    soft  the time after which no new iteration is started. It grows from
+*          the opening to the end of the ADD phase and is largest in the
+*          STEP phase, where games are decided.
+*    hard  the time at which a running iteration is abandoned, HARD_FACTOR
+*          times the soft budget but never more than the time available.
+*
+*  Before each new iteration the soft budget is scaled by how settled the
+*  search is: cut to EASY once the best move has stayed the same for
+*  STABLE_ITERATIONS iterations, stretched to UNSTABLE right after the best
+*  move changes. The next iteration is also skipped if, at the branching
+*  factor measured between the last two iterations, it would not finish
+*  before the hard budget.
+*
+*  Every decision is appended to a text trace and committed as a
+*  TimeDecisionEvent, so budgets can be tuned from tournament logs.
+**/
+class TimeManager {
+	static final long MILLIS = 1000000L;
+	static final long MOVE_LIMIT = 5000 * MILLIS;
+	static final long SAFETY = 600 * MILLIS;
+
+	// soft budget as a fraction of the available time
+	static final double ADD_OPENING = 0.08;
+	static final double ADD_LATE = 0.25;
+	static final double STEP = 0.35;
+	static final double HARD_FACTOR = 3.0;
+
+	static final double EASY = 0.4;
+	static final double UNSTABLE = 1.6;
+	static final int STABLE_ITERATIONS = 2;
+
+	private final long available;
+	private long start;
+	private long soft;
+	private long hard;
+	private int legalMoves;
+
+	private long lastNodes;
+	private long lastNanos;
+	private double branching;
+	private Move lastBest;
+	private int stable;
+	private boolean changed;
+
+	private StringBuilder trace = new StringBuilder();
+
+	/** Creates a time manager for the readme's limit of MOVE_LIMIT a move.
+	**/
+	TimeManager() {
+		this(MOVE_LIMIT);
+	}
+
+	/** Creates a time manager for a shorter limit.
+	*  @param moveLimit is the time allowed for each move, in nanoseconds
+	*  @throws IllegalArgumentException if moveLimit is not positive or is
+	*          more than MOVE_LIMIT
+	**/
+	TimeManager(long moveLimit) {
+		if (moveLimit <= 0 || moveLimit > MOVE_LIMIT) {
+			throw new IllegalArgumentException("move limit out of range: " + moveLimit);
+		}
+		available = moveLimit - SAFETY * moveLimit / MOVE_LIMIT;
+	}
+
+	/** Sets the budgets for a new move.
+	*  @param startNanos is System.nanoTime() when chooseMove() was entered
+	*  @param chipsLeft is how many chips the mover has left to add, 0 in the
+	*         STEP phase
+	*  @param legalMoves is how many legal moves the mover has
+	**/
+	void startMove(long startNanos, int chipsLeft, int legalMoves) {
+		this.start = startNanos;
+		this.legalMoves = legalMoves;
+		double fraction;
+		if (chipsLeft > 0) {
+			double played = (double)(Board.CHIPS - chipsLeft) / Board.CHIPS;
+			fraction = ADD_OPENING + (ADD_LATE - ADD_OPENING) * played;
+		} else {
+			fraction = STEP;
+		}
+		soft = (long)(available * fraction);
+		hard = Math.min(available, (long)(soft * HARD_FACTOR));
+		lastNodes = 0;
+		lastNanos = 0;
+		branching = 0.0;
+		lastBest = null;
+		stable = 0;
+		changed = false;
+		trace.setLength(0);
+		trace.append(chipsLeft > 0 ? "ADD" : "STEP").append(" chips=").append(chipsLeft)
+				.append(" moves=").append(legalMoves)
+				.append(" soft=").append(soft / MILLIS).append("ms hard=").append(hard / MILLIS).append("ms");
+	}
+
+	/** Records a completed search iteration.
+	*  @param depth is the depth searched
+	*  @param best is the best move it found
+	*  @param nodes is the number of nodes it visited
+	*  @param nanos is how long it took
+	**/
+	void iterationDone(int depth, Move best, long nodes, long nanos) {
+		if (lastNodes > 0) {
+			branching = (double)nodes / lastNodes;
+		}
+		changed = lastBest != null && !sameMove(best, lastBest);
+		if (lastBest != null && !changed) {
+			stable++;
+		} else {
+			stable = 0;
+		}
+		lastBest = best;
+		lastNodes = nodes;
+		lastNanos = nanos;
+		trace.append(" | d").append(depth).append(' ').append(best)
+				.append(' ').append(nanos / MILLIS).append("ms ").append(nodes).append('n');
+	}
+
+	/** Records that pondering already searched this position. Its time was
+	*  spent during the opponent's turn, so it does not count against the
+	*  budgets.
+	*  @param depth is the depth the ponder search completed
+	*  @param best is the best move it found
+	**/
+	void ponderHit(int depth, Move best) {
+		lastBest = best;
+		trace.append(" | ponder hit d").append(depth).append(' ').append(best);
+	}
+
+	/** Decides whether to start another iteration.
+	*  @param depth is the depth completed so far, 0 before the first
+	*  @param now is System.nanoTime()
+	*  @return true to search one ply deeper
+	**/
+	boolean deepen(int depth, long now) {
+		long elapsed = now - start;
+		long predicted = elapsed + (long)(lastNanos * Math.max(branching, 1.0));
+		double factor = 1.0;
+		if (changed) {
+			factor = UNSTABLE;
+		} else if (stable >= STABLE_ITERATIONS) {
+			factor = EASY;
+		}
+		long target = Math.min(hard, (long)(soft * factor));
+
+		boolean deepen;
+		String reason;
+		if (depth == 0) {
+			deepen = true;
+			reason = "first iteration";
+		} else if (legalMoves <= 1) {
+			deepen = false;
+			reason = "only move";
+		} else if (elapsed >= target) {
+			deepen = false;
+			reason = changed ? "soft budget, extended" : stable >= STABLE_ITERATIONS ? "soft budget, easy" : "soft budget";
+		} else if (branching > 0.0 && predicted > hard) {
+			deepen = false;
+			reason = "next iteration would pass the hard budget";
+		} else {
+			deepen = true;
+			reason = changed ? "best move changed" : "within budget";
+		}
+
+		trace.append(" | ").append(deepen ? "deepen: " : "stop: ").append(reason);
+		TimeDecisionEvent event = new TimeDecisionEvent();
+		if (event.shouldCommit()) {
+			event.depth = depth;
+			event.elapsed = elapsed;
+			event.soft = soft;
+			event.hard = hard;
+			event.predicted = predicted;
+			event.branching = branching;
+			event.stable = stable;
+			event.deepen = deepen;
+			event.reason = reason;
+			event.commit();
+		}
+		return deepen;
+	}
+
+	/** Returns the time at which a running iteration must be abandoned.
+	*  @return a System.nanoTime() value
+	**/
+	long deadline() {
+		return start + hard;
+	}
+
+	/** Records that an iteration was abandoned at the hard budget.
+	*  @param depth is the depth of the abandoned iteration
+	**/
+	void abandoned(int depth) {
+		trace.append(" | d").append(depth).append(" abandoned at hard budget");
+	}
+
+	/** Returns the trace of the current or last move: its budgets, every
+	*  iteration and every decision.
+	*  @return one line of text
+	**/
+	String trace() {
+		return trace.toString();
+	}
+
+	private static boolean sameMove(Move a, Move b) {
+		return a == b || (a != null && b != null && a.moveKind == b.moveKind
+				&& TranspositionTable.moveCode(a) == TranspositionTable.moveCode(b));
+	}
+}
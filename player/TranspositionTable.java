@@ -0,0 +1,86 @@
+/* TranspositionTable.java */
+
+package player;
+
+/** A fixed-size hash table of search results, keyed by a 64-bit position
+*  hash. Each entry holds one long of data packed by pack(): the best move
+*  found, the depth it was searched to, the kind of bound and the score.
+*
+*  Implementations may drop or overwrite entries at any time, and must be
+*  safe to probe and store from several threads without locks: a probe
+*  returns either an entry some thread stored under that key or nothing,
+*  never a mix of two entries.
+**/
+interface TranspositionTable {
+	int EXACT = 0;
+	int LOWER = 1;
+	int UPPER = 2;
+
+	/** Returned by probe() when there is no entry for a key. */
+	long MISS = 0L;
+
+	// every packed entry has this bit set, so no entry equals MISS
+	long VALID = 1L << 26;
+
+	/** Looks up a key.
+	*  @param key is the position hash
+	*  @return the data stored under the key, or MISS
+	**/
+	long probe(long key);
+
+	/** Stores data under a key, possibly replacing another entry.
+	*  @param key is the position hash
+	*  @param data is an entry made by pack()
+	**/
+	void store(long key, long data);
+
+	/** Removes every entry.
+	**/
+	void clear();
+
+	/** Returns how many entries the table can hold.
+	*  @return the number of slots
+	**/
+	long capacity();
+
+	/** Packs a search result into one long.
+	*  @param move is the best move's code from moveCode(), 16 bits
+	*  @param depth is the depth searched below the position, 0 to 255
+	*  @param bound is EXACT, LOWER or UPPER
+	*  @param score is the score found
+	*  @return the packed entry
+	**/
+	static long pack(int move, int depth, int bound, float score) {
+		return (move & 0xFFFFL) | (long)(depth & 0xFF) << 16 | (long)bound << 24 | VALID
+				| (long)Float.floatToRawIntBits(score) << 32;
+	}
+
+	static int move(long data) {
+		return (int)(data & 0xFFFF);
+	}
+
+	static int depth(long data) {
+		return (int)(data >>> 16) & 0xFF;
+	}
+
+	static int bound(long data) {
+		return (int)(data >>> 24) & 3;
+	}
+
+	static float score(long data) {
+		return Float.intBitsToFloat((int)(data >>> 32));
+	}
+
+	/** Encodes an ADD or STEP move in 16 bits, using the cell numbering of
+	*  the game-record format.
+	*  @param m is the move
+	*  @return the code
+	**/
+	static int moveCode(Move m) {
+		int to = GameRecordWriter.cell(m.x1, m.y1);
+		if (m.moveKind == Move.STEP) {
+			return (GameRecordWriter.STEP_FLAG | to) << 8 | GameRecordWriter.cell(m.x2, m.y2);
+		}
+		return to;
+	}
+}
@@ -0,0 +1,210 @@
+/* WarmUp.java */
+
+package player;
+
+/** Gets the JIT to compile the search before the first real move. A fresh
+*  JVM runs the first chooseMove() calls in the interpreter and the first
+*  compiler tier, which can be several times slower than the same calls
+*  later on, and under a time limit that means a shallower search.
+*
+*  run() plays games between scratch players for a fixed time, so that
+*  Board.isValid(), validMoves(), isNetwork(), the evaluator and the
+*  Searcher become hot enough to be compiled fully. Some games are between
+*  players that manage their time, with MOVE_LIMIT a move, so that the
+*  TimeManager and the copy-make search are warmed along with the
+*  fixed-depth make/undo search, and a scratch ProofSolver works on the
+*  STEP-phase positions the games pass through. Those games are mostly
+*  decided before the STEP phase, so waiting for the players' own
+*  proveWin() would leave the solver cold. STEP_MOVES STEP moves end a
+*  game in a draw. The players, boards and solver are its own and are
+*  thrown away, and nothing in the search is static, so no real game is
+*  touched. The wins and blocks checked before searching are warmed too.
+**/
+final class WarmUp {
+	static final long BUDGET = 2000 * TimeManager.MILLIS;
+	static final int DEPTH = 3;
+	static final long MOVE_LIMIT = 50 * TimeManager.MILLIS;
+	static final int PROOF_TABLE_BITS = 16;
+	static final int PROOF_POSITIONS = 40;
+	static final int STEP_MOVES = 40;
+	static final long SETTLE_MILLIS = 50;
+
+	private static boolean done;
+
+	private WarmUp() {
+	}
+
+	/** Warms up the first time it is called in a JVM, and does nothing
+	*  after that.
+	*  @param nanos is how long to spend
+	*  @return whether this call warmed up
+	**/
+	static synchronized boolean once(long nanos) {
+		if (done) {
+			return false;
+		}
+		done = true;
+		run(nanos);
+		settle(nanos / 4);
+		return true;
+	}
+
+	/** Waits for the compiler threads to finish the methods the scratch
+	*  games queued, as long as compilation time keeps growing.
+	*  @param nanos is the longest to wait
+	**/
+	private static void settle(long nanos) {
+		java.lang.management.CompilationMXBean jit = java.lang.management.ManagementFactory.getCompilationMXBean();
+		if (jit == null || !jit.isCompilationTimeMonitoringSupported()) {
+			return;
+		}
+		long end = System.nanoTime() + nanos;
+		long compiled = -1;
+		while (jit.getTotalCompilationTime() != compiled && System.nanoTime() < end) {
+			compiled = jit.getTotalCompilationTime();
+			try {
+				Thread.sleep(SETTLE_MILLIS);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return;
+			}
+		}
+	}
+
+	/** Plays scratch games for a while, in turn: two players that manage
+	*  their time, two fixed-depth players, and a fixed-depth player against
+	*  a random one so that the games differ. The first PROOF_POSITIONS
+	*  STEP-phase positions the games reach are also given to a scratch
+	*  ProofSolver, as proveWin() does. A game in progress when the time
+	*  runs out is abandoned.
+	*  @param nanos is how long to spend
+	*  @return the number of games played to the end
+	**/
+	static int run(long nanos) {
+		long end = System.nanoTime() + nanos;
+		ProofSolver solver = new ProofSolver(PROOF_TABLE_BITS);
+		int proofs = 0;
+		int finished = 0;
+		for (int game = 0; System.nanoTime() < end; game++) {
+			Player white;
+			Player black;
+			if (game % 3 == 0) {
+				white = timed(GameSession.WHITE);
+				black = timed(GameSession.BLACK);
+			} else {
+				white = new MachinePlayer(GameSession.WHITE, DEPTH);
+				black = game % 3 == 1 ? new MachinePlayer(GameSession.BLACK, DEPTH)
+						: new RandomPlayer(GameSession.BLACK, game);
+			}
+			GameSession session = new GameSession(white, black);
+			session.setDrawRules(0, STEP_MOVES);
+			while (System.nanoTime() < end && session.step()) {
+				Position p = session.position();
+				if (p.whiteChips == 0 && p.blackChips == 0 && proofs++ < PROOF_POSITIONS) {
+					solver.solve(p, p.toMove(), MachinePlayer.PROOF_PLIES, MachinePlayer.PROOF_BUDGET);
+				}
+			}
+			if (session.isOver()) {
+				finished++;
+			}
+		}
+		return finished;
+	}
+
+	/** Makes a player that manages its time, with MOVE_LIMIT a move,
+	*  without warming up again.
+	**/
+	private static MachinePlayer timed(int color) {
+		MachinePlayer player = new MachinePlayer(color, -1, new HeapTranspositionTable(MachinePlayer.TABLE_BITS));
+		player.setMoveLimit(MOVE_LIMIT);
+		return player;
+	}
+
+	/*  Test Code -- Reader Can Ignore  */
+
+	// a middle-game position: white to move, five chips each
+	private static final int[][] WHITE_MOVES = {{1, 0}, {3, 4}, {6, 4}, {1, 6}, {6, 7}};
+	private static final int[][] BLACK_MOVES = {{0, 1}, {6, 1}, {2, 2}, {2, 3}, {7, 4}};
+
+	private static MachinePlayer middleGame(int depth) {
+		MachinePlayer player = new MachinePlayer(GameSession.WHITE, depth);
+		for (int i = 0; i < WHITE_MOVES.length; i++) {
+			player.forceMove(new Move(WHITE_MOVES[i][0], WHITE_MOVES[i][1]));
+			player.opponentMove(new Move(BLACK_MOVES[i][0], BLACK_MOVES[i][1]));
+		}
+		return player;
+	}
+
+	/** Times the first chooseMove() of a default, time-managed player.
+	*  @return the time it took and the nodes it searched
+	**/
+	private static long[] firstMove() {
+		MachinePlayer player = new MachinePlayer(GameSession.WHITE);
+		long start = System.nanoTime();
+		player.chooseMove();
+		return new long[] {System.nanoTime() - start, player.nodes()};
+	}
+
+	public static void main(String[] args) throws Exception {
+		int depth = 4;
+		if (args.length == 1) {
+			// a fresh JVM: the first move of a default player, warmed up by
+			// its constructor or not, then the median of later players' first
+			// moves
+			long warmUp = 0;
+			if (args[0].equals("warm")) {
+				long start = System.nanoTime();
+				new MachinePlayer(GameSession.WHITE);
+				warmUp = System.nanoTime() - start;
+			} else {
+				done = true;
+			}
+			long[] first = firstMove();
+			long[][] later = new long[5][];
+			for (int i = 0; i < later.length; i++) {
+				later[i] = firstMove();
+			}
+			java.util.Arrays.sort(later, (a, b) -> Long.compare(a[1], b[1]));
+			long[] median = later[later.length / 2];
+			System.out.println(first[0] + " " + first[1] + " " + median[0] + " " + median[1] + " " + warmUp);
+			return;
+		}
+
+		// several whole scratch games, searching and random, leave a real
+		// player's game alone
+		MachinePlayer real = middleGame(depth);
+		long before = Zobrist.hash(real.gameBoard);
+		int games = run(2 * BUDGET);
+		boolean untouched = before == Zobrist.hash(real.gameBoard);
+
+		String java = System.getProperty("java.home") + "/bin/java";
+		long[][] results = new long[2][];
+		String[] modes = {"cold", "warm"};
+		for (int m = 0; m < 2; m++) {
+			Process child = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"),
+					"player.WarmUp", modes[m]).redirectErrorStream(true).start();
+			java.io.BufferedReader in = new java.io.BufferedReader(new java.io.InputStreamReader(child.getInputStream()));
+			String[] fields = in.readLine().trim().split(" ");
+			child.waitFor();
+			results[m] = new long[fields.length];
+			for (int i = 0; i < fields.length; i++) {
+				results[m][i] = Long.parseLong(fields[i]);
+			}
+			System.out.println(modes[m] + " JVM: first move " + results[m][0] / TimeManager.MILLIS + " ms, "
+					+ rate(results[m][1], results[m][0]) + " nodes/ms; later players' first moves "
+					+ results[m][2] / TimeManager.MILLIS + " ms, " + rate(results[m][3], results[m][2]) + " nodes/ms"
+					+ (m == 1 ? "; after " + results[m][4] / TimeManager.MILLIS + " ms of warm-up" : ""));
+		}
+		System.out.println(games + " scratch games played to the end in " + 2 * BUDGET / TimeManager.MILLIS
+				+ " ms, real game untouched: " + untouched);
+
+		// the budget is the same warm or cold, so warming shows as a faster
+		// search in it
+		boolean ok = untouched && games >= 3 && rate(results[1][1], results[1][0]) > rate(results[0][1], results[0][0]);
+		System.out.println(ok ? "PASSED" : "FAILED");
+	}
+
+	private static long rate(long nodes, long nanos) {
+		return nodes * TimeManager.MILLIS / Math.max(nanos, 1);
+	}
+}
@@ -0,0 +1,28 @@
+/* WireConnection.java */
+
+package player;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+
+/** NetworkServer's state for one client connection. The buffers are
+*  allocated once per connection and reused for every message.
+**/
+class WireConnection {
+	static final int BUFFER_SIZE = 512;
+
+	SocketChannel channel;
+	ByteBuffer in = ByteBuffer.allocateDirect(BUFFER_SIZE);
+	ByteBuffer out = ByteBuffer.allocateDirect(BUFFER_SIZE);
+
+	boolean greeted;
+	boolean closing;
+	WireMatch match;
+	int color;
+
+	/** Creates the state for a newly accepted connection.
+	*  @param channel is the connection's channel
+	**/
+	WireConnection(SocketChannel channel) {
+		this.channel = channel;
+	}
+}
@@ -0,0 +1,16 @@
+/* WireMatch.java */
+
+package player;
+
+/** NetworkServer's state for one game between two connections: the referee
+*  board, whose turn it is and when that turn's time runs out. The Move is
+*  reused to decode every move of the game.
+**/
+class WireMatch {
+	Board board = new Board();
+	WireConnection[] players = new WireConnection[2];
+	Move move = new Move();
+	int toMove = GameSession.WHITE;
+	long deadline;
+	boolean over;
+}
@@ -0,0 +1,123 @@
+/* WireProtocol.java */
+
+package player;
+import java.nio.ByteBuffer;
+
+/** The binary protocol spoken between NetworkServer and RemotePlayer.
+*
+*  Moves travel without a message header. A move is one byte for an ADD
+*  (the cell x * 8 + y) or a QUIT (QUIT_BYTE), and two bytes for a STEP
+*  (STEP_FLAG | new cell, then the old cell), as in the game-record format.
+*  Every other message starts with a byte of 0xC0 or more:
+*
+*    HELLO   client to server: version (u8), name length (u8), name (ASCII)
+*    COLOR   server to client: the color the client plays (u8)
+*    TIME    server to client: milliseconds allowed per move (u32)
+*    RESULT  server to client: the winner's color (u8), or NO_RESULT
+*
+*  A client sends HELLO and receives COLOR and TIME once it has been paired
+*  with an opponent. From then on each side sends its own moves and receives
+*  its opponent's, until the server sends RESULT and closes the connection.
+**/
+class WireProtocol {
+	static final int VERSION = 1;
+
+	static final int STEP_FLAG = GameRecordWriter.STEP_FLAG;
+	static final int QUIT_BYTE = GameRecordWriter.QUIT_BYTE;
+	static final int CONTROL = 0xC0;
+
+	static final int HELLO = 0xC1;
+	static final int COLOR = 0xC2;
+	static final int TIME = 0xC3;
+	static final int RESULT = 0xC4;
+
+	static final int NO_RESULT = GameRecordWriter.NO_RESULT;
+	static final int MAX_NAME = 64;
+
+	/** Returns the length of the message that starts with the bytes
+	*  remaining in a buffer, without consuming them.
+	*  @param in is a buffer in read mode
+	*  @return the message length, 0 if not enough bytes have arrived to tell,
+	*          or -1 if the first byte starts no message
+	**/
+	static int messageLength(ByteBuffer in) {
+		if (!in.hasRemaining()) {
+			return 0;
+		}
+		int b = in.get(in.position()) & 0xFF;
+		if (b < QUIT_BYTE + 1) {
+			return 1;
+		} else if (b < STEP_FLAG) {
+			// between QUIT_BYTE and the STEP moves no byte is defined
+			return -1;
+		} else if (b < CONTROL) {
+			return 2;
+		}
+		switch (b) {
+		case HELLO:
+			if (in.remaining() < 3) {
+				return 0;
+			}
+			return 3 + (in.get(in.position() + 2) & 0xFF);
+		case COLOR:
+		case RESULT:
+			return 2;
+		case TIME:
+			return 5;
+		default:
+			return -1;
+		}
+	}
+
+	/** Writes a move's one or two bytes.
+	*  @param m is the move
+	*  @param out is a buffer in write mode
+	**/
+	static void putMove(Move m, ByteBuffer out) {
+		switch (m.moveKind) {
+		case Move.ADD:
+			out.put((byte)GameRecordWriter.cell(m.x1, m.y1));
+			break;
+		case Move.STEP:
+			out.put((byte)(STEP_FLAG | GameRecordWriter.cell(m.x1, m.y1)));
+			out.put((byte)GameRecordWriter.cell(m.x2, m.y2));
+			break;
+		default:
+			out.put((byte)QUIT_BYTE);
+			break;
+		}
+	}
+
+	/** Reads a move written by putMove() into an existing Move, so decoding
+	*  allocates nothing. The whole move must be in the buffer. Both bytes of
+	*  a STEP are consumed even if the second is bad.
+	*  @param in is a buffer in read mode
+	*  @param m receives the move
+	*  @return false if the bytes are not a move, in which case m holds
+	*          nothing meaningful
+	**/
+	static boolean getMove(ByteBuffer in, Move m) {
+		int b = in.get() & 0xFF;
+		if (b == QUIT_BYTE) {
+			m.moveKind = Move.QUIT;
+			return true;
+		}
+		if (b > QUIT_BYTE && b < STEP_FLAG || b >= CONTROL) {
+			return false;
+		}
+		m.x1 = (b >> 3) & 7;
+		m.y1 = b & 7;
+		if ((b & STEP_FLAG) != 0) {
+			int from = in.get() & 0xFF;
+			if (from > 63) {
+				return false;
+			}
+			m.moveKind = Move.STEP;
+			m.x2 = from >> 3;
+			m.y2 = from & 7;
+		} else {
+			m.moveKind = Move.ADD;
+		}
+		return true;
+	}
+}
@@ -0,0 +1,64 @@
+/* Zobrist.java */
+
+package player;
+
+/** Zobrist keys for Network boards. A board's hash is the XOR of one key per
+*  occupied cell and color, so making or undoing a move changes it with one
+*  XOR per cell the move touches. The side to move is folded in separately
+*  with WHITE_TO_MOVE.
+**/
+final class Zobrist {
+	static final long WHITE_TO_MOVE = Position.mix(0x5A0B0157L);
+
+	// indexed by color * 64 + x * 8 + y
+	private static final long[] PIECES = new long[128];
+
+	static {
+		for (int i = 0; i < PIECES.length; i++) {
+			PIECES[i] = Position.mix(0x9E3779B97F4A7C15L * (i + 1));
+		}
+	}
+
+	private Zobrist() {
+	}
+
+	/** Returns the key of one chip.
+	*  @param color is the chip's color
+	*  @param x is the chip's x-coordinate, 0 to 7
+	*  @param y is the chip's y-coordinate, 0 to 7
+	*  @return the key
+	**/
+	static long piece(int color, int x, int y) {
+		return PIECES[color << 6 | x << 3 | y];
+	}
+
+	/** Returns the change a move makes to a board's hash. Undoing the move
+	*  changes the hash by the same amount.
+	*  @param m is an ADD or STEP move
+	*  @param color is the mover's color
+	*  @return the XOR difference
+	**/
+	static long move(Move m, int color) {
+		if (m.moveKind == Move.STEP) {
+			return piece(color, m.x1, m.y1) ^ piece(color, m.x2, m.y2);
+		}
+		return piece(color, m.x1, m.y1);
+	}
+
+	/** Computes a board's hash from scratch.
+	*  @param b is the board
+	*  @return the XOR of the keys of all chips on the board
+	**/
+	static long hash(Board b) {
+		long h = 0L;
+		for (int x = 0; x < 8; x++) {
+			for (int y = 0; y < 8; y++) {
+				int item = b.myBoard[x + 1][y + 1].item;
+				if (item != Board.EMPTY) {
+					h ^= piece(item, x, y);
+				}
+			}
+		}
+		return h;
+	}
+}